@@ -0,0 +1,425 @@
+package com.maphon.russvy.assets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Adds operator and region columns to call detail records (or any other CSV with phone numbers).
+ * Input is read in chunks of whole lines which are enriched in parallel and written in the input
+ * order. Memory use is bounded by the chunks in flight, the chunks are reused. Lines are handled
+ * as bytes, numbers are parsed in place, so nothing is allocated per line. Columns are separated
+ * with ';', added names are UTF-8. Lines where the column is not a phone number (e.g. header) get
+ * empty columns.
+ */
+public class CdrEnricher {
+    private static final char SEPARATOR = ';';
+    /** Charset of the operators and regions assets. */
+    private static final Charset ASSET_CHARSET = Charset.forName("UTF-8");
+    // Ranges asset header, must be kept in sync with the library (RussvyAssetHeader).
+    private static final int ASSET_MAGIC = 0x52535659;
+    private static final int ASSET_FORMAT_VERSION = 2;
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long NUMBERS_PER_CODE = 10000000L;
+    private static final long MAX_NUMBER = 10000000000L;
+
+    /** First numbers of the ranges (with code), sorted. */
+    private final long[] mFirsts;
+    private final int[] mCapacities;
+    private final short[] mOperators;
+    private final short[] mRegions;
+    /** Names with leading separator, ready to be appended. */
+    private final byte[][] mOperatorColumns;
+    private final byte[][] mRegionColumns;
+    private final int mColumn;
+    private final int mThreadCount;
+
+    private long mLineCount;
+    private long mResolvedCount;
+
+    /**
+     * Enriches CSV file.
+     * @param args command line arguments:
+     *             - directory with the assets (ranges, operators, regions)
+     *             - input CSV file
+     *             - output CSV file
+     *             - optional zero based index of the column with phone numbers, 0 by default
+     *             - optional number of threads, number of processors by default
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Insufficient command line arguments.");
+            return;
+        }
+        final int column = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        final int threadCount = args.length > 4 ? Integer.parseInt(args[4])
+                : Runtime.getRuntime().availableProcessors();
+        final CdrEnricher enricher = load(args[0], column, Math.max(1, threadCount));
+        if (enricher == null) {
+            System.err.println("Failed to read the assets.");
+            return;
+        }
+        final long startTime = System.nanoTime();
+        final long size = enricher.enrich(args[1], args[2]);
+        if (size < 0) {
+            System.err.println("Failed to enrich \"" + args[1] + "\".");
+            return;
+        }
+        final double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println("Lines processed:");
+        System.out.println(enricher.getLineCount());
+        System.out.println("Numbers resolved:");
+        System.out.println(enricher.getResolvedCount());
+        System.out.println(String.format("%.1f s, %.1f MB/s", seconds,
+                size / seconds / (1 << 20)));
+    }
+
+    public long getLineCount() {
+        return mLineCount;
+    }
+
+    public long getResolvedCount() {
+        return mResolvedCount;
+    }
+
+    private CdrEnricher(long[] firsts, int[] capacities, short[] operators, short[] regions,
+                        byte[][] operatorColumns, byte[][] regionColumns, int column,
+                        int threadCount) {
+        mFirsts = firsts;
+        mCapacities = capacities;
+        mOperators = operators;
+        mRegions = regions;
+        mOperatorColumns = operatorColumns;
+        mRegionColumns = regionColumns;
+        mColumn = column;
+        mThreadCount = threadCount;
+    }
+
+    /** Reads the assets, returns null if they are missing or broken. */
+    static CdrEnricher load(String assetDir, int column, int threadCount) {
+        final DataInputStream is = getFileInputStream(assetDir + "/ranges");
+        if (is == null) {
+            return null;
+        }
+        final long[] firsts;
+        final int[] capacities;
+        final short[] operators;
+        final short[] regions;
+        try {
+            if (is.readInt() != ASSET_MAGIC || is.readShort() != ASSET_FORMAT_VERSION) {
+                return null;
+            }
+            // Date, record count, checksum
+            is.readInt();
+            final int count = is.readInt();
+            final long checksum = is.readLong();
+            // Checksum covers the directory and the records
+            final CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+            final DataInputStream data = new DataInputStream(checked);
+            // Records are sorted by code and start, directory is not needed
+            final int codeCount = data.readShort();
+            data.readFully(new byte[codeCount * 10]);
+            firsts = new long[count];
+            capacities = new int[count];
+            operators = new short[count];
+            regions = new short[count];
+            for (int i = 0; i < count; i++) {
+                firsts[i] = data.readShort() * NUMBERS_PER_CODE + data.readInt();
+                capacities[i] = data.readInt();
+                operators[i] = data.readShort();
+                regions[i] = data.readShort();
+            }
+            if (checked.getChecksum().getValue() != checksum) {
+                System.err.println("Ranges checksum mismatch.");
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeStream(is);
+        }
+        final byte[][] operatorColumns = readColumns(assetDir + "/operators");
+        final byte[][] regionColumns = readColumns(assetDir + "/regions");
+        if (operatorColumns == null || regionColumns == null) {
+            return null;
+        }
+        return new CdrEnricher(firsts, capacities, operators, regions, operatorColumns,
+                regionColumns, column, threadCount);
+    }
+
+    /** Reads names, one per line, as bytes prefixed with the separator. */
+    private static byte[][] readColumns(String file) {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(is,
+                    ASSET_CHARSET));
+            final List<byte[]> columns = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Separators inside names would break the columns
+                columns.add((SEPARATOR + line.replace(SEPARATOR, ',')).getBytes(ASSET_CHARSET));
+            }
+            return columns.toArray(new byte[columns.size()][]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeStream(is);
+        }
+    }
+
+    /**
+     * Enriches input file to the output file.
+     * @return size of the input or -1 if something went wrong.
+     */
+    long enrich(String input, String output) {
+        mLineCount = 0;
+        mResolvedCount = 0;
+        // Two chunks per thread: one being enriched, one being read or written
+        final int chunkCount = 2 * mThreadCount;
+        final ArrayDeque<Chunk> freeChunks = new ArrayDeque<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            freeChunks.add(new Chunk());
+        }
+        final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        InputStream is = null;
+        OutputStream os = null;
+        long size = 0;
+        try {
+            is = new FileInputStream(input);
+            os = new FileOutputStream(output);
+            // Incomplete last line of the previous chunk
+            byte[] tail = new byte[CHUNK_SIZE];
+            int tailLength = 0;
+            boolean end = false;
+            while (!end) {
+                final Chunk chunk = freeChunks.isEmpty() ? write(pending.remove(), os)
+                        : freeChunks.remove();
+                chunk.ensureInputCapacity(tailLength + CHUNK_SIZE);
+                System.arraycopy(tail, 0, chunk.input, 0, tailLength);
+                int length = tailLength;
+                while (length < chunk.input.length) {
+                    final int read = is.read(chunk.input, length, chunk.input.length - length);
+                    if (read < 0) {
+                        end = true;
+                        break;
+                    }
+                    length += read;
+                }
+                size += length - tailLength;
+                // Chunk ends with the last complete line, the rest goes to the next one
+                int chunkLength = length;
+                if (!end) {
+                    while (chunkLength > 0 && chunk.input[chunkLength - 1] != '\n') {
+                        chunkLength--;
+                    }
+                }
+                tailLength = length - chunkLength;
+                if (tailLength > tail.length) {
+                    tail = new byte[tailLength];
+                }
+                System.arraycopy(chunk.input, chunkLength, tail, 0, tailLength);
+                chunk.inputLength = chunkLength;
+                pending.add(executor.submit(chunk));
+            }
+            while (!pending.isEmpty()) {
+                freeChunks.add(write(pending.remove(), os));
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            executor.shutdownNow();
+            closeStream(is);
+            closeStream(os);
+        }
+        return size;
+    }
+
+    /** Waits for the chunk, writes it and returns it for reuse. */
+    private Chunk write(Future<Chunk> future, OutputStream os)
+            throws IOException, InterruptedException, ExecutionException {
+        final Chunk chunk = future.get();
+        os.write(chunk.output, 0, chunk.outputLength);
+        mLineCount += chunk.lineCount;
+        mResolvedCount += chunk.resolvedCount;
+        return chunk;
+    }
+
+    /** Returns position of the range containing the number or -1. */
+    private int find(long number) {
+        // Last range starting at or before the number
+        int low = 0;
+        int high = mFirsts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mFirsts[middle] <= number) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found >= 0 && number - mFirsts[found] < mCapacities[found] ? found : -1;
+    }
+
+    /**
+     * Returns ten digit number without country prefix or -1 if the bytes are not a phone number.
+     * Accepts numbers with leading 7 or 8 as well, see CsvConverter, and common punctuation,
+     * e.g. "+7 (916) 000-00-00".
+     */
+    private static long parseNumber(byte[] bytes, int from, int to) {
+        long number = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            final byte c = bytes[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 11) {
+                    return -1;
+                }
+                number = number * 10 + (c - '0');
+            } else if (c != ' ' && c != '+' && c != '-' && c != '(' && c != ')' && c != '\t'
+                    && c != '"') {
+                return -1;
+            }
+        }
+        if (digits == 11 && (number / MAX_NUMBER == 7 || number / MAX_NUMBER == 8)) {
+            return number % MAX_NUMBER;
+        }
+        return digits == 10 ? number : -1;
+    }
+
+    /** Lines of the input and their enriched copy, reused for many chunks. */
+    private final class Chunk implements Callable<Chunk> {
+        byte[] input = new byte[CHUNK_SIZE];
+        int inputLength;
+        byte[] output = new byte[CHUNK_SIZE + CHUNK_SIZE / 2];
+        int outputLength;
+        int lineCount;
+        int resolvedCount;
+
+        void ensureInputCapacity(int capacity) {
+            if (input.length < capacity) {
+                final byte[] bigger = new byte[capacity];
+                System.arraycopy(input, 0, bigger, 0, input.length);
+                input = bigger;
+            }
+        }
+
+        @Override
+        public Chunk call() {
+            outputLength = 0;
+            lineCount = 0;
+            resolvedCount = 0;
+            int lineStart = 0;
+            while (lineStart < inputLength) {
+                int lineEnd = lineStart;
+                while (lineEnd < inputLength && input[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                enrichLine(lineStart, lineEnd);
+                lineCount++;
+                lineStart = lineEnd + 1;
+            }
+            return this;
+        }
+
+        // Copies the line [start, end) with the columns added, keeps the line ending.
+        private void enrichLine(int start, int end) {
+            final boolean newLine = end < inputLength;
+            int contentEnd = end;
+            if (contentEnd > start && input[contentEnd - 1] == '\r') {
+                contentEnd--;
+            }
+            // Find the column
+            int columnStart = start;
+            for (int i = 0; i < mColumn && columnStart <= contentEnd; i++) {
+                while (columnStart < contentEnd && input[columnStart] != SEPARATOR) {
+                    columnStart++;
+                }
+                columnStart++;
+            }
+            int columnEnd = columnStart;
+            while (columnEnd < contentEnd && input[columnEnd] != SEPARATOR) {
+                columnEnd++;
+            }
+            final int range = columnStart < contentEnd
+                    ? find(parseNumber(input, columnStart, columnEnd)) : -1;
+            final byte[] operator = range >= 0 ? mOperatorColumns[mOperators[range]] : null;
+            final byte[] region = range >= 0 ? mRegionColumns[mRegions[range]] : null;
+            if (range >= 0) {
+                resolvedCount++;
+            }
+            ensureOutputCapacity(outputLength + end - start + 3
+                    + (operator != null ? operator.length : 1)
+                    + (region != null ? region.length : 1));
+            System.arraycopy(input, start, output, outputLength, contentEnd - start);
+            outputLength += contentEnd - start;
+            outputLength = append(operator, outputLength);
+            outputLength = append(region, outputLength);
+            System.arraycopy(input, contentEnd, output, outputLength, end - contentEnd);
+            outputLength += end - contentEnd;
+            if (newLine) {
+                output[outputLength++] = '\n';
+            }
+        }
+
+        private int append(byte[] column, int position) {
+            if (column == null) {
+                output[position] = SEPARATOR;
+                return position + 1;
+            }
+            System.arraycopy(column, 0, output, position, column.length);
+            return position + column.length;
+        }
+
+        private void ensureOutputCapacity(int capacity) {
+            if (output.length < capacity) {
+                final byte[] bigger = new byte[Math.max(capacity, output.length * 2)];
+                System.arraycopy(output, 0, bigger, 0, outputLength);
+                output = bigger;
+            }
+        }
+    }
+
+    private static DataInputStream getFileInputStream(String file) {
+        try {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void closeStream(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nop
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.maphon.russvy.assets;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Measures throughput of {@link CdrEnricher} on a generated call detail records file and checks
+ * that the output does not depend on the number of threads. Numbers of the file are random
+ * (fixed seed) mobile numbers written in the usual formats, so the same arguments give the same
+ * file. Files are created in the temporary directory and removed at the end.
+ */
+public class CdrEnricherBenchmark {
+    private static final long SEED = 20170201L;
+    private static final int DEFAULT_LINE_COUNT = 3000000;
+    private static final int RUN_COUNT = 3;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Runs the benchmark.
+     * @param args command line arguments:
+     *             - directory with the assets (ranges, operators, regions)
+     *             - optional number of lines, 3M by default
+     *             - optional number of threads, number of processors by default
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Insufficient command line arguments.");
+            return;
+        }
+        final int lineCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LINE_COUNT;
+        final int threadCount = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        final CdrEnricher single = CdrEnricher.load(args[0], 0, 1);
+        final CdrEnricher parallel = CdrEnricher.load(args[0], 0, Math.max(1, threadCount));
+        if (single == null || parallel == null) {
+            System.err.println("Failed to read the assets.");
+            return;
+        }
+        final File input = File.createTempFile("cdr", ".csv");
+        final File singleOutput = File.createTempFile("cdr-1", ".csv");
+        final File parallelOutput = File.createTempFile("cdr-n", ".csv");
+        try {
+            writeRecords(input, lineCount);
+            System.out.println(String.format("Java %s, %d CPUs, %d lines, %.1f MB, seed %d",
+                    System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors(), lineCount,
+                    input.length() / (double) (1 << 20), SEED));
+            final double singleRate = run(single, input, singleOutput);
+            System.out.println(String.format("1 thread: %.1f MB/s", singleRate));
+            System.out.println(String.format("%d threads: %.1f MB/s", threadCount,
+                    run(parallel, input, parallelOutput)));
+            System.out.println("Lines processed:");
+            System.out.println(parallel.getLineCount());
+            System.out.println("Numbers resolved:");
+            System.out.println(parallel.getResolvedCount());
+            final long singleChecksum = getChecksum(singleOutput);
+            final long parallelChecksum = getChecksum(parallelOutput);
+            System.out.println(String.format("Output CRC32: %08x (1 thread), %08x (%d threads)",
+                    singleChecksum, parallelChecksum, threadCount));
+            if (singleChecksum != parallelChecksum
+                    || singleOutput.length() != parallelOutput.length()) {
+                System.err.println("Outputs differ.");
+            }
+        } finally {
+            delete(input);
+            delete(singleOutput);
+            delete(parallelOutput);
+        }
+    }
+
+    /** Enriches the input several times, returns median throughput in MB/s. */
+    private static double run(CdrEnricher enricher, File input, File output) throws IOException {
+        final double[] rates = new double[RUN_COUNT];
+        for (int i = 0; i < RUN_COUNT; i++) {
+            final long startTime = System.nanoTime();
+            final long size = enricher.enrich(input.getPath(), output.getPath());
+            if (size < 0) {
+                throw new IOException("Failed to enrich \"" + input + "\".");
+            }
+            rates[i] = size / ((System.nanoTime() - startTime) / 1e9) / (1 << 20);
+        }
+        Arrays.sort(rates);
+        return rates[RUN_COUNT / 2];
+    }
+
+    /** Writes header and records of calls to random mobile numbers in different formats. */
+    private static void writeRecords(File file, int lineCount) throws IOException {
+        final Random random = new Random(SEED);
+        final OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            os.write("number;duration;time\n".getBytes(CHARSET));
+            for (int i = 1; i < lineCount; i++) {
+                final int code = 900 + random.nextInt(100);
+                final int local = random.nextInt(10000000);
+                final String number;
+                switch (i % 4) {
+                    case 0:
+                        number = String.format("%d%07d", code, local);
+                        break;
+                    case 1:
+                        number = String.format("+7%d%07d", code, local);
+                        break;
+                    case 2:
+                        number = String.format("8%d%07d", code, local);
+                        break;
+                    default:
+                        number = String.format("+7 (%d) %03d-%02d-%02d", code, local / 10000,
+                                local / 100 % 100, local % 100);
+                        break;
+                }
+                os.write(String.format("%s;%d;2017-02-01 %02d:%02d:%02d\n", number,
+                        random.nextInt(3600), random.nextInt(24), random.nextInt(60),
+                        random.nextInt(60)).getBytes(CHARSET));
+            }
+        } finally {
+            closeStream(os);
+        }
+    }
+
+    private static long getChecksum(File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[1 << 16];
+        final InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            closeStream(is);
+        }
+        return crc.getValue();
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static void closeStream(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nop
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.maphon.russvy.assets;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
@@ -15,27 +17,47 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 
 public class CsvConverter {
     /** All data files provided by Rossvyaz. */
-    private static final String[] CVS_FILES = {"Kody_ABC-3kh.csv", "Kody_ABC-4kh.csv", "Kody_ABC-8kh.csv", "Kody_DEF-9kh.csv"};
+    static final String[] CVS_FILES = {"Kody_ABC-3kh.csv", "Kody_ABC-4kh.csv", "Kody_ABC-8kh.csv", "Kody_DEF-9kh.csv"};
+    /** Families of the data files: ABC (landline) and DEF (mobile), file names start with them. */
+    private static final String[] CSV_FAMILIES = {"ABC", "DEF"};
+    private static final String CSV_FILE_PREFIX = "Kody_";
+    // Command line options
+    private static final String OPTION_FAMILIES = "--families=";
+    private static final String OPTION_CODES = "--codes=";
     /** Charset used in data files. */
     private static final String CSV_CHARSET = "windows-1251";
     // Data file format specification.
     private static final char CSV_SEPARATOR = ';';
-    private static final int CSV_INDEX_CODE = 0;
-    private static final int CSV_INDEX_START = 1;
+    static final int CSV_INDEX_CODE = 0;
+    static final int CSV_INDEX_START = 1;
     private static final int CSV_INDEX_END = 2;
-    private static final int CSV_INDEX_CAPACITY = 3;
-    private static final int CSV_INDEX_OPERATOR = 4;
-    private static final int CSV_INDEX_REGION = 5;
-    private static final int CSV_COLUMN_COUNT = 6;
+    static final int CSV_INDEX_CAPACITY = 3;
+    static final int CSV_INDEX_OPERATOR = 4;
+    static final int CSV_INDEX_REGION = 5;
+    static final int CSV_COLUMN_COUNT = 6;
     /** Charset used when creating asset files. */
     private static final String ASSET_DATA_CHARSET = "UTF-8";
+    // Ranges asset header, must be kept in sync with the library (RussvyAssetHeader).
+    private static final int ASSET_MAGIC = 0x52535659;
+    private static final int ASSET_FORMAT_VERSION = 2;
+    // Gaps asset header, must be kept in sync with the library (RussvyGapIndex).
+    private static final int GAP_ASSET_MAGIC = 0x52535647;
+    private static final int GAP_ASSET_FORMAT_VERSION = 1;
+    private static final int CODE_COUNT = 1000;
+    private static final int NUMBERS_PER_CODE = 10000000;
 
     private static final String RESOURCE_FORMAT = "<resources>\n" +
             "    <string name=\"russvy_assets_age\">%s</string>\n" +
@@ -45,8 +67,16 @@ public class CsvConverter {
     private final String mCsvDirectory;
     private final String mAssetDirectory;
     private final String mResourceDirectory;
+    private final String mPortedFile;
+    /** Families of the files to convert. */
+    private final List<String> mFamilies;
+    /** Codes to convert, null for all. */
+    private final boolean[] mCodes;
 
     private int mRecordCount;
+    private int mPortedCount;
+    /** Date of the data, yyyyMMdd. */
+    private String mTimestamp;
 
     /**
      * Converts raw CSV files from Rossvyaz to the assets for Russvy library.
@@ -54,25 +84,62 @@ public class CsvConverter {
      *             - source directory with CSV files
      *             - output directory for the assets
      *             - output directory for the resources
+     *             - optional CSV file with ported numbers, "number;operator name" per line
+     *             Options may go anywhere:
+     *             - --families=DEF converts only files of the families (ABC, DEF), comma
+     *               separated
+     *             - --codes=900-999,495 converts only ranges (and ported numbers) of the codes
+     *             Operators and regions of the skipped ranges are left out of the assets.
      */
-    public static void main(String[] args) {
+    public static void main(String[] rawArgs) {
+        final List<String> families = new ArrayList<>(Arrays.asList(CSV_FAMILIES));
+        boolean[] codes = null;
+        final List<String> positional = new ArrayList<>();
+        for (String arg : rawArgs) {
+            if (arg.startsWith(OPTION_FAMILIES)) {
+                families.clear();
+                for (String family : arg.substring(OPTION_FAMILIES.length()).split(",")) {
+                    final String name = family.trim().toUpperCase(Locale.US);
+                    if (!Arrays.asList(CSV_FAMILIES).contains(name)) {
+                        System.err.println("Invalid file family: " + family);
+                        return;
+                    }
+                    families.add(name);
+                }
+            } else if (arg.startsWith(OPTION_CODES)) {
+                codes = parseCodes(arg.substring(OPTION_CODES.length()));
+                if (codes == null) {
+                    System.err.println("Invalid code list: " + arg);
+                    return;
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        final String[] args = positional.toArray(new String[positional.size()]);
         if (args.length < 3) {
             System.err.println("Insufficient command line arguments.");
         }
         final String srcDir = args[0];
         final String assetDir = args[1];
         final String resourceDir = args[2];
+        final String portedFile = args.length > 3 ? args[3] : null;
 
-        for (String dir : args) {
-            if (!isDirectory(dir)) {
-                System.err.println("\"" + dir + "\" does not exists or is not a directory.");
+        for (int i = 0; i < 3; i++) {
+            if (!isDirectory(args[i])) {
+                System.err.println("\"" + args[i] + "\" does not exists or is not a directory.");
             }
         }
 
-        final CsvConverter converter = new CsvConverter(srcDir, assetDir, resourceDir);
+        final CsvConverter converter = new CsvConverter(srcDir, assetDir, resourceDir, portedFile,
+                families, codes);
         if (converter.generateAssets()) {
             System.out.println("Ranges processed:");
             System.out.println(converter.getRecordCount());
+            if (portedFile != null) {
+                System.out.println("Ported numbers processed:");
+                System.out.println(converter.getPortedCount());
+            }
             converter.generateResources();
         }
     }
@@ -81,27 +148,74 @@ public class CsvConverter {
         return mRecordCount;
     }
 
-    private CsvConverter(String csvDir, String assetDir, String resourceDir) {
+    public int getPortedCount() {
+        return mPortedCount;
+    }
+
+    private CsvConverter(String csvDir, String assetDir, String resourceDir, String portedFile,
+                         List<String> families, boolean[] codes) {
         mCsvDirectory = csvDir;
         mAssetDirectory = assetDir;
         mResourceDirectory = resourceDir;
+        mPortedFile = portedFile;
+        mFamilies = families;
+        mCodes = codes;
+    }
+
+    /**
+     * Parses comma separated codes and code intervals, e.g. "900-999,495".
+     * Returns selected codes or null if the list is invalid.
+     */
+    private static boolean[] parseCodes(String list) {
+        final boolean[] codes = new boolean[CODE_COUNT];
+        try {
+            for (String item : list.split(",")) {
+                final int dash = item.indexOf('-');
+                final int from = Integer.parseInt(item.substring(0, dash < 0 ? item.length() : dash)
+                        .trim());
+                final int to = dash < 0 ? from : Integer.parseInt(item.substring(dash + 1).trim());
+                if (from < 0 || from > to || to >= CODE_COUNT) {
+                    return null;
+                }
+                for (int code = from; code <= to; code++) {
+                    codes[code] = true;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return codes;
+    }
+
+    private boolean isSelectedFile(String file) {
+        for (String family : mFamilies) {
+            if (file.startsWith(CSV_FILE_PREFIX + family)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSelectedCode(int code) {
+        return mCodes == null || (code >= 0 && code < CODE_COUNT && mCodes[code]);
     }
 
     private boolean generateAssets() {
         mRecordCount = 0;
+        mTimestamp = getResourceTimestamp();
         // We need the keys to be in the order of insertion, but TreeMap is a slower option.
         final Map<String, Integer> operators = new LinkedHashMap<>();
         final Map<String, Integer> regions = new LinkedHashMap<>();
 
-        // Write ranges
-        final DataOutputStream os = getFileOutputStream(mAssetDirectory + "/" + "ranges");
-        if (os == null) {
-            System.err.println("Failed to create output file for ranges.");
-            return false;
-        }
+        // Ranges are collected in memory first, since they have to be sorted by code and the
+        // header needs their count and checksum
+        final List<Range> ranges = new ArrayList<>();
         final String[] data = new String[CSV_COLUMN_COUNT];
         String line;
         for(String file : CVS_FILES) {
+            if (!isSelectedFile(file)) {
+                continue;
+            }
             try {
                 final BufferedReader reader = getDataFileReader(mCsvDirectory + "/" + file);
                 if (reader == null) {
@@ -112,6 +226,10 @@ public class CsvConverter {
                 reader.readLine();
                 while ((line = reader.readLine()) != null) {
                     parseRecord(line, data);
+                    final int code = Integer.valueOf(data[CSV_INDEX_CODE]);
+                    if (!isSelectedCode(code)) {
+                        continue;
+                    }
                     final String operator = data[CSV_INDEX_OPERATOR];
                     if (!operators.keySet().contains(operator)) {
                         operators.put(operator, operators.size());
@@ -120,14 +238,10 @@ public class CsvConverter {
                     if (!regions.keySet().contains(region)) {
                         regions.put(region, regions.size());
                     }
-                    // Code is less than 1000, so 2 bytes should be enough
-                    os.writeShort(Integer.valueOf(data[CSV_INDEX_CODE]));
-                    os.writeInt(Integer.valueOf(data[CSV_INDEX_START]));
-                    os.writeInt(Integer.valueOf(data[CSV_INDEX_CAPACITY]));
-                    // Presumably there will be no more than 10k operators/regions, so short again
-                    os.writeShort(operators.get(operator));
-                    os.writeShort(regions.get(region));
-                    mRecordCount++;
+                    ranges.add(new Range(code,
+                            Integer.valueOf(data[CSV_INDEX_START]),
+                            Integer.valueOf(data[CSV_INDEX_CAPACITY]),
+                            operators.get(operator), regions.get(region)));
                 }
             } catch (IOException e) {
                 System.err.println("Failed to create output file for ranges.");
@@ -139,7 +253,24 @@ public class CsvConverter {
                 return false;
             }
         }
-        closeStream(os);
+        // Write ranges
+        Collections.sort(ranges, Range.ORDER);
+        removeDuplicates(ranges);
+        mRecordCount = ranges.size();
+        if (!writeRanges(ranges)) {
+            System.err.println("Failed to create output file for ranges.");
+            return false;
+        }
+        // Write gaps
+        if (!writeGaps(ranges)) {
+            System.err.println("Failed to create output file for gaps.");
+            return false;
+        }
+        // Write ported numbers, may add operators which do not own any ranges
+        if (mPortedFile != null && !generatePorted(operators)) {
+            System.err.println("Failed to create output file for ported numbers.");
+            return false;
+        }
         // Write operators
         if (!writeKeysToFile(operators, "operators")) {
             System.err.println("Failed to create output file for operators.");
@@ -154,6 +285,246 @@ public class CsvConverter {
         return true;
     }
 
+    /**
+     * Removes ranges starting at the same number as the previous one, keeping the last of them.
+     * Rossvyaz data contains a few exact duplicates. The database keys ranges by their first
+     * number, so every source of the library agrees on the ranges only if the assets have
+     * unique starts.
+     * @param ranges ranges sorted by {@link Range#ORDER}, the sort must be stable.
+     */
+    private static void removeDuplicates(List<Range> ranges) {
+        int count = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            final Range range = ranges.get(i);
+            if (count > 0 && Range.ORDER.compare(ranges.get(count - 1), range) == 0) {
+                System.err.println("Duplicate range replaced: " + range.code + " " + range.start);
+                ranges.set(count - 1, range);
+            } else {
+                ranges.set(count++, range);
+            }
+        }
+        ranges.subList(count, ranges.size()).clear();
+    }
+
+    /**
+     * Writes ranges asset: header, directory of codes and range records sorted by code.
+     * Must be kept in sync with the library (RussvyAssetHeader, RussvyAssetDirectory).
+     */
+    private boolean writeRanges(List<Range> ranges) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream bs = new DataOutputStream(body);
+            // Directory: code -> (first record, record count)
+            final Map<Integer, int[]> directory = new TreeMap<>();
+            for (int i = 0; i < ranges.size(); i++) {
+                final int[] entry = directory.get(ranges.get(i).code);
+                if (entry == null) {
+                    directory.put(ranges.get(i).code, new int[] {i, 1});
+                } else {
+                    entry[1]++;
+                }
+            }
+            bs.writeShort(directory.size());
+            for (Map.Entry<Integer, int[]> entry : directory.entrySet()) {
+                bs.writeShort(entry.getKey());
+                bs.writeInt(entry.getValue()[0]);
+                bs.writeInt(entry.getValue()[1]);
+            }
+            for (Range range : ranges) {
+                // Code is less than 1000, so 2 bytes should be enough
+                bs.writeShort(range.code);
+                bs.writeInt(range.start);
+                bs.writeInt(range.capacity);
+                // Presumably there will be no more than 10k operators/regions, so short again
+                bs.writeShort(range.operator);
+                bs.writeShort(range.region);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        final DataOutputStream os = getFileOutputStream(mAssetDirectory + "/" + "ranges");
+        if (os == null) {
+            return false;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray(), 0, body.size());
+        try {
+            os.writeInt(ASSET_MAGIC);
+            os.writeShort(ASSET_FORMAT_VERSION);
+            os.writeInt(Integer.valueOf(mTimestamp));
+            os.writeInt(mRecordCount);
+            os.writeLong(checksum.getValue());
+            body.writeTo(os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeStream(os);
+        }
+        return true;
+    }
+
+    /**
+     * Writes gaps asset: blocks of numbers which are not in any range, for every code of the
+     * build (codes without ranges are one big gap). Builds limited to some families have gaps
+     * of the codes with ranges only, builds limited to codes have gaps of the codes. Found with
+     * a single sweep over the sorted ranges, which may overlap. Layout is the same as of the
+     * ranges asset, but records are (int start, int capacity). Must be kept in sync with the
+     * library (RussvyGapIndex).
+     */
+    private boolean writeGaps(List<Range> ranges) {
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int gapCount = 0;
+        try {
+            final DataOutputStream ds = new DataOutputStream(directory);
+            final DataOutputStream rs = new DataOutputStream(records);
+            final boolean[] codes = new boolean[CODE_COUNT];
+            int codeCount = 0;
+            for (int code = 0; code < CODE_COUNT; code++) {
+                if (mCodes != null ? mCodes[code]
+                        : mFamilies.containsAll(Arrays.asList(CSV_FAMILIES))) {
+                    codes[code] = true;
+                    codeCount++;
+                }
+            }
+            for (Range range : ranges) {
+                if (!codes[range.code]) {
+                    codes[range.code] = true;
+                    codeCount++;
+                }
+            }
+            ds.writeShort(codeCount);
+            int r = 0;
+            for (int code = 0; code < CODE_COUNT; code++) {
+                if (!codes[code]) {
+                    continue;
+                }
+                final int firstGap = gapCount;
+                // First number which is not known to be allocated
+                long free = 0;
+                for (; r < ranges.size() && ranges.get(r).code == code; r++) {
+                    final Range range = ranges.get(r);
+                    if (range.start > free) {
+                        rs.writeInt((int) free);
+                        rs.writeInt((int) (range.start - free));
+                        gapCount++;
+                    }
+                    free = Math.max(free, (long) range.start + range.capacity);
+                }
+                if (free < NUMBERS_PER_CODE) {
+                    rs.writeInt((int) free);
+                    rs.writeInt((int) (NUMBERS_PER_CODE - free));
+                    gapCount++;
+                }
+                ds.writeShort(code);
+                ds.writeInt(firstGap);
+                ds.writeInt(gapCount - firstGap);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        final DataOutputStream os = getFileOutputStream(mAssetDirectory + "/" + "gaps");
+        if (os == null) {
+            return false;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(directory.toByteArray(), 0, directory.size());
+        checksum.update(records.toByteArray(), 0, records.size());
+        try {
+            os.writeInt(GAP_ASSET_MAGIC);
+            os.writeShort(GAP_ASSET_FORMAT_VERSION);
+            os.writeInt(Integer.valueOf(mTimestamp));
+            os.writeInt(gapCount);
+            os.writeLong(checksum.getValue());
+            directory.writeTo(os);
+            records.writeTo(os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeStream(os);
+        }
+        return true;
+    }
+
+    /**
+     * Converts list of ported numbers to the hash table used by the library.
+     * Lines which do not start with a digit (e.g. header) are skipped.
+     */
+    private boolean generatePorted(Map<String, Integer> operators) {
+        final BufferedReader reader = getDataFileReader(mPortedFile);
+        if (reader == null) {
+            return false;
+        }
+        final PortingTable table = new PortingTable();
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(CSV_SEPARATOR);
+                if (separator < 0 || line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+                    continue;
+                }
+                final long number = parseNumber(line.substring(0, separator));
+                if (number < 0) {
+                    System.err.println("Skipped ported number: " + line);
+                    continue;
+                }
+                if (!isSelectedCode((int) (number / NUMBERS_PER_CODE))) {
+                    continue;
+                }
+                final String operator = line.substring(separator + 1).trim();
+                if (!operators.containsKey(operator)) {
+                    operators.put(operator, operators.size());
+                }
+                table.put(number, operators.get(operator));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeStream(reader);
+        }
+        mPortedCount = table.size();
+        final DataOutputStream os = getFileOutputStream(mAssetDirectory + "/" + "ported");
+        if (os == null) {
+            return false;
+        }
+        try {
+            table.write(os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeStream(os);
+        }
+        return true;
+    }
+
+    /**
+     * Returns ten digit number without country prefix or -1 if the value is not a phone number.
+     * Accepts numbers with leading 7 or 8 as well.
+     */
+    private static long parseNumber(String value) {
+        long number = 0;
+        int digits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                digits++;
+            } else if (c != ' ' && c != '+' && c != '-' && c != '\t') {
+                return -1;
+            }
+        }
+        if (digits == 11 && (number / 10000000000L == 7 || number / 10000000000L == 8)) {
+            return number % 10000000000L;
+        }
+        return digits == 10 ? number : -1;
+    }
+
     private void generateResources() {
         final BufferedWriter writer = getAssetFileWriter(mResourceDirectory + "/russvy.xml");
         if (writer == null) {
@@ -161,7 +532,7 @@ public class CsvConverter {
             return;
         }
         try {
-            writer.write(String.format(RESOURCE_FORMAT, getResourceTimestamp(), mRecordCount));
+            writer.write(String.format(RESOURCE_FORMAT, mTimestamp, mRecordCount));
         } catch (IOException e) {
             System.err.println("Failed to update resource output file.");
         } finally {
@@ -176,7 +547,7 @@ public class CsvConverter {
         return format.format(calendar.getTime());
     }
 
-    private void parseRecord(String record, String[] values) {
+    static void parseRecord(String record, String[] values) {
         int i = 0;
         int pos = 0;
         int nextPos;
@@ -211,7 +582,7 @@ public class CsvConverter {
         return true;
     }
 
-    private static BufferedReader getDataFileReader(String file) {
+    static BufferedReader getDataFileReader(String file) {
         InputStream is = null;
         try {
             is = new FileInputStream(file);
@@ -222,9 +593,20 @@ public class CsvConverter {
         }
     }
 
-    private static DataOutputStream getFileOutputStream(String file) {
+    static BufferedReader getAssetFileReader(String file) {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return new BufferedReader(new InputStreamReader(is, ASSET_DATA_CHARSET));
+        } catch (IOException e) {
+            closeStream(is);
+            return null;
+        }
+    }
+
+    static DataOutputStream getFileOutputStream(String file) {
         try {
-            return new DataOutputStream(new FileOutputStream(file));
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
         } catch (IOException e) {
             return null;
         }
@@ -241,7 +623,7 @@ public class CsvConverter {
         }
     }
 
-    private static void closeStream(Closeable c) {
+    static void closeStream(Closeable c) {
         if (c != null) {
             try {
                 c.close();
@@ -0,0 +1,274 @@
+package com.maphon.russvy.assets;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Folds several Rossvyaz releases into the "history" asset used by RussvyHistory.
+ * Every range version is stored once with the releases it was valid in: a range which did not
+ * change between releases takes one record however many releases there are, so the asset grows
+ * with the changes only. Operator and region ids are the ids of the "operators" and "regions"
+ * assets built by CsvConverter, so the "ported" asset applies to the history as well; names
+ * found in older releases only get ids after them. Layout (big endian), must be kept in sync
+ * with the library:
+ * - int: magic, "RSVH"
+ * - short: format version
+ * - short: count of releases
+ * - int[releases]: release dates, yyyyMMdd, ascending
+ * - int: count of range records
+ * - long: CRC32 of everything that follows the header
+ * - directory of the records, same as in the ranges asset
+ * - for each record, sorted by code, start and first release:
+ *   - short: code
+ *   - int: range start
+ *   - int: range capacity
+ *   - short: operator id
+ *   - short: region id
+ *   - short: first release the range is valid in
+ *   - short: release the range is not valid in anymore, count of releases if it still is
+ * - int: count of operators, then operator names (DataOutputStream.writeUTF)
+ * - int: count of regions, then region names
+ */
+public class HistoryConverter {
+    private static final int ASSET_MAGIC = 0x52535648;
+    private static final int ASSET_FORMAT_VERSION = 1;
+
+    /** Orders versions by code, start, then by first release. */
+    private static final Comparator<Version> ORDER = new Comparator<Version>() {
+        @Override
+        public int compare(Version a, Version b) {
+            final int order = Range.ORDER.compare(a.range, b.range);
+            return order != 0 ? order : a.from - b.from;
+        }
+    };
+
+    private final Map<String, Integer> mOperators = new LinkedHashMap<>();
+    private final Map<String, Integer> mRegions = new LinkedHashMap<>();
+    /** Versions which are valid in the last folded release, by key. */
+    private final Map<String, Version> mOpen = new HashMap<>();
+    private final List<Version> mVersions = new ArrayList<>();
+    /** Release dates, yyyyMMdd, ascending. */
+    private final List<Integer> mReleases = new ArrayList<>();
+
+    /**
+     * Builds history asset.
+     * @param args command line arguments:
+     *             - directory with the assets built by CsvConverter (operators, regions), the
+     *               history asset is written there too
+     *             - releases, oldest first, as yyyyMMdd=directory with CSV files of the release
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Insufficient command line arguments.");
+            return;
+        }
+        final HistoryConverter converter = new HistoryConverter();
+        if (!readNames(args[0] + "/operators", converter.mOperators)
+                || !readNames(args[0] + "/regions", converter.mRegions)) {
+            System.err.println("Failed to read names from \"" + args[0]
+                    + "\", build the assets first.");
+            return;
+        }
+        for (int i = 1; i < args.length; i++) {
+            final int separator = args[i].indexOf('=');
+            final int date;
+            try {
+                date = Integer.parseInt(args[i].substring(0, Math.max(0, separator)));
+            } catch (NumberFormatException e) {
+                System.err.println("Release must be given as yyyyMMdd=directory: " + args[i]);
+                return;
+            }
+            if (!converter.addRelease(date, args[i].substring(separator + 1))) {
+                System.err.println("Failed to read release " + args[i]);
+                return;
+            }
+        }
+        if (!converter.write(args[0] + "/history")) {
+            System.err.println("Failed to create output file for history.");
+            return;
+        }
+        System.out.println("Releases processed:");
+        System.out.println(converter.mReleases.size());
+        System.out.println("Range versions:");
+        System.out.println(converter.mVersions.size());
+    }
+
+    /** Folds release into the history, releases must be added oldest first. */
+    private boolean addRelease(int date, String csvDir) {
+        if (!mReleases.isEmpty() && mReleases.get(mReleases.size() - 1) >= date) {
+            System.err.println("Releases must be in ascending order of dates.");
+            return false;
+        }
+        final int release = mReleases.size();
+        mReleases.add(date);
+        final Set<String> present = new HashSet<>();
+        final String[] data = new String[CsvConverter.CSV_COLUMN_COUNT];
+        String line;
+        for (String file : CsvConverter.CVS_FILES) {
+            final BufferedReader reader = CsvConverter.getDataFileReader(csvDir + "/" + file);
+            if (reader == null) {
+                System.err.println("Skipped CSV file: " + csvDir + "/" + file);
+                continue;
+            }
+            try {
+                // Skip header
+                reader.readLine();
+                while ((line = reader.readLine()) != null) {
+                    CsvConverter.parseRecord(line, data);
+                    final Range range = new Range(
+                            Integer.valueOf(data[CsvConverter.CSV_INDEX_CODE]),
+                            Integer.valueOf(data[CsvConverter.CSV_INDEX_START]),
+                            Integer.valueOf(data[CsvConverter.CSV_INDEX_CAPACITY]),
+                            getId(mOperators, data[CsvConverter.CSV_INDEX_OPERATOR]),
+                            getId(mRegions, data[CsvConverter.CSV_INDEX_REGION]));
+                    final String key = range.code + ":" + range.start + ":" + range.capacity
+                            + ":" + range.operator + ":" + range.region;
+                    // Rossvyaz data contains a few exact duplicates
+                    if (!present.add(key) || mOpen.containsKey(key)) {
+                        continue;
+                    }
+                    final Version version = new Version(range, release);
+                    mOpen.put(key, version);
+                    mVersions.add(version);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                CsvConverter.closeStream(reader);
+            }
+        }
+        // Ranges which are not in the release anymore
+        for (Map.Entry<String, Version> entry : new ArrayList<>(mOpen.entrySet())) {
+            if (!present.contains(entry.getKey())) {
+                entry.getValue().to = release;
+                mOpen.remove(entry.getKey());
+            }
+        }
+        return true;
+    }
+
+    /** Adds names of the asset file, one per line, to the ids. Returns false on failure. */
+    private static boolean readNames(String file, Map<String, Integer> ids) {
+        final BufferedReader reader = CsvConverter.getAssetFileReader(file);
+        if (reader == null) {
+            return false;
+        }
+        try {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                getId(ids, name);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            CsvConverter.closeStream(reader);
+        }
+    }
+
+    private boolean write(String file) {
+        Collections.sort(mVersions, ORDER);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream bs = new DataOutputStream(body);
+            // Directory: code -> (first record, record count)
+            final Map<Integer, int[]> directory = new TreeMap<>();
+            for (int i = 0; i < mVersions.size(); i++) {
+                final int[] entry = directory.get(mVersions.get(i).range.code);
+                if (entry == null) {
+                    directory.put(mVersions.get(i).range.code, new int[] {i, 1});
+                } else {
+                    entry[1]++;
+                }
+            }
+            bs.writeShort(directory.size());
+            for (Map.Entry<Integer, int[]> entry : directory.entrySet()) {
+                bs.writeShort(entry.getKey());
+                bs.writeInt(entry.getValue()[0]);
+                bs.writeInt(entry.getValue()[1]);
+            }
+            for (Version version : mVersions) {
+                bs.writeShort(version.range.code);
+                bs.writeInt(version.range.start);
+                bs.writeInt(version.range.capacity);
+                bs.writeShort(version.range.operator);
+                bs.writeShort(version.range.region);
+                bs.writeShort(version.from);
+                bs.writeShort(version.to >= 0 ? version.to : mReleases.size());
+            }
+            writeNames(bs, mOperators);
+            writeNames(bs, mRegions);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        final DataOutputStream os = CsvConverter.getFileOutputStream(file);
+        if (os == null) {
+            return false;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray(), 0, body.size());
+        try {
+            os.writeInt(ASSET_MAGIC);
+            os.writeShort(ASSET_FORMAT_VERSION);
+            os.writeShort(mReleases.size());
+            for (int date : mReleases) {
+                os.writeInt(date);
+            }
+            os.writeInt(mVersions.size());
+            os.writeLong(checksum.getValue());
+            body.writeTo(os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            CsvConverter.closeStream(os);
+        }
+        return true;
+    }
+
+    private static void writeNames(DataOutputStream os, Map<String, Integer> names)
+            throws IOException {
+        os.writeInt(names.size());
+        for (String name : names.keySet()) {
+            os.writeUTF(name);
+        }
+    }
+
+    private static int getId(Map<String, Integer> ids, String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = ids.size();
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /** Range with the releases it is valid in: [from, to). */
+    private static final class Version {
+        final Range range;
+        final int from;
+        /** -1 while the range is still valid. */
+        int to = -1;
+
+        Version(Range range, int from) {
+            this.range = range;
+            this.from = from;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.maphon.russvy.assets;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Open addressing hash table of ported numbers: phone number -> operator id.
+ * Written as is to the "ported" asset, so that the library can map it into memory and use it
+ * without any parsing. Must be kept in sync with the library (RussvyPortingOverlay).
+ */
+class PortingTable {
+    private static final int MAGIC = 0x52535650;
+    private static final int FORMAT_VERSION = 1;
+    /** Table is grown when it is filled more than that. */
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    private long[] mNumbers = new long[1024];
+    private short[] mOperators = new short[1024];
+    private int mSize;
+
+    /** Returns count of ported numbers. */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds ported number, replaces operator if the number is already in the table.
+     * @param number ten digit phone number without country prefix.
+     * @param operator id of the operator serving the number.
+     */
+    void put(long number, int operator) {
+        if (number <= 0) {
+            throw new IllegalArgumentException("Invalid number: " + number);
+        }
+        if (mSize + 1 > mNumbers.length * MAX_LOAD_FACTOR) {
+            grow();
+        }
+        final int slot = findSlot(mNumbers, number);
+        if (mNumbers[slot] == 0) {
+            mNumbers[slot] = number;
+            mSize++;
+        }
+        mOperators[slot] = (short) operator;
+    }
+
+    void write(DataOutputStream os) throws IOException {
+        os.writeInt(MAGIC);
+        os.writeShort(FORMAT_VERSION);
+        // Reserved, keeps the numbers aligned
+        os.writeShort(0);
+        os.writeInt(mSize);
+        os.writeInt(mNumbers.length);
+        for (long number : mNumbers) {
+            os.writeLong(number);
+        }
+        for (short operator : mOperators) {
+            os.writeShort(operator);
+        }
+    }
+
+    private void grow() {
+        final long[] numbers = mNumbers;
+        final short[] operators = mOperators;
+        mNumbers = new long[numbers.length * 2];
+        mOperators = new short[numbers.length * 2];
+        for (int i = 0; i < numbers.length; i++) {
+            if (numbers[i] != 0) {
+                final int slot = findSlot(mNumbers, numbers[i]);
+                mNumbers[slot] = numbers[i];
+                mOperators[slot] = operators[i];
+            }
+        }
+    }
+
+    // Returns slot holding the number or empty slot where it should be placed.
+    private static int findSlot(long[] numbers, long number) {
+        final int mask = numbers.length - 1;
+        int slot = (int) hash(number) & mask;
+        while (numbers[slot] != 0 && numbers[slot] != number) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long hash(long number) {
+        // Finalizer of MurmurHash3
+        number ^= number >>> 33;
+        number *= 0xff51afd7ed558ccdL;
+        number ^= number >>> 33;
+        number *= 0xc4ceb9fe1a85ec53L;
+        number ^= number >>> 33;
+        return number;
+    }
+}
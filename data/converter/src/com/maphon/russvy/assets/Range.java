@@ -0,0 +1,31 @@
+package com.maphon.russvy.assets;
+
+import java.util.Comparator;
+
+/** Number range as it is written to the assets. */
+class Range {
+    /** Orders ranges by code, then by start. */
+    static final Comparator<Range> ORDER = new Comparator<Range>() {
+        @Override
+        public int compare(Range a, Range b) {
+            if (a.code != b.code) {
+                return a.code < b.code ? -1 : 1;
+            }
+            return a.start < b.start ? -1 : (a.start == b.start ? 0 : 1);
+        }
+    };
+
+    final int code;
+    final int start;
+    final int capacity;
+    final int operator;
+    final int region;
+
+    Range(int code, int start, int capacity, int operator, int region) {
+        this.code = code;
+        this.start = start;
+        this.capacity = capacity;
+        this.operator = operator;
+        this.region = region;
+    }
+}
@@ -0,0 +1,151 @@
+package com.maphon.russvy.assets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CdrEnricherTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mAssets;
+
+    @Before
+    public void setUp() throws IOException {
+        mAssets = mFolder.newFolder();
+        // Code 921: [0, 1000) of operator 0 in region 0, [5000, 5010) of operator 1 in region 1
+        writeRanges(new File(mAssets, "ranges"), 921, new int[][] {{0, 1000, 0, 0},
+                {5000, 10, 1, 1}});
+        write(new File(mAssets, "operators"), "Оператор\nA;B\n");
+        write(new File(mAssets, "regions"), "Москва\nКазань\n");
+    }
+
+    @Test
+    public void addsOperatorAndRegionColumns() throws IOException {
+        final CdrEnricher enricher = CdrEnricher.load(mAssets.getPath(), 0, 2);
+        assertNotNull(enricher);
+        final String output = enrich(enricher, "number;duration\n"
+                + "+7 (921) 000-05-00;10\n"
+                + "89210005009;20\r\n"
+                + "9210005010;30\n"
+                + "921000;40\n"
+                + "\"9210000001\";50");
+        assertEquals("number;duration;;\n"
+                + "+7 (921) 000-05-00;10;Оператор;Москва\n"
+                // Separators in names are replaced, line endings are kept
+                + "89210005009;20;A,B;Казань\r\n"
+                + "9210005010;30;;\n"
+                + "921000;40;;\n"
+                + "\"9210000001\";50;Оператор;Москва", output);
+        assertEquals(6, enricher.getLineCount());
+        assertEquals(3, enricher.getResolvedCount());
+    }
+
+    @Test
+    public void readsNumbersFromColumn() throws IOException {
+        final CdrEnricher enricher = CdrEnricher.load(mAssets.getPath(), 1, 1);
+        assertNotNull(enricher);
+        assertEquals("a;9210000001;b;Оператор;Москва\nc;;\n",
+                enrich(enricher, "a;9210000001;b\nc\n"));
+        assertEquals(1, enricher.getResolvedCount());
+    }
+
+    @Test
+    public void doesNotDependOnThreadCount() throws IOException {
+        // Several chunks with lines crossing their boundaries
+        final StringBuilder input = new StringBuilder();
+        final Random random = new Random(42);
+        while (input.length() < 5 * (1 << 20)) {
+            input.append(9210000000L + random.nextInt(6000)).append(';')
+                    .append(random.nextInt(1000)).append('\n');
+        }
+        final File file = mFolder.newFile();
+        write(file, input.toString());
+        final byte[] expected = enrich(CdrEnricher.load(mAssets.getPath(), 0, 1), file);
+        final CdrEnricher enricher = CdrEnricher.load(mAssets.getPath(), 0, 4);
+        assertNotNull(enricher);
+        assertArrayEquals(expected, enrich(enricher, file));
+        long lineCount = 0;
+        for (int i = 0; i < input.length(); i++) {
+            if (input.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+        assertEquals(lineCount, enricher.getLineCount());
+    }
+
+    @Test
+    public void failsWithoutAssets() throws IOException {
+        assertNull(CdrEnricher.load(mFolder.newFolder().getPath(), 0, 1));
+        final CdrEnricher enricher = CdrEnricher.load(mAssets.getPath(), 0, 1);
+        assertNotNull(enricher);
+        assertEquals(-1, enricher.enrich(new File(mFolder.getRoot(), "missing").getPath(),
+                new File(mFolder.getRoot(), "output").getPath()));
+    }
+
+    private String enrich(CdrEnricher enricher, String input) throws IOException {
+        final File file = mFolder.newFile();
+        write(file, input);
+        return new String(enrich(enricher, file), UTF_8);
+    }
+
+    private byte[] enrich(CdrEnricher enricher, File input) throws IOException {
+        assertNotNull(enricher);
+        final File output = mFolder.newFile();
+        assertEquals(input.length(), enricher.enrich(input.getPath(), output.getPath()));
+        return Files.readAllBytes(output.toPath());
+    }
+
+    private static void write(File file, String text) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(text.getBytes(UTF_8));
+        }
+    }
+
+    /** Writes ranges asset of one code, ranges are start, capacity, operator and region. */
+    private static void writeRanges(File file, int code, int[][] ranges) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(body);
+        // Directory: code, first record and count
+        data.writeShort(1);
+        data.writeShort(code);
+        data.writeInt(0);
+        data.writeInt(ranges.length);
+        for (int[] range : ranges) {
+            data.writeShort(code);
+            data.writeInt(range[0]);
+            data.writeInt(range[1]);
+            data.writeShort(range[2]);
+            data.writeShort(range[3]);
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray());
+        try (DataOutputStream os = new DataOutputStream(new FileOutputStream(file))) {
+            os.writeInt(0x52535659);
+            os.writeShort(2);
+            os.writeInt(20170201);
+            os.writeInt(ranges.length);
+            os.writeLong(checksum.getValue());
+            body.writeTo(os);
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package com.maphon.russvy.demo;
 
-import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
@@ -20,18 +18,14 @@ import android.widget.Toast;
 
 import com.maphon.russvy.RussvyAssetReader;
 import com.maphon.russvy.RussvyDatabaseManager;
-import com.maphon.russvy.RussvyNumberRange;
+import com.maphon.russvy.RussvyRangeBlock;
 
 import java.util.LinkedList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
     private static final String RUSSVY_DB_NAME = "russvy";
-    private static final String SHARED_PREFS_NAME = "russvy_demo";
-    private static final String KEY_DATA_EXTRACTED = "data_extracted";
 
-    @Nullable
-    private SharedPreferences mPrefs;
     @Nullable
     private RussvyDatabaseManager mRussvyManager;
     @Nullable
@@ -80,11 +74,15 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             protected List<String> doInBackground(Void... voids) {
-                final Cursor cursor = mRussvyManager.getRanges(code);
-                if (cursor == null || cursor.getCount() == 0) return null;
-                List<String> items = new LinkedList<>();
-                while (cursor.moveToNext()) {
-                    items.add(formatRange(cursor));
+                final RussvyRangeBlock block = new RussvyRangeBlock();
+                final List<String> items = new LinkedList<>();
+                int fromStart = 0;
+                while (mRussvyManager.getRanges(code, fromStart, block) > 0) {
+                    for (int i = 0; i < block.size(); i++) {
+                        items.add(formatRange(block, i));
+                    }
+                    if (!block.isFull()) break;
+                    fromStart = block.getNextStart();
                 }
                 return items;
             }
@@ -112,8 +110,7 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             protected Void doInBackground(Void... params) {
-                reader.open(MainActivity.this);
-                reader.read(MainActivity.this, RussvyAssetReader.DEFAULT_BATCH_COUNT);
+                reader.importIfNeeded(MainActivity.this, RussvyAssetReader.DEFAULT_BATCH_COUNT);
                 return null;
             }
 
@@ -121,7 +118,6 @@ public class MainActivity extends AppCompatActivity {
             protected void onPostExecute(Void param) {
                 super.onPostExecute(param);
 
-                setDataExtracted();
                 Toast.makeText(MainActivity.this, R.string.message_extract_complete,
                         Toast.LENGTH_LONG).show();
                 fadeOutExtractControls();
@@ -134,19 +130,35 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        mPrefs = getSharedPreferences(SHARED_PREFS_NAME, MODE_PRIVATE);
         mRussvyManager = new RussvyDatabaseManager(this, RUSSVY_DB_NAME);
 
-        setupControls();
+        checkDataExtracted();
     }
 
-    private void setupControls() {
-        final boolean dataReady = isDataExtracted();
+    /** Checks the database in background, it reads an asset and queries the database. */
+    private void checkDataExtracted() {
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                return new RussvyAssetReader(null, mRussvyManager, null)
+                        .isUpToDate(MainActivity.this);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean dataReady) {
+                super.onPostExecute(dataReady);
+                setupControls(dataReady);
+            }
+        }.execute();
+    }
+
+    private void setupControls(boolean dataReady) {
         final int id = dataReady ? R.id.search_stub : R.id.extract_stub;
         final ViewStub uiStub = (ViewStub) findViewById(id);
         if (uiStub != null) {
             uiStub.inflate();
             if (dataReady) {
+                mRussvyManager.warmUpInBackground(null);
                 final long rangeCount = mRussvyManager.getRangeCount();
                 final long regionCount = mRussvyManager.getRegionCount();
                 final long operatorCount = mRussvyManager.getOperatorCount();
@@ -181,7 +193,7 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onAnimationEnd(Animation animation) {
-                setupControls();
+                checkDataExtracted();
             }
 
             @Override
@@ -209,24 +221,14 @@ public class MainActivity extends AppCompatActivity {
         return mSearchEdit.getText().toString();
     }
 
-    private void setDataExtracted() {
-        if (mPrefs != null) {
-            mPrefs.edit().putBoolean(KEY_DATA_EXTRACTED, true).apply();
-        }
-    }
-
-    private boolean isDataExtracted() {
-        return mPrefs != null && mPrefs.contains(KEY_DATA_EXTRACTED);
-    }
-
-    private String formatRange(Cursor cursor) {
+    private String formatRange(RussvyRangeBlock block, int i) {
         final StringBuilder sb = new StringBuilder();
-        final int start = RussvyNumberRange.getStart(cursor);
+        final int start = block.getStarts()[i];
         sb.append(start);
         sb.append(" - ");
-        sb.append(start + RussvyNumberRange.getCapacity(cursor) - 1);
+        sb.append(start + block.getCapacities()[i] - 1);
         sb.append(": ");
-        final int operatorId = RussvyNumberRange.getOperatorId(cursor);
+        final int operatorId = block.getOperatorIds()[i];
         sb.append(mRussvyManager.getOperatorName(operatorId));
         return sb.toString();
     }
@@ -0,0 +1,99 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Directory of the "ranges" asset: tells where the records of each code are.
+ * Follows {@link RussvyAssetHeader}. Layout (big endian):
+ * - short: count of codes
+ * - for each code, in ascending order:
+ *   - short: code
+ *   - int: index of the first record of the code
+ *   - int: count of records of the code
+ */
+final class RussvyAssetDirectory {
+    private static final int ENTRY_SIZE = 2 + 4 + 4;
+
+    /** Position of the code entry by code, -1 if there are no records for the code. */
+    private final int[] mEntries = new int[RussvyUtils.CODE_COUNT];
+    private final int[] mCodes;
+    private final int[] mFirstRecords;
+    private final int[] mRecordCounts;
+
+    private RussvyAssetDirectory(@NonNull int[] codes, @NonNull int[] firstRecords,
+                                 @NonNull int[] recordCounts) {
+        mCodes = codes;
+        mFirstRecords = firstRecords;
+        mRecordCounts = recordCounts;
+        Arrays.fill(mEntries, -1);
+        for (int i = 0; i < codes.length; i++) {
+            mEntries[codes[i]] = i;
+        }
+    }
+
+    /**
+     * Reads directory from the stream positioned right after the header.
+     * @throws IOException if stream can not be read or directory is malformed.
+     */
+    @NonNull
+    static RussvyAssetDirectory read(@NonNull DataInputStream is, int recordCount)
+            throws IOException {
+        final int size = is.readShort();
+        if (size < 0 || size > RussvyUtils.CODE_COUNT) {
+            throw new IOException("Malformed asset directory.");
+        }
+        final int[] codes = new int[size];
+        final int[] firstRecords = new int[size];
+        final int[] recordCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            codes[i] = is.readShort();
+            firstRecords[i] = is.readInt();
+            recordCounts[i] = is.readInt();
+            if (codes[i] < 0 || codes[i] >= RussvyUtils.CODE_COUNT || firstRecords[i] < 0
+                    || recordCounts[i] < 0 || firstRecords[i] + recordCounts[i] > recordCount) {
+                throw new IOException("Malformed asset directory.");
+            }
+        }
+        return new RussvyAssetDirectory(codes, firstRecords, recordCounts);
+    }
+
+    /** Returns count of codes with records. */
+    int size() {
+        return mCodes.length;
+    }
+
+    /** Returns code by its position in the directory. */
+    int getCode(int entry) {
+        return mCodes[entry];
+    }
+
+    /** Checks whether there are any records for the code. */
+    boolean contains(int code) {
+        return code >= 0 && code < RussvyUtils.CODE_COUNT && mEntries[code] >= 0;
+    }
+
+    /** Returns index of the first record of the code, it must be in the directory. */
+    int getFirstRecord(int code) {
+        return mFirstRecords[mEntries[code]];
+    }
+
+    /** Returns count of records of the code, 0 if there are none. */
+    int getRecordCount(int code) {
+        return contains(code) ? mRecordCounts[mEntries[code]] : 0;
+    }
+
+    /** Returns offset of the first record of the code from the beginning of the asset. */
+    long getRecordOffset(int code) {
+        return RussvyAssetHeader.SIZE + getSize()
+                + (long) getFirstRecord(code) * RussvyAssetHeader.RECORD_SIZE;
+    }
+
+    /** Returns size of the directory in bytes. */
+    int getSize() {
+        return 2 + mCodes.length * ENTRY_SIZE;
+    }
+}
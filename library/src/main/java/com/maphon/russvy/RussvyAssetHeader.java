@@ -0,0 +1,78 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Header of the "ranges" asset.
+ * Written by the converter in front of the range records, used to tell whether the data stored
+ * in the database is the same as the one shipped with the application. Layout (big endian):
+ * - int: magic, "RSVY"
+ * - short: format version
+ * - int: date when the data was published by Rossvyaz, yyyyMMdd
+ * - int: count of range records
+ * - long: CRC32 of everything that follows the header
+ * Header is followed by {@link RussvyAssetDirectory} and then by range records sorted by code.
+ * Record layout:
+ * - short: code
+ * - int: range start
+ * - int: range capacity
+ * - short: operator id
+ * - short: region id
+ */
+final class RussvyAssetHeader {
+    static final int MAGIC = 0x52535659;
+    static final int FORMAT_VERSION = 2;
+    /** Size of the header in bytes. */
+    static final int SIZE = 4 + 2 + 4 + 4 + 8;
+    /** Size of the range record in bytes. */
+    static final int RECORD_SIZE = 2 + 4 + 4 + 2 + 2;
+
+    private static final String DATE_FORMAT = "yyyyMMdd";
+
+    final int formatVersion;
+    final int dataDate;
+    final int recordCount;
+    final long checksum;
+
+    RussvyAssetHeader(int formatVersion, int dataDate, int recordCount, long checksum) {
+        this.formatVersion = formatVersion;
+        this.dataDate = dataDate;
+        this.recordCount = recordCount;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Reads header from the beginning of the stream.
+     * @throws IOException if stream can not be read, does not start with a header or the header
+     *                     has unsupported format version.
+     */
+    @NonNull
+    static RussvyAssetHeader read(@NonNull DataInputStream is) throws IOException {
+        if (is.readInt() != MAGIC) {
+            throw new IOException("Not a Russvy asset.");
+        }
+        final int formatVersion = is.readShort();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported asset format: " + formatVersion);
+        }
+        return new RussvyAssetHeader(formatVersion, is.readInt(), is.readInt(), is.readLong());
+    }
+
+    /** Returns date when the data was published by Rossvyaz. */
+    @Nullable
+    Date getDataAge() {
+        return RussvyUtils.parseDate(DATE_FORMAT, String.valueOf(dataDate));
+    }
+
+    /** Checks whether both headers describe the same data. */
+    boolean isSameData(@Nullable RussvyAssetHeader other) {
+        return other != null && formatVersion == other.formatVersion
+                && dataDate == other.dataDate && recordCount == other.recordCount
+                && checksum == other.checksum;
+    }
+}
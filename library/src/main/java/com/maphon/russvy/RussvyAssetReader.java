@@ -6,6 +6,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -19,6 +20,8 @@ import java.io.InputStreamReader;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * Reads data from assets shipped with the library and stores them into the database.
@@ -52,6 +55,15 @@ public class RussvyAssetReader {
     @Nullable
     private final Listener mListener;
 
+    private boolean mCompaction;
+    private int mCompactionPageSize;
+    @Nullable
+    private RussvyCompactionReport mCompactionReport;
+    private int mPartitionCount = 1;
+    /** Codes to import, null for all. */
+    @Nullable
+    private boolean[] mCodes;
+
     /**
      * Initializes reader.
      * @param path path in asset directory the the Rossvyaz data files.
@@ -65,6 +77,50 @@ public class RussvyAssetReader {
         mListener = listener;
     }
 
+    /**
+     * Enables compaction of the database after the import, see
+     * {@link RussvyDatabaseManager#compact(int)}. Disabled by default.
+     * @param pageSize new page size or 0 to keep the current one.
+     */
+    public void setCompaction(boolean enabled, int pageSize) {
+        mCompaction = enabled;
+        mCompactionPageSize = pageSize;
+    }
+
+    /**
+     * Limits import and {@link #readNumberFilter(Context)} to ranges of the codes, e.g. DEF
+     * (mobile) codes 900-999 only. Database gets smaller and import faster, numbers of other
+     * codes are not found. Data is imported again by {@link #importIfNeeded(Context, int)} when
+     * the codes change. Assets themselves can be limited by the converter options.
+     * Only the database is limited, {@link RussvyRangeIndex} and the memory mapped asset still
+     * serve all codes: pass the same codes to {@link RussvyTieredLookup#setCodes(int[])}.
+     * @param codes codes to import or null to import everything.
+     */
+    public void setCodes(@Nullable int[] codes) {
+        mCodes = RussvyUtils.getCodeSet(codes);
+    }
+
+    /**
+     * Makes {@link #read(Context, int)} insert ranges with several threads, see
+     * {@link RussvyPartitionedImport}. Worth it on multi-core devices, but needs memory for all
+     * the range records (a few megabytes) and temporary databases of the same size.
+     * @param partitionCount count of threads, up to 8. 1 (default) inserts ranges one by one
+     *                       on the calling thread.
+     */
+    public void setPartitionCount(int partitionCount) {
+        mPartitionCount = Math.max(1, Math.min(RussvyPartitionedImport.MAX_PARTITIONS,
+                partitionCount));
+    }
+
+    /**
+     * Returns report of the compaction done by the last import or null if there was no
+     * compaction or it failed.
+     */
+    @Nullable
+    public RussvyCompactionReport getCompactionReport() {
+        return mCompactionReport;
+    }
+
     /**
      * Returns date when the data was published by Rossvyaz.
      */
@@ -78,6 +134,69 @@ public class RussvyAssetReader {
         }
     }
 
+    /**
+     * Builds filter of allocated numbers from ranges stored in assets.
+     * Takes a fraction of the time needed by {@link #read(Context, int)}, so it is fine to
+     * call it on each application start (not on the main thread, though).
+     * @return filter or null if assets can not be read.
+     */
+    @Nullable
+    public RussvyNumberFilter readNumberFilter(@NonNull Context context) {
+        final DataInputStream is = getFileInputStream(context, getAssetName(RANGES_FILE));
+        if (is == null) {
+            return null;
+        }
+        final RussvyNumberFilter.Builder builder = new RussvyNumberFilter.Builder();
+        try {
+            final RussvyAssetHeader header = RussvyAssetHeader.read(is);
+            RussvyAssetDirectory.read(is, header.recordCount);
+            for (int i = 0; i < header.recordCount; i++) {
+                final short code = is.readShort();
+                final int start = is.readInt();
+                final int capacity = is.readInt();
+                // Operator and region
+                is.readShort();
+                is.readShort();
+                if (isSelected(code)) {
+                    builder.add(code, start, capacity);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted (assets).");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks whether the database already contains the data shipped in assets.
+     * Only the header of the ranges asset is read, so it is cheap enough to be done on each
+     * application start.
+     * @return true if there is no need to import the data again.
+     */
+    public boolean isUpToDate(@NonNull Context context) {
+        final RussvyAssetHeader header = readHeader(context);
+        return header != null && header.isSameData(mManager.getImportedHeader())
+                && getCodeSelection() == mManager.getImportedCodeSelection();
+    }
+
+    /**
+     * Imports data from assets unless the database already contains it.
+     * See {@link #isUpToDate(Context)}, {@link #open(Context)} and {@link #read(Context, int)}.
+     * @return true if everything went fine.
+     */
+    public boolean importIfNeeded(@NonNull Context context, int batchCount) {
+        if (isUpToDate(context)) {
+            if (mListener != null) {
+                mListener.onReadProgress(100);
+            }
+            return true;
+        }
+        return open(context) && read(context, batchCount);
+    }
+
     /**
      * Does all preparations required for copying data from assets.
      * @return true if everything went fine.
@@ -91,6 +210,15 @@ public class RussvyAssetReader {
      * Reads ranges, operators and regions from asset files and writes all this information to the
      * database. Insertion of the ranges is done in batches. You can tune this providing the
      * appropriate batchCount value.
+     * Checksum of the ranges is verified while reading them. The database remembers the asset
+     * only if everything went fine, see {@link #isUpToDate(Context)}.
+     * Ranges are inserted by several threads if enabled with {@link #setPartitionCount(int)}.
+     * Data is written in bulk load mode (see {@link RussvyDatabaseManager#beginBulkLoad()}):
+     * if the process dies in the middle, the partial data is removed when the database is opened
+     * next time, so {@link #importIfNeeded(Context, int)} imports everything again.
+     * Indexes are built once the bulk load is over, followed by compaction if it is enabled with
+     * {@link #setCompaction(boolean, int)}. The asset is remembered after them, if the process
+     * dies before that, the next {@link #importIfNeeded(Context, int)} imports it again.
      * @param context you know, what it is
      * @param batchCount positive number of ranges read from the assets after which a) data is
      *                   flushed to the database b) listener is notified about current progress.
@@ -100,44 +228,124 @@ public class RussvyAssetReader {
      * @return true if everything went fine.
      */
     public boolean read(@NonNull Context context, int batchCount) {
+        // Import goes on without bulk load if it can not be started, only slower
+        final boolean bulkLoad = mManager.beginBulkLoad();
+        RussvyAssetHeader header = null;
+        try {
+            header = readAll(context, batchCount);
+        } finally {
+            if (bulkLoad && !mManager.endBulkLoad(header != null)) {
+                header = null;
+            }
+        }
+        return header != null && finish(header);
+    }
+
+    // Returns header of the imported data or null if the import failed.
+    @Nullable
+    private RussvyAssetHeader readAll(@NonNull Context context, int batchCount) {
         if (batchCount <= 0) {
             batchCount = DEFAULT_BATCH_COUNT;
         }
-        final long totalRecords = getRecordCount(context);
-
-        long recordCounter = 0;
+        final DataInputStream is = getFileInputStream(context, getAssetName(RANGES_FILE));
+        if (is == null) {
+            return null;
+        }
+        final RussvyAssetHeader header;
+        final RussvyAssetDirectory directory;
+        byte[] records = null;
         try {
-            DataInputStream os = getFileInputStream(context, getAssetName(RANGES_FILE));
-            if (os == null) {
-                return false;
-            }
-            while(true) {
-                try {
-                    mManager.addRange(String.valueOf(os.readShort()),
-                            String.valueOf(os.readInt()),
-                            String.valueOf(os.readInt()),
-                            os.readShort(), os.readShort());
-                } catch (IOException e) {
-                    break;
-                }
-                recordCounter++;
-                if (recordCounter % batchCount == 0) {
-                    mManager.flush();
-                    if (mListener != null) {
-                        mListener.onReadProgress((int) (100 * recordCounter / totalRecords));
+            header = RussvyAssetHeader.read(is);
+            // Header itself is not covered by the checksum
+            final CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+            final DataInputStream os = new DataInputStream(checked);
+            // Records are sorted by code, directory is not needed for sequential reading
+            directory = RussvyAssetDirectory.read(os, header.recordCount);
+            if (mPartitionCount > 1) {
+                // Partitions are inserted after the checksum is verified
+                records = new byte[header.recordCount * RussvyAssetHeader.RECORD_SIZE];
+                os.readFully(records);
+            } else {
+                final long totalRecords = header.recordCount;
+                for (long recordCounter = 1; recordCounter <= totalRecords; recordCounter++) {
+                    final int code = os.readShort();
+                    final int start = os.readInt();
+                    final int capacity = os.readInt();
+                    final int operatorId = os.readShort();
+                    final int regionId = os.readShort();
+                    if (isSelected(code)) {
+                        mManager.addRange(code, start, capacity, operatorId, regionId);
+                    }
+                    if (recordCounter % batchCount == 0) {
+                        if (!mManager.flush()) {
+                            Log.e(TAG, "Ranges can not be written to the database.");
+                            return null;
+                        }
+                        if (mListener != null) {
+                            mListener.onReadProgress((int) (100 * recordCounter / totalRecords));
+                        }
                     }
                 }
             }
+            if (checked.getChecksum().getValue() != header.checksum) {
+                Log.e(TAG, "Data checksum mismatch (assets).");
+                return null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted (assets).");
+            return null;
         } catch (OutOfMemoryError e) {
-            return false;
+            Log.e(TAG, "Not enough memory for partitioned import.");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+        if (!mManager.flush()) {
+            Log.e(TAG, "Ranges can not be written to the database.");
+            return null;
+        }
+        if (records != null && !new RussvyPartitionedImport(mManager, mPartitionCount).run(
+                records, directory, mCodes, new RussvyPartitionedImport.Listener() {
+                    @Override
+                    public void onProgress(int percentComplete) {
+                        if (mListener != null) {
+                            mListener.onReadProgress(percentComplete);
+                        }
+                    }
+                })) {
+            return null;
         }
-        mManager.flush();
 
         final Map<String, Integer> names = new HashMap<String, Integer>();
-        readNames(context, OPERATORS_FILE, names);
-        mManager.setOperators(names);
-        readNames(context, REGIONS_FILE, names);
-        mManager.setRegions(names);
+        if (!readNames(context, OPERATORS_FILE, names) || !mManager.setOperators(names)
+                || !readNames(context, REGIONS_FILE, names) || !mManager.setRegions(names)) {
+            Log.e(TAG, "Names can not be imported.");
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Builds indexes, compacts the database if enabled and stores the header. Runs after the
+     * bulk load with durable settings: VACUUM rewrites every page of the file, user overrides
+     * included, and must not do it without a journal.
+     */
+    private boolean finish(@NonNull RussvyAssetHeader header) {
+        // Indexes are built after the inserts, it's faster than updating them on every insert.
+        // Built before the header is stored, a database without them is not up to date.
+        mCompactionReport = null;
+        if (mCompaction) {
+            // Database is fine even if compaction fails, only bigger and slower
+            mCompactionReport = mManager.compact(mCompactionPageSize);
+        }
+        if (mCompactionReport == null && !mManager.createIndexes()) {
+            Log.e(TAG, "Indexes can not be created.");
+            return false;
+        }
+
+        if (!mManager.setImportedHeader(header, getCodeSelection())) {
+            return false;
+        }
 
         if (mListener != null) {
             mListener.onReadProgress(100);
@@ -146,36 +354,66 @@ public class RussvyAssetReader {
         return true;
     }
 
+    private boolean isSelected(int code) {
+        return mCodes == null || (code >= 0 && code < mCodes.length && mCodes[code]);
+    }
+
+    /** Returns CRC32 of the selected codes, 0 if all codes are selected. */
+    private long getCodeSelection() {
+        if (mCodes == null) {
+            return 0;
+        }
+        final CRC32 crc = new CRC32();
+        for (int code = 0; code < mCodes.length; code++) {
+            if (mCodes[code]) {
+                crc.update(code >> 8);
+                crc.update(code);
+            }
+        }
+        // Zero is taken by "all codes"
+        return crc.getValue() + 1;
+    }
+
     /**
      *  Reads lines from file to map.
      *  Lines are saved as keys and line numbers as values.
-     *  You get an empty map if something goes wrong.
+     *  @return false if the file can not be read, the map is left empty then.
      */
-    private void readNames(@NonNull Context context, @NonNull String file,
-                          @NonNull Map<String, Integer> map) {
+    private boolean readNames(@NonNull Context context, @NonNull String file,
+                              @NonNull Map<String, Integer> map) {
         map.clear();
         BufferedReader reader = getFileReader(context, getAssetName(file));
         if (reader == null) {
-            return;
+            return false;
         }
         String line;
         try {
             while((line = reader.readLine()) != null) {
                 map.put(line, map.size());
             }
+            return true;
         } catch (IOException e) {
+            Log.e(TAG, "Names are corrupted (assets).");
             map.clear();
-            return;
+            return false;
+        } finally {
+            RussvyUtils.closeStream(reader);
         }
-        RussvyUtils.closeStream(reader);
     }
 
-    private static long getRecordCount(@NonNull Context context) {
+    @Nullable
+    private RussvyAssetHeader readHeader(@NonNull Context context) {
+        final DataInputStream is = getFileInputStream(context, getAssetName(RANGES_FILE));
+        if (is == null) {
+            return null;
+        }
         try {
-            return context.getResources().getInteger(R.integer.russvy_assets_range_count);
-        } catch (Resources.NotFoundException e) {
-            Log.e(TAG, "Data not found (resources).");
-            return 0;
+            return RussvyAssetHeader.read(is);
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted (assets).");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
         }
     }
 
@@ -198,7 +436,7 @@ public class RussvyAssetReader {
     @Nullable
     private static DataInputStream getFileInputStream(Context context, String file) {
         try {
-            return new DataInputStream(context.getAssets().open(file));
+            return new DataInputStream(new BufferedInputStream(context.getAssets().open(file)));
         } catch (FileNotFoundException e) {
             Log.e(TAG, "Data not found (assets).");
             return null;
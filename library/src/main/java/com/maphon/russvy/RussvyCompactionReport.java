@@ -0,0 +1,78 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Tells how long each step of {@link RussvyDatabaseManager#compact(int)} took and how the size
+ * of the database file changed. All durations are in microseconds, sizes are in bytes.
+ */
+public final class RussvyCompactionReport {
+    private final long mInitialSize;
+    private final long mIndexMicros;
+    private final long mIndexedSize;
+    private final long mAnalyzeMicros;
+    private final long mVacuumMicros;
+    private final long mFinalSize;
+    private final long mPageSize;
+
+    RussvyCompactionReport(long initialSize, long indexMicros, long indexedSize,
+                           long analyzeMicros, long vacuumMicros, long finalSize, long pageSize) {
+        mInitialSize = initialSize;
+        mIndexMicros = indexMicros;
+        mIndexedSize = indexedSize;
+        mAnalyzeMicros = analyzeMicros;
+        mVacuumMicros = vacuumMicros;
+        mFinalSize = finalSize;
+        mPageSize = pageSize;
+    }
+
+    /** Returns size of the database file before compaction. */
+    public long getInitialSize() {
+        return mInitialSize;
+    }
+
+    /** Returns time spent on building indexes. */
+    public long getIndexMicros() {
+        return mIndexMicros;
+    }
+
+    /** Returns size of the database file after building indexes. */
+    public long getIndexedSize() {
+        return mIndexedSize;
+    }
+
+    /** Returns time spent on collecting query planner statistics. */
+    public long getAnalyzeMicros() {
+        return mAnalyzeMicros;
+    }
+
+    /** Returns time spent on rebuilding the database file. */
+    public long getVacuumMicros() {
+        return mVacuumMicros;
+    }
+
+    /** Returns size of the database file after compaction. */
+    public long getFinalSize() {
+        return mFinalSize;
+    }
+
+    /** Returns page size of the database after compaction. */
+    public long getPageSize() {
+        return mPageSize;
+    }
+
+    /** Returns total time of the compaction. */
+    public long getTotalMicros() {
+        return mIndexMicros + mAnalyzeMicros + mVacuumMicros;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "index %d us (%d -> %d bytes), analyze %d us, "
+                        + "vacuum %d us (-> %d bytes, page %d)", mIndexMicros, mInitialSize,
+                mIndexedSize, mAnalyzeMicros, mVacuumMicros, mFinalSize, mPageSize);
+    }
+}
@@ -0,0 +1,230 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One version of the data held in memory by {@link RussvyRangeIndex}.
+ * Data never changes once it is read, codes and names which are not needed yet may be read
+ * later on demand. Thread safe.
+ */
+final class RussvyDataSnapshot implements RussvyNameSource {
+    private static final String TAG = "Russvy";
+    private static final String DATA_CHARSET = "UTF-8";
+
+    @NonNull
+    private final RussvyDataSource mSource;
+    @NonNull
+    final RussvyAssetHeader header;
+    @NonNull
+    final RussvyAssetDirectory directory;
+    /** Loaded range tables by code. */
+    @NonNull
+    private final AtomicReferenceArray<RussvyRangeTable> mTables =
+            new AtomicReferenceArray<RussvyRangeTable>(RussvyUtils.CODE_COUNT);
+
+    @Nullable
+    private volatile String[] mOperators;
+    @Nullable
+    private volatile String[] mRegions;
+
+    private RussvyDataSnapshot(@NonNull RussvyDataSource source, @NonNull RussvyAssetHeader header,
+                               @NonNull RussvyAssetDirectory directory) {
+        mSource = source;
+        this.header = header;
+        this.directory = directory;
+    }
+
+    /**
+     * Reads header and directory of the data. Does not load any ranges yet.
+     * @return snapshot or null if data can not be read.
+     */
+    @Nullable
+    static RussvyDataSnapshot open(@NonNull RussvyDataSource source) {
+        final DataInputStream is = openRanges(source);
+        if (is == null) {
+            return null;
+        }
+        try {
+            final RussvyAssetHeader header = RussvyAssetHeader.read(is);
+            return new RussvyDataSnapshot(source, header,
+                    RussvyAssetDirectory.read(is, header.recordCount));
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted.");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+    }
+
+    /** Returns date when the data was published by Rossvyaz. */
+    @Nullable
+    Date getDataAge() {
+        return header.getDataAge();
+    }
+
+    /** Checks whether ranges of the code are already in memory. */
+    boolean isLoaded(int code) {
+        return !directory.contains(code) || mTables.get(code) != null;
+    }
+
+    /**
+     * Returns ranges of the code, loads them if they are not in memory yet.
+     * @return ranges or null if there are no ranges for the code or they can not be read.
+     */
+    @Nullable
+    RussvyRangeTable getTable(int code) {
+        if (!directory.contains(code)) {
+            return null;
+        }
+        final RussvyRangeTable table = mTables.get(code);
+        if (table != null) {
+            return table;
+        }
+        final DataInputStream is = openRanges(mSource);
+        if (is == null) {
+            return null;
+        }
+        try {
+            skipFully(is, directory.getRecordOffset(code));
+            // Someone else could have loaded the same code meanwhile, it's fine to keep any copy.
+            mTables.compareAndSet(code, null,
+                    RussvyRangeTable.read(is, code, directory.getRecordCount(code)));
+            return mTables.get(code);
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted.");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+    }
+
+    /** Returns name of the operator, loads all operator names on the first call. */
+    @Nullable
+    @Override
+    public String getOperatorName(int id) {
+        final String[] names = getOperatorNames();
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    /** Returns name of the region, loads all region names on the first call. */
+    @Nullable
+    @Override
+    public String getRegionName(int id) {
+        final String[] names = getRegionNames();
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    /** Returns count of operators, loads all operator names on the first call. */
+    int getOperatorCount() {
+        return getOperatorNames().length;
+    }
+
+    /** Returns count of regions, loads all region names on the first call. */
+    int getRegionCount() {
+        return getRegionNames().length;
+    }
+
+    @NonNull
+    private String[] getOperatorNames() {
+        String[] names = mOperators;
+        if (names == null) {
+            names = readNames(RussvyDataSource.OPERATORS_FILE);
+            mOperators = names;
+        }
+        return names;
+    }
+
+    @NonNull
+    private String[] getRegionNames() {
+        String[] names = mRegions;
+        if (names == null) {
+            names = readNames(RussvyDataSource.REGIONS_FILE);
+            mRegions = names;
+        }
+        return names;
+    }
+
+    /**
+     * Loads all codes which are not in memory yet and names of operators and regions.
+     * Reads ranges in one pass.
+     * @return true if everything went fine.
+     */
+    boolean loadAll() {
+        final DataInputStream is = openRanges(mSource);
+        if (is == null) {
+            return false;
+        }
+        try {
+            skipFully(is, RussvyAssetHeader.SIZE + directory.getSize());
+            for (int i = 0; i < directory.size(); i++) {
+                final int code = directory.getCode(i);
+                final int count = directory.getRecordCount(code);
+                if (mTables.get(code) != null) {
+                    skipFully(is, (long) count * RussvyAssetHeader.RECORD_SIZE);
+                } else {
+                    mTables.compareAndSet(code, null, RussvyRangeTable.read(is, code, count));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Data is corrupted.");
+            return false;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+        return getOperatorName(0) != null && getRegionName(0) != null;
+    }
+
+    // Returns empty array if names can not be read.
+    @NonNull
+    private String[] readNames(@NonNull String file) {
+        final List<String> names = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(mSource.open(file), DATA_CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                names.add(line);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Data not found.");
+            names.clear();
+        } finally {
+            RussvyUtils.closeStream(reader);
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Nullable
+    private static DataInputStream openRanges(@NonNull RussvyDataSource source) {
+        try {
+            return new DataInputStream(new BufferedInputStream(
+                    source.open(RussvyDataSource.RANGES_FILE)));
+        } catch (IOException e) {
+            Log.e(TAG, "Data not found.");
+            return null;
+        }
+    }
+
+    private static void skipFully(@NonNull InputStream is, long count) throws IOException {
+        while (count > 0) {
+            final long skipped = is.skip(count);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of data.");
+            }
+            count -= skipped;
+        }
+    }
+}
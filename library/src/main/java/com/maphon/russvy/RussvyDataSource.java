@@ -0,0 +1,114 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Place where data files ("ranges", "operators", "regions", "ported", "gaps", "history") can be
+ * read from: either application assets or a directory on disk (e.g. downloaded update).
+ */
+abstract class RussvyDataSource {
+    static final String OPERATORS_FILE = "operators";
+    static final String REGIONS_FILE = "regions";
+    static final String RANGES_FILE = "ranges";
+    static final String PORTED_FILE = "ported";
+    static final String GAPS_FILE = "gaps";
+    static final String HISTORY_FILE = "history";
+
+    /**
+     * Opens data file for reading.
+     * @param file one of the *_FILE constants.
+     * @throws IOException if there is no such file.
+     */
+    @NonNull
+    abstract InputStream open(@NonNull String file) throws IOException;
+
+    /**
+     * Memory maps data file.
+     * @param file one of the *_FILE constants.
+     * @return read only buffer or null if there is no such file or it can not be mapped
+     *         (compressed asset).
+     */
+    @Nullable
+    abstract ByteBuffer map(@NonNull String file);
+
+    /** Returns source reading files from assets of the application. */
+    @NonNull
+    static RussvyDataSource assets(@NonNull Context context, @Nullable final String path) {
+        final Context applicationContext = context.getApplicationContext();
+        return new RussvyDataSource() {
+            @NonNull
+            @Override
+            InputStream open(@NonNull String file) throws IOException {
+                return applicationContext.getAssets().open(getName(file));
+            }
+
+            @Nullable
+            @Override
+            ByteBuffer map(@NonNull String file) {
+                // Works for assets stored uncompressed only, see aaptOptions noCompress.
+                AssetFileDescriptor descriptor = null;
+                FileInputStream is = null;
+                try {
+                    descriptor = applicationContext.getAssets().openFd(getName(file));
+                    is = descriptor.createInputStream();
+                    return is.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                            descriptor.getStartOffset(), descriptor.getLength());
+                } catch (IOException e) {
+                    return null;
+                } finally {
+                    RussvyUtils.closeStream(is);
+                    // AssetFileDescriptor does not implement Closeable in API < 19.
+                    if (descriptor != null) {
+                        try {
+                            descriptor.close();
+                        } catch (IOException e) {
+                            // intentionally blank
+                        }
+                    }
+                }
+            }
+
+            @NonNull
+            private String getName(@NonNull String file) {
+                return path == null || path.isEmpty() ? file : path + "/" + file;
+            }
+        };
+    }
+
+    /** Returns source reading files from the directory. */
+    @NonNull
+    static RussvyDataSource directory(@NonNull final File directory) {
+        return new RussvyDataSource() {
+            @NonNull
+            @Override
+            InputStream open(@NonNull String file) throws IOException {
+                return new FileInputStream(new File(directory, file));
+            }
+
+            @Nullable
+            @Override
+            ByteBuffer map(@NonNull String file) {
+                FileInputStream is = null;
+                try {
+                    is = new FileInputStream(new File(directory, file));
+                    final FileChannel channel = is.getChannel();
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException e) {
+                    return null;
+                } finally {
+                    RussvyUtils.closeStream(is);
+                }
+            }
+        };
+    }
+}
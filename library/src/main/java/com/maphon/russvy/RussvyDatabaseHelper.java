@@ -16,26 +16,78 @@ final class RussvyDatabaseHelper {
     private static final String TABLE_OPERATOR = "operator";
     private static final String TABLE_REGION = "region";
     private static final String TABLE_RANGE = "range";
+    private static final String TABLE_META = "meta";
+    // Not a part of Table, so that clear() and re-imports keep user data.
+    private static final String TABLE_OVERRIDE = "user_override";
 
     static final String COLUMN_ID = "id";
     static final String COLUMN_NAME = "name";
+    // Code, start and capacity are not stored since version 2, but they are still computed
+    // for cursors returned to the outside world.
     static final String COLUMN_REGION_CODE = "code";
     static final String COLUMN_RANGE_START = "start";
     static final String COLUMN_RANGE_CAPACITY = "capacity";
+    // Full ten digit numbers: code * 10^7 + number inside the code.
+    static final String COLUMN_RANGE_FIRST = "first_number";
+    static final String COLUMN_RANGE_LAST = "last_number";
     static final String COLUMN_OPERATOR = "operator";
     static final String COLUMN_REGION = "region";
+    static final String COLUMN_VALUE = "value";
+    static final String COLUMN_LABEL = "label";
 
+    // Keys of the meta table, describe the asset the data was imported from.
+    static final String META_FORMAT_VERSION = "format_version";
+    static final String META_DATA_DATE = "data_date";
+    static final String META_RANGE_COUNT = "range_count";
+    static final String META_CHECKSUM = "checksum";
+    // Fingerprint of the codes imported by RussvyAssetReader, 0 if all of them were imported.
+    static final String META_CODE_SELECTION = "code_selection";
+    // Time when the last bulk load was completed, see RussvyDatabaseManager.endBulkLoad.
+    static final String META_BULK_LOAD_TIME = "bulk_load_time";
+
+    static final String PRAGMA_JOURNAL_MODE = "journal_mode";
+    static final String PRAGMA_SYNCHRONOUS = "synchronous";
+    // Journal in memory and no syncs: a crash in the middle can leave the database broken,
+    // fine for the data which can be imported again.
+    static final String JOURNAL_MODE_BULK_LOAD = "MEMORY";
+    static final String SYNCHRONOUS_BULK_LOAD = "OFF";
+
+    // INTEGER PRIMARY KEY is an alias of rowid, so the table itself is the B-tree clustered by
+    // the first number: finding range of the number is a single descent, no separate index.
+    // WITHOUT ROWID tables would give nothing more here and need SQLite 3.8.2 (API 21).
     static final String SQL_CREATE_TABLE_RANGE = "CREATE TABLE " + TABLE_RANGE + " ("
-            + COLUMN_REGION_CODE + " INTEGER, " + COLUMN_RANGE_START + " INTEGER, "
-            + COLUMN_RANGE_CAPACITY + " INTEGER, " + COLUMN_OPERATOR + " INTEGER, "
-            + COLUMN_REGION +" INTEGER);";
+            + COLUMN_RANGE_FIRST + " INTEGER PRIMARY KEY, " + COLUMN_RANGE_LAST + " INTEGER, "
+            + COLUMN_OPERATOR + " INTEGER, " + COLUMN_REGION + " INTEGER);";
+    // Used for searching ranges by operator or region. Rows with the same key are ordered by
+    // rowid, so ranges come sorted by first number without any extra sorting.
+    static final String SQL_CREATE_INDEX_RANGE_OPERATOR = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_RANGE + "_" + COLUMN_OPERATOR + " ON " + TABLE_RANGE + " ("
+            + COLUMN_OPERATOR + ");";
+    static final String SQL_CREATE_INDEX_RANGE_REGION = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_RANGE + "_" + COLUMN_REGION + " ON " + TABLE_RANGE + " ("
+            + COLUMN_REGION + ");";
+    // Version 1 of the range table, used for migration only.
+    private static final String TABLE_RANGE_V1 = "range_v1";
     static final String SQL_CREATE_TABLE_OPERATOR = "CREATE TABLE " + TABLE_OPERATOR + " "
             + "(" + COLUMN_ID + " INTEGER, " + COLUMN_NAME + " TEXT);";
     static final String SQL_CREATE_TABLE_REGION = "CREATE TABLE " + TABLE_REGION + " ("
             + COLUMN_ID + " INTEGER, " + COLUMN_NAME + " TEXT);";
+    static final String SQL_CREATE_TABLE_META = "CREATE TABLE " + TABLE_META + " ("
+            + COLUMN_NAME + " TEXT PRIMARY KEY, " + COLUMN_VALUE + " INTEGER);";
+
+    static final String SQL_CREATE_TABLE_OVERRIDE = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_OVERRIDE + " (" + COLUMN_RANGE_FIRST + " INTEGER PRIMARY KEY, "
+            + COLUMN_RANGE_LAST + " INTEGER, " + COLUMN_LABEL + " TEXT);";
+
+    static final String SQL_ANALYZE = "ANALYZE;";
+    static final String SQL_VACUUM = "VACUUM;";
 
     // Arguments: table name
     static final String SQL_FORMAT_GET_COUNT = "SELECT COUNT(*) FROM %s;";
+    // The last number is not in any index, so it is read from the table itself, every leaf page
+    // of it. COUNT(*) would scan the smallest index instead. TOTAL() never overflows.
+    static final String SQL_TOUCH_RANGES = "SELECT TOTAL(" + COLUMN_RANGE_LAST + ") FROM "
+            + TABLE_RANGE + " NOT INDEXED;";
     // Arguments: table name
     static final String SQL_FORMAT_GET_NAME = "SELECT TOP(1) " + COLUMN_NAME
             + " FROM %s where " + COLUMN_ID + "= %s;";
@@ -44,15 +96,42 @@ final class RussvyDatabaseHelper {
     // Arguments: table name, id, name
     static final String SQL_FORMAT_INSERT_NAME = "INSERT INTO %s (" + COLUMN_ID + ", "
             + COLUMN_NAME + ") VALUES (?, ?);";
-    // Arguments: code, range start, range capacity, operator id, region id
-    static final String SQL_FORMAT_INSERT_RANGE = "INSERT INTO " + TABLE_RANGE + " ("
-            + COLUMN_REGION_CODE + ", " + COLUMN_RANGE_START + ", " + COLUMN_RANGE_CAPACITY
-            + ", " + COLUMN_OPERATOR + ", " + COLUMN_REGION + ") " + " VALUES (?, ?, ?, ?, ?);";
+    static final String SQL_INSERT_META = "INSERT OR REPLACE INTO " + TABLE_META + " ("
+            + COLUMN_NAME + ", " + COLUMN_VALUE + ") VALUES (?, ?);";
+    static final String SQL_INSERT_OVERRIDE = "INSERT INTO " + TABLE_OVERRIDE + " ("
+            + COLUMN_RANGE_FIRST + ", " + COLUMN_RANGE_LAST + ", " + COLUMN_LABEL
+            + ") VALUES (?, ?, ?);";
+    // Arguments: first number, last number, operator id, region id
+    // Rossvyaz data contains a few exact duplicates, hence OR REPLACE.
+    static final String SQL_FORMAT_INSERT_RANGE = "INSERT OR REPLACE INTO " + TABLE_RANGE + " ("
+            + COLUMN_RANGE_FIRST + ", " + COLUMN_RANGE_LAST + ", " + COLUMN_OPERATOR + ", "
+            + COLUMN_REGION + ") " + " VALUES (?, ?, ?, ?);";
+    // Arguments: schema of the attached database with the range table
+    static final String SQL_FORMAT_COPY_RANGES = "INSERT OR REPLACE INTO " + TABLE_RANGE + " ("
+            + COLUMN_RANGE_FIRST + ", " + COLUMN_RANGE_LAST + ", " + COLUMN_OPERATOR + ", "
+            + COLUMN_REGION + ") SELECT " + COLUMN_RANGE_FIRST + ", " + COLUMN_RANGE_LAST + ", "
+            + COLUMN_OPERATOR + ", " + COLUMN_REGION + " FROM %s." + TABLE_RANGE + ";";
+    // Migration of the range table from version 1 to version 2.
+    static final String[] SQL_MIGRATE_RANGE_V1 = {
+            "ALTER TABLE " + TABLE_RANGE + " RENAME TO " + TABLE_RANGE_V1 + ";",
+            SQL_CREATE_TABLE_RANGE,
+            "INSERT OR REPLACE INTO " + TABLE_RANGE + " (" + COLUMN_RANGE_FIRST + ", "
+                    + COLUMN_RANGE_LAST + ", " + COLUMN_OPERATOR + ", " + COLUMN_REGION + ") "
+                    + "SELECT " + COLUMN_REGION_CODE + " * " + RussvyUtils.NUMBERS_PER_CODE
+                    + " + " + COLUMN_RANGE_START + ", " + COLUMN_REGION_CODE + " * "
+                    + RussvyUtils.NUMBERS_PER_CODE + " + " + COLUMN_RANGE_START + " + "
+                    + COLUMN_RANGE_CAPACITY + " - 1, " + COLUMN_OPERATOR + ", " + COLUMN_REGION
+                    + " FROM " + TABLE_RANGE_V1 + ";",
+            "DROP TABLE " + TABLE_RANGE_V1 + ";",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_META + " (" + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                    + COLUMN_VALUE + " INTEGER);"
+    };
 
     enum Table {
         OPERATOR (TABLE_OPERATOR),
         REGION (TABLE_REGION),
-        RANGE (TABLE_RANGE);
+        RANGE (TABLE_RANGE),
+        META (TABLE_META);
 
         final String name;
         Table(String name) {
@@ -61,17 +140,14 @@ final class RussvyDatabaseHelper {
     }
 
     static class NumberRange {
-        public String code;
-        public String start;
-        public String capacity;
+        public long first;
+        public long last;
         public int operatorId;
         public int regionId;
 
-        public NumberRange(String code, String start, String capacity,
-                           int operatorId, int regionId) {
-            this.code = code;
-            this.start = start;
-            this.capacity = capacity;
+        public NumberRange(long first, long last, int operatorId, int regionId) {
+            this.first = first;
+            this.last = last;
             this.operatorId = operatorId;
             this.regionId = regionId;
         }
@@ -90,23 +166,207 @@ final class RussvyDatabaseHelper {
         return name;
     }
 
+    // Returns all names of the table indexed by id, missing ids have null names.
+    @NonNull
+    static String[] getNameColumns(@NonNull SQLiteDatabase db, @NonNull Table table) {
+        final Cursor cursor = db.query(table.name, new String[]{COLUMN_ID, COLUMN_NAME},
+                null, null, null, null, COLUMN_ID + " DESC", null);
+        String[] names = new String[0];
+        if (cursor != null && cursor.moveToFirst()) {
+            // Ids are dense, the first one is the biggest
+            names = new String[Math.max(cursor.getInt(0) + 1, 0)];
+            do {
+                final int id = cursor.getInt(0);
+                if (id >= 0) {
+                    names[id] = cursor.getString(1);
+                }
+            } while (cursor.moveToNext());
+        }
+        RussvyUtils.closeCursor(cursor);
+        return names;
+    }
+
+    // Reads every leaf page of the range table, so that later lookups do not wait for storage.
+    static void touchRanges(@NonNull SQLiteDatabase db) {
+        SQLiteStatement statement = null;
+        try {
+            statement = db.compileStatement(SQL_TOUCH_RANGES);
+            statement.simpleQueryForLong();
+        } catch (SQLiteException e) {
+            // Pages are only read in advance, lookups do not depend on it
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
     // Code is not selected.
     @Nullable
     static Cursor getRegionRanges(@NonNull SQLiteDatabase db, int regionCode) {
+        final long base = RussvyUtils.getNumber(regionCode, 0);
+        return db.query(TABLE_RANGE, getRegionRangeColumns(base),
+                COLUMN_RANGE_FIRST + " BETWEEN ? AND ?", new String[] { String.valueOf(base),
+                        String.valueOf(base + RussvyUtils.NUMBERS_PER_CODE - 1) },
+                null, null, COLUMN_RANGE_FIRST, null);
+    }
+
+    // Code is not selected. Columns are in the same order as in getRegionRanges, so rows can be
+    // read by index.
+    @Nullable
+    static Cursor getRegionRangesPage(@NonNull SQLiteDatabase db, int regionCode, int fromStart,
+                                      int limit) {
+        final long base = RussvyUtils.getNumber(regionCode, 0);
+        return db.query(TABLE_RANGE, getRegionRangeColumns(base),
+                COLUMN_RANGE_FIRST + " BETWEEN ? AND ?", new String[] {
+                        String.valueOf(base + Math.max(fromStart, 0)),
+                        String.valueOf(base + RussvyUtils.NUMBERS_PER_CODE - 1) },
+                null, null, COLUMN_RANGE_FIRST, String.valueOf(limit));
+    }
+
+    // Returns ranges of the operator (column = COLUMN_OPERATOR) or region (column = COLUMN_REGION)
+    // sorted by code and start. Unlike getRegionRanges, code is selected.
+    @Nullable
+    static Cursor getRangesById(@NonNull SQLiteDatabase db, @NonNull String column, int id) {
         return db.query(TABLE_RANGE, new String[] {
-                        COLUMN_RANGE_START, COLUMN_RANGE_CAPACITY,
+                        COLUMN_RANGE_FIRST + " / " + RussvyUtils.NUMBERS_PER_CODE + " AS "
+                                + COLUMN_REGION_CODE,
+                        COLUMN_RANGE_FIRST + " % " + RussvyUtils.NUMBERS_PER_CODE + " AS "
+                                + COLUMN_RANGE_START,
+                        COLUMN_RANGE_LAST + " - " + COLUMN_RANGE_FIRST + " + 1 AS "
+                                + COLUMN_RANGE_CAPACITY,
                         COLUMN_OPERATOR, COLUMN_REGION},
-                COLUMN_REGION_CODE + "=?", new String[] { String.valueOf(regionCode) },
-                null, null, null, null);
+                column + "=?", new String[] { String.valueOf(id) },
+                null, null, COLUMN_RANGE_FIRST, null);
+    }
+
+    // Returns the only range which may contain the number: the last one starting before it.
+    // Columns: first number, last number, operator, region.
+    // Caller has to check whether the number is not after the last one.
+    @Nullable
+    static Cursor getClosestRange(@NonNull SQLiteDatabase db, long number) {
+        return db.query(TABLE_RANGE, new String[] {
+                        COLUMN_RANGE_FIRST, COLUMN_RANGE_LAST, COLUMN_OPERATOR, COLUMN_REGION},
+                COLUMN_RANGE_FIRST + "<=?", new String[] { String.valueOf(number) },
+                null, null, COLUMN_RANGE_FIRST + " DESC", "1");
+    }
+
+    // Returns ranges which may contain numbers between "from" and "to", ordered by first number.
+    // Columns: first number, last number, operator, region.
+    @Nullable
+    static Cursor getCoveringRanges(@NonNull SQLiteDatabase db, long from, long to) {
+        final String fromArg = String.valueOf(from);
+        return db.query(TABLE_RANGE, new String[] {
+                        COLUMN_RANGE_FIRST, COLUMN_RANGE_LAST, COLUMN_OPERATOR, COLUMN_REGION},
+                COLUMN_RANGE_FIRST + " BETWEEN COALESCE((SELECT MAX(" + COLUMN_RANGE_FIRST
+                        + ") FROM " + TABLE_RANGE + " WHERE " + COLUMN_RANGE_FIRST + "<=?), ?)"
+                        + " AND ?",
+                new String[] { fromArg, fromArg, String.valueOf(to) },
+                null, null, COLUMN_RANGE_FIRST, null);
+    }
+
+    // Columns of the version 1 range table (without code) computed from the stored numbers.
+    @NonNull
+    private static String[] getRegionRangeColumns(long base) {
+        return new String[] {
+                COLUMN_RANGE_FIRST + " - " + base + " AS " + COLUMN_RANGE_START,
+                COLUMN_RANGE_LAST + " - " + COLUMN_RANGE_FIRST + " + 1 AS "
+                        + COLUMN_RANGE_CAPACITY,
+                COLUMN_OPERATOR, COLUMN_REGION};
+    }
+
+    // Columns: first number, last number, label.
+    @Nullable
+    static Cursor getOverrides(@NonNull SQLiteDatabase db) {
+        return db.query(TABLE_OVERRIDE, new String[] {
+                        COLUMN_RANGE_FIRST, COLUMN_RANGE_LAST, COLUMN_LABEL},
+                null, null, null, null, COLUMN_RANGE_FIRST, null);
+    }
+
+    // Replaces all overrides at once, the table is small.
+    static boolean replaceOverrides(@NonNull SQLiteDatabase db, @NonNull long[] firsts,
+                                    @NonNull long[] lasts, @NonNull String[] labels) {
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_OVERRIDE, null, null);
+            final SQLiteStatement statement = db.compileStatement(SQL_INSERT_OVERRIDE);
+            for (int i = 0; i < firsts.length; i++) {
+                statement.bindLong(1, firsts[i]);
+                statement.bindLong(2, lasts[i]);
+                statement.bindString(3, labels[i]);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } catch (SQLiteException e) {
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Returns value of the pragma or null if there is none.
+    @Nullable
+    static String getPragma(@NonNull SQLiteDatabase db, @NonNull String pragma) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA " + pragma, null);
+            return cursor != null && cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            RussvyUtils.closeCursor(cursor);
+        }
+    }
+
+    // Some pragmas return rows, so rawQuery instead of execSQL. Must not be in transaction.
+    static void setPragma(@NonNull SQLiteDatabase db, @NonNull String pragma,
+                          @NonNull String value) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA " + pragma + "=" + value, null);
+            if (cursor != null) {
+                cursor.moveToFirst();
+            }
+        } finally {
+            RussvyUtils.closeCursor(cursor);
+        }
+    }
+
+    // Returns defaultValue if there is no such key or no meta table at all (databases created
+    // before it was introduced).
+    static long getMetaValue(@NonNull SQLiteDatabase db, @NonNull String key, long defaultValue) {
+        Cursor cursor = null;
+        try {
+            cursor = db.query(TABLE_META, new String[]{COLUMN_VALUE}, COLUMN_NAME + "=?",
+                    new String[]{key}, null, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return defaultValue;
+        } catch (SQLiteException e) {
+            return defaultValue;
+        } finally {
+            RussvyUtils.closeCursor(cursor);
+        }
+    }
+
+    static void setMetaValue(@NonNull SQLiteStatement insertMeta, @NonNull String key,
+                             long value) {
+        insertMeta.bindString(1, key);
+        insertMeta.bindLong(2, value);
+        insertMeta.execute();
     }
 
     static long getRecordCount(@NonNull SQLiteDatabase db, @NonNull Table table) {
+        SQLiteStatement statement = null;
         try {
-            SQLiteStatement statement
-                    = db.compileStatement(String.format(SQL_FORMAT_GET_COUNT, table.name));
+            statement = db.compileStatement(String.format(SQL_FORMAT_GET_COUNT, table.name));
             return statement.simpleQueryForLong();
         } catch (SQLiteException e) {
             return 0;
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
         }
     }
 }
@@ -6,13 +6,20 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
 
 import com.maphon.russvy.RussvyDatabaseHelper.NumberRange;
 import com.maphon.russvy.RussvyDatabaseHelper.Table;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -25,25 +32,74 @@ import java.util.Map;
  * - capacity
  * - region id
  * - operator id
- * See {@link #addRange(String, String, String, int, int)} for more details about them.
+ * See {@link #addRange(int, int, int, int, int)} for more details about them.
  * Operator is a name of mobile operator accredited in Russian Federation. One operator can
  * hold multiple number ranges.
  * Region is a name of a territorial district in Russian Federation which a particular number
  * range belongs to.
  */
-public class RussvyDatabaseManager extends SQLiteOpenHelper {
+public class RussvyDatabaseManager extends SQLiteOpenHelper implements RussvyLookupSource,
+        RussvyNameSource {
     /**
      * Database version, used for proper migration.
      * The following versions are supported:
      * 1 - first DB version
+     * 2 - ranges are keyed by full first number and store full last number instead of
+     *     code, start and capacity
+     * 3 - ranges are indexed by operator and region
+     * 4 - user overrides table
      */
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 4;
+    private static final String TAG = "Russvy";
+
+    /** Gets notified when {@link #warmUpInBackground(WarmUpListener)} is complete. */
+    public interface WarmUpListener {
+        /** Called on the background thread. */
+        void onWarmUpComplete(@NonNull RussvyWarmUpReport report);
+    }
+
+    /** Suffix of the file which exists while bulk load is in progress. */
+    private static final String BULK_LOAD_MARKER_SUFFIX = "-bulk-load";
 
     /** Temporary storage for inserted number ranges. Used for batching insertions. */
     @Nullable
     private List<NumberRange> mPendingInserts;
     @Nullable
     private SQLiteStatement mInsertRangeStatement;
+    /** Used to reject unallocated numbers without touching the database. */
+    @Nullable
+    private volatile RussvyNumberFilter mNumberFilter;
+    /** Overrides operators of ported numbers. */
+    @Nullable
+    private volatile RussvyPortingOverlay mPortingOverlay;
+    /** Names loaded by {@link #warmUp()}, indexed by id. */
+    @Nullable
+    private volatile String[] mOperatorNames;
+    @Nullable
+    private volatile String[] mRegionNames;
+    /** Built on the first name search. */
+    @Nullable
+    private volatile RussvyNameIndex mOperatorIndex;
+    @Nullable
+    private volatile RussvyNameIndex mRegionIndex;
+    /** Guards publishing of the name caches against concurrent changes of the names. */
+    private final Object mNameCacheLock = new Object();
+    /** Incremented whenever the name caches are dropped. Guarded by mNameCacheLock. */
+    private int mNameGeneration;
+    /** Settings replaced by {@link #beginBulkLoad()}, null if bulk load is not in progress. */
+    @Nullable
+    private String mSavedJournalMode;
+    @Nullable
+    private String mSavedSynchronous;
+    /** Whether write-ahead logging was turned off by {@link #beginBulkLoad()}. */
+    private boolean mSavedWriteAheadLogging;
+    /** Whether range indexes were created since the range table was last cleared. */
+    private volatile boolean mRangeIndexesCreated;
+    /** Loaded on the first lookup or {@link #getOverrides()}. */
+    @Nullable
+    private volatile RussvyOverrides mOverrides;
+    @Nullable
+    private volatile RussvyMetrics mMetrics;
 
     /**
      * Creates database manager.
@@ -135,12 +191,136 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
      *                 be displayed to the user.
      * @throws IllegalStateException if called before {@link #prepareInsert()}
      */
-    public void addRange(String code, String start, String capacity, int operatorId, int regionId)
+    public void addRange(int code, int start, int capacity, int operatorId, int regionId)
             throws IllegalStateException {
         if (mPendingInserts == null) {
             throw new IllegalStateException("Database not ready for new data.");
         }
-        mPendingInserts.add(new NumberRange(code, start, capacity, operatorId, regionId));
+        final long first = RussvyUtils.getNumber(code, start);
+        mPendingInserts.add(new NumberRange(first, first + capacity - 1, operatorId, regionId));
+    }
+
+    /**
+     * Inserts new number range record in the database.
+     * Same as {@link #addRange(int, int, int, int, int)}, but takes numbers as strings.
+     * @throws IllegalStateException if called before {@link #prepareInsert()}
+     * @throws NumberFormatException if code, start or capacity is not a number.
+     */
+    public void addRange(String code, String start, String capacity, int operatorId, int regionId)
+            throws IllegalStateException {
+        addRange(Integer.parseInt(code), Integer.parseInt(start), Integer.parseInt(capacity),
+                operatorId, regionId);
+    }
+
+    /**
+     * Makes inserts much faster by giving up their durability: journal is kept in memory and
+     * nothing is synced to storage until {@link #endBulkLoad(boolean)}. A crash in between may
+     * leave the data incomplete or broken, so a marker file is created next to the database.
+     * If the marker is still there when the database is opened next time, all imported data
+     * (not user overrides) is removed and {@link RussvyAssetReader#importIfNeeded(Context, int)}
+     * imports it again. Used by {@link RussvyAssetReader#read(Context, int)}.
+     * Meant for inserts of the imported data only: indexes are built and the database is
+     * compacted after {@link #endBulkLoad(boolean)}.
+     * Write-ahead logging enabled with {@link SQLiteDatabase#enableWriteAheadLogging()} is
+     * turned off through the framework for the bulk load and turned on again by
+     * {@link #endBulkLoad(boolean)}.
+     * @return false if bulk load can not be started, inserts are durable then.
+     */
+    @WorkerThread
+    public boolean beginBulkLoad() {
+        if (mSavedJournalMode != null) {
+            return true;
+        }
+        try {
+            final SQLiteDatabase db = getWritableDatabase();
+            final File marker = getBulkLoadMarker(db);
+            if (!marker.exists() && !marker.createNewFile()) {
+                return false;
+            }
+            // The framework would not know that the journal mode was changed behind its back
+            final boolean writeAheadLogging = Build.VERSION.SDK_INT >= 16
+                    && db.isWriteAheadLoggingEnabled();
+            if (writeAheadLogging) {
+                db.disableWriteAheadLogging();
+            }
+            final String journalMode = RussvyDatabaseHelper.getPragma(db,
+                    RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE);
+            final String synchronous = RussvyDatabaseHelper.getPragma(db,
+                    RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS);
+            if (journalMode == null || synchronous == null) {
+                if (writeAheadLogging) {
+                    enableWriteAheadLogging(db);
+                }
+                return false;
+            }
+            RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE,
+                    RussvyDatabaseHelper.JOURNAL_MODE_BULK_LOAD);
+            RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS,
+                    RussvyDatabaseHelper.SYNCHRONOUS_BULK_LOAD);
+            mSavedJournalMode = journalMode;
+            mSavedSynchronous = synchronous;
+            mSavedWriteAheadLogging = writeAheadLogging;
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Bulk load can not be started.", e);
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Bulk load marker can not be created.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Restores durable settings changed by {@link #beginBulkLoad()}, including write-ahead
+     * logging.
+     * @param complete true if all the data is imported. The marker is removed and everything
+     *                 written during the bulk load is synced to storage. Otherwise the marker
+     *                 stays and the data is removed on the next open.
+     * @return true if settings are restored.
+     */
+    @WorkerThread
+    public boolean endBulkLoad(boolean complete) {
+        final String journalMode = mSavedJournalMode;
+        final String synchronous = mSavedSynchronous;
+        if (journalMode == null || synchronous == null) {
+            return false;
+        }
+        final boolean writeAheadLogging = mSavedWriteAheadLogging;
+        mSavedJournalMode = null;
+        mSavedSynchronous = null;
+        mSavedWriteAheadLogging = false;
+        SQLiteDatabase db = null;
+        try {
+            db = getWritableDatabase();
+            RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS,
+                    synchronous);
+            RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE,
+                    journalMode);
+            if (complete) {
+                // Synced commit flushes the whole file, including pages written without syncs.
+                // Done before write-ahead logging is back: its commits sync the log only.
+                db.beginTransaction();
+                try {
+                    RussvyDatabaseHelper.setMetaValue(
+                            db.compileStatement(RussvyDatabaseHelper.SQL_INSERT_META),
+                            RussvyDatabaseHelper.META_BULK_LOAD_TIME, System.currentTimeMillis());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Bulk load can not be finished.", e);
+            return false;
+        } finally {
+            if (writeAheadLogging && db != null) {
+                enableWriteAheadLogging(db);
+            }
+        }
+        if (complete && !getBulkLoadMarker(db).delete()) {
+            Log.e(TAG, "Bulk load marker can not be removed.");
+        }
+        return true;
     }
 
     /**
@@ -157,12 +337,10 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
             // We need explicit transactions here since it's outside SQLiteOpenHelper's callbacks
             db.beginTransaction();
             for (NumberRange range : mPendingInserts) {
-                // It appears that bindString is much faster than bindLong
-                mInsertRangeStatement.bindString(1, range.code);
-                mInsertRangeStatement.bindString(2, range.start);
-                mInsertRangeStatement.bindString(3, range.capacity);
-                mInsertRangeStatement.bindLong(4, range.operatorId);
-                mInsertRangeStatement.bindLong(5, range.regionId);
+                mInsertRangeStatement.bindLong(1, range.first);
+                mInsertRangeStatement.bindLong(2, range.last);
+                mInsertRangeStatement.bindLong(3, range.operatorId);
+                mInsertRangeStatement.bindLong(4, range.regionId);
                 mInsertRangeStatement.execute();
             }
             mPendingInserts.clear();
@@ -178,16 +356,25 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
     }
 
     /** Returns total amount of phone number ranges in database. */
+    @Override
     public long getRangeCount() {
-        return RussvyDatabaseHelper.getRecordCount(getReadableDatabase(), Table.RANGE);
+        final RussvyMetrics metrics = mMetrics;
+        final long startTime = metrics != null ? System.nanoTime() : 0;
+        final long count = RussvyDatabaseHelper.getRecordCount(getReadableDatabase(), Table.RANGE);
+        if (metrics != null) {
+            metrics.record(RussvyMetrics.Method.GET_RANGE_COUNT, startTime, count, 1);
+        }
+        return count;
     }
 
     /** Returns total amount of operators in database. */
+    @Override
     public long getOperatorCount() {
         return RussvyDatabaseHelper.getRecordCount(getReadableDatabase(), Table.OPERATOR);
     }
 
     /** Returns total amount of regions in database. */
+    @Override
     public long getRegionCount() {
         return RussvyDatabaseHelper.getRecordCount(getReadableDatabase(), Table.REGION);
     }
@@ -195,9 +382,213 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
     /**
      * Returns all ranges for the selected region code.
      * Cursor data does not contain region code column.
+     * Reading lots of ranges is faster with {@link #getRanges(int, int, RussvyRangeBlock)}.
      */
     public Cursor getRanges(int regionCode) {
-        return RussvyDatabaseHelper.getRegionRanges(getReadableDatabase(), regionCode);
+        final RussvyMetrics metrics = mMetrics;
+        if (metrics == null) {
+            return RussvyDatabaseHelper.getRegionRanges(getReadableDatabase(), regionCode);
+        }
+        final long startTime = System.nanoTime();
+        final Cursor cursor = RussvyDatabaseHelper.getRegionRanges(getReadableDatabase(),
+                regionCode);
+        // Count runs the query, the caller would do it anyway
+        final int count = cursor != null ? cursor.getCount() : 0;
+        metrics.record(RussvyMetrics.Method.GET_RANGES, startTime, count, count);
+        return cursor;
+    }
+
+    /**
+     * Starts counting calls of the query methods, see {@link RussvyMetrics}.
+     * @param metrics counters to update or null to stop counting.
+     */
+    public void setMetrics(@Nullable RussvyMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Sets filter used by {@link #lookup(long)} to reject unallocated numbers before querying
+     * the database. Filter must be built from the same data which is stored in the database.
+     * @param filter filter or null to query database for every number.
+     */
+    public void setNumberFilter(@Nullable RussvyNumberFilter filter) {
+        mNumberFilter = filter;
+    }
+
+    /**
+     * Sets ported numbers consulted by {@link #lookup(long)}.
+     * Overlay must use the same operator ids as the database.
+     * @param overlay ported numbers or null to use range operators only.
+     */
+    @Override
+    public void setPortingOverlay(@Nullable RussvyPortingOverlay overlay) {
+        mPortingOverlay = overlay;
+    }
+
+    /**
+     * Finds range which the phone number belongs to.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return range or null if the number is not allocated to any operator.
+     */
+    @Nullable
+    @Override
+    public RussvyLookupResult lookup(long number) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, result) ? result : null;
+    }
+
+    /**
+     * Finds range which the phone number belongs to, see {@link #lookup(long)}.
+     * Numbers rejected by the filter allocate nothing, others still need a database query.
+     * @param out result to fill, left as is if the number is not found.
+     * @return false if the number is not allocated to any operator.
+     */
+    @Override
+    public boolean lookup(long number, @NonNull RussvyLookupResult out) {
+        final RussvyMetrics metrics = mMetrics;
+        final long startTime = metrics != null ? System.nanoTime() : 0;
+        final RussvyNumberFilter filter = mNumberFilter;
+        if (filter != null ? !filter.mayContain(number)
+                : number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            final boolean found = getOverrides().apply(number, out, false);
+            if (metrics != null) {
+                metrics.recordFilterRejects(RussvyMetrics.Method.LOOKUP, filter != null ? 1 : 0);
+                metrics.record(RussvyMetrics.Method.LOOKUP, startTime, 0, found ? 1 : 0);
+            }
+            return found;
+        }
+        final RussvyPortingOverlay overlay = mPortingOverlay;
+        final int portedOperatorId = overlay != null ? overlay.getOperatorId(number) : -1;
+        final Cursor cursor = RussvyDatabaseHelper.getClosestRange(getReadableDatabase(), number);
+        boolean found = false;
+        int rowCount = 0;
+        if (cursor != null && cursor.moveToFirst()) {
+            rowCount = 1;
+            // Ranges never cross code boundaries, so the code is the same as number's one
+            if (number <= cursor.getLong(1)) {
+                fillResult(cursor, portedOperatorId, out);
+                found = true;
+            }
+        }
+        RussvyUtils.closeCursor(cursor);
+        found = getOverrides().apply(number, out, found);
+        if (metrics != null) {
+            metrics.record(RussvyMetrics.Method.LOOKUP, startTime, rowCount, found ? 1 : 0);
+        }
+        return found;
+    }
+
+    /**
+     * Finds ranges of several phone numbers at once.
+     * Numbers are grouped by code and ranges of each group are read with a single query, which
+     * is much cheaper than calling {@link #lookup(long)} for every number.
+     * @param numbers ten digit phone numbers without country prefix, may contain duplicates.
+     * @return array of the same length as numbers, with ranges of numbers at the same positions
+     *         (null for numbers which are not allocated to any operator).
+     */
+    @NonNull
+    @Override
+    public RussvyLookupResult[] lookup(@NonNull long[] numbers) {
+        final RussvyMetrics metrics = mMetrics;
+        final long startTime = metrics != null ? System.nanoTime() : 0;
+        final RussvyNumberFilter filter = mNumberFilter;
+        final RussvyPortingOverlay overlay = mPortingOverlay;
+        // Distinct numbers worth looking up, sorted
+        long[] keys = new long[numbers.length];
+        int keyCount = 0;
+        int rejectCount = 0;
+        for (long number : numbers) {
+            if (filter != null ? filter.mayContain(number)
+                    : number >= 0 && number < RussvyUtils.MAX_NUMBER) {
+                keys[keyCount++] = number;
+            } else if (filter != null) {
+                rejectCount++;
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+        int distinctCount = 0;
+        for (int i = 0; i < keyCount; i++) {
+            if (distinctCount == 0 || keys[distinctCount - 1] != keys[i]) {
+                keys[distinctCount++] = keys[i];
+            }
+        }
+        keys = Arrays.copyOf(keys, distinctCount);
+
+        final RussvyLookupResult[] keyResults = new RussvyLookupResult[keys.length];
+        final SQLiteDatabase db = keys.length > 0 ? getReadableDatabase() : null;
+        long rowCount = 0;
+        int groupStart = 0;
+        while (groupStart < keys.length) {
+            final int code = RussvyUtils.getCode(keys[groupStart]);
+            int groupEnd = groupStart;
+            while (groupEnd < keys.length && RussvyUtils.getCode(keys[groupEnd]) == code) {
+                groupEnd++;
+            }
+            final Cursor cursor = RussvyDatabaseHelper.getCoveringRanges(db, keys[groupStart],
+                    keys[groupEnd - 1]);
+            int k = groupStart;
+            while (cursor != null && k < groupEnd && cursor.moveToNext()) {
+                rowCount++;
+                final long first = cursor.getLong(0);
+                final long last = cursor.getLong(1);
+                while (k < groupEnd && keys[k] < first) {
+                    k++;
+                }
+                for (; k < groupEnd && keys[k] <= last; k++) {
+                    keyResults[k] = new RussvyLookupResult();
+                    fillResult(cursor, overlay != null ? overlay.getOperatorId(keys[k]) : -1,
+                            keyResults[k]);
+                }
+            }
+            RussvyUtils.closeCursor(cursor);
+            groupStart = groupEnd;
+        }
+
+        final RussvyOverrides overrides = getOverrides();
+        final RussvyLookupResult[] results = new RussvyLookupResult[numbers.length];
+        int foundCount = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            final int k = Arrays.binarySearch(keys, numbers[i]);
+            results[i] = overrides.apply(numbers[i], k >= 0 ? keyResults[k] : null);
+            if (results[i] != null) {
+                foundCount++;
+            }
+        }
+        if (metrics != null) {
+            metrics.recordFilterRejects(RussvyMetrics.Method.LOOKUP_BATCH, rejectCount);
+            metrics.record(RussvyMetrics.Method.LOOKUP_BATCH, startTime, rowCount, foundCount);
+        }
+        return results;
+    }
+
+    /**
+     * Fills block with ranges of the code, sorted by range start.
+     * Unlike {@link #getRanges(int)} ranges are read into primitive arrays which can be reused,
+     * see {@link RussvyRangeBlock} for paging through codes with lots of ranges.
+     * @param regionCode code, e.g. 921.
+     * @param fromStart only ranges starting at this number or after it are returned.
+     * @param block block to fill, previous content is discarded.
+     * @return count of ranges in the block.
+     */
+    @Override
+    public int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block) {
+        final RussvyMetrics metrics = mMetrics;
+        final long startTime = metrics != null ? System.nanoTime() : 0;
+        block.reset(regionCode);
+        final Cursor cursor = RussvyDatabaseHelper.getRegionRangesPage(getReadableDatabase(),
+                regionCode, fromStart, block.capacity());
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                block.add(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2), cursor.getInt(3));
+            }
+        }
+        RussvyUtils.closeCursor(cursor);
+        if (metrics != null) {
+            // Page query reads no more rows than it returns
+            metrics.record(RussvyMetrics.Method.GET_RANGES, startTime, block.size(),
+                    block.size());
+        }
+        return block.size();
     }
 
     /**
@@ -207,6 +598,7 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
      * @return operator name or null if there is no operator with the id specified
      */
     @Nullable
+    @Override
     public String getOperatorName(int id) {
         return getNameFromTable(Table.OPERATOR, id);
     }
@@ -218,36 +610,435 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
      * @return region name or null if there is no region with the id specified.
      */
     @Nullable
+    @Override
     public String getRegionName(int id) {
         return getNameFromTable(Table.REGION, id);
     }
 
+    /**
+     * Remembers which asset the data was imported from.
+     * Should be called after the import is complete, {@link #clear()} forgets it.
+     */
+    boolean setImportedHeader(@NonNull RussvyAssetHeader header, long codeSelection) {
+        SQLiteDatabase db = null;
+        try {
+            db = getWritableDatabase();
+            db.beginTransaction();
+            final SQLiteStatement statement =
+                    db.compileStatement(RussvyDatabaseHelper.SQL_INSERT_META);
+            RussvyDatabaseHelper.setMetaValue(statement,
+                    RussvyDatabaseHelper.META_FORMAT_VERSION, header.formatVersion);
+            RussvyDatabaseHelper.setMetaValue(statement,
+                    RussvyDatabaseHelper.META_DATA_DATE, header.dataDate);
+            RussvyDatabaseHelper.setMetaValue(statement,
+                    RussvyDatabaseHelper.META_RANGE_COUNT, header.recordCount);
+            RussvyDatabaseHelper.setMetaValue(statement,
+                    RussvyDatabaseHelper.META_CHECKSUM, header.checksum);
+            RussvyDatabaseHelper.setMetaValue(statement,
+                    RussvyDatabaseHelper.META_CODE_SELECTION, codeSelection);
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            return false;
+        } finally {
+            if (db != null) {
+                db.endTransaction();
+            }
+        }
+        return true;
+    }
+
+    /** Returns header of the asset the data was imported from or null if there is none. */
+    @Nullable
+    RussvyAssetHeader getImportedHeader() {
+        final SQLiteDatabase db = getReadableDatabase();
+        final long formatVersion = RussvyDatabaseHelper.getMetaValue(db,
+                RussvyDatabaseHelper.META_FORMAT_VERSION, -1);
+        if (formatVersion < 0) {
+            return null;
+        }
+        return new RussvyAssetHeader((int) formatVersion,
+                (int) RussvyDatabaseHelper.getMetaValue(db, RussvyDatabaseHelper.META_DATA_DATE, 0),
+                (int) RussvyDatabaseHelper.getMetaValue(db,
+                        RussvyDatabaseHelper.META_RANGE_COUNT, 0),
+                RussvyDatabaseHelper.getMetaValue(db, RussvyDatabaseHelper.META_CHECKSUM, 0));
+    }
+
+    /** Returns fingerprint of the imported codes, see {@link #setImportedHeader}. */
+    long getImportedCodeSelection() {
+        return RussvyDatabaseHelper.getMetaValue(getReadableDatabase(),
+                RussvyDatabaseHelper.META_CODE_SELECTION, 0);
+    }
+
+    /**
+     * Returns date when the data stored in the database was published by Rossvyaz.
+     * @return date or null if no data was imported yet.
+     */
+    @Nullable
+    public Date getImportedDataAge() {
+        final RussvyAssetHeader header = getImportedHeader();
+        return header != null ? header.getDataAge() : null;
+    }
+
+    // Cursor columns: first number, last number, operator, region.
+    private void fillResult(@NonNull Cursor cursor, int portedOperatorId,
+                            @NonNull RussvyLookupResult out) {
+        final long first = cursor.getLong(0);
+        out.set(RussvyUtils.getCode(first), RussvyUtils.getLocalNumber(first),
+                (int) (cursor.getLong(1) - first + 1),
+                portedOperatorId >= 0 ? portedOperatorId : cursor.getInt(2),
+                cursor.getInt(3), portedOperatorId >= 0, this);
+    }
+
+    /**
+     * Returns labels set by the user for numbers or ranges, consulted by lookups.
+     * Reads them from the database on the first call.
+     */
+    @NonNull
+    public RussvyOverrides getOverrides() {
+        RussvyOverrides overrides = mOverrides;
+        if (overrides == null) {
+            synchronized (this) {
+                overrides = mOverrides;
+                if (overrides == null) {
+                    overrides = RussvyOverrides.load(this);
+                    mOverrides = overrides;
+                }
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * Writes pending edits of overrides, stops their background writer and closes the database.
+     * The manager can still be used, the database is opened again when needed.
+     */
+    @Override
+    public void close() {
+        // Not synchronized: the pending write may be waiting for the helper's monitor
+        final RussvyOverrides overrides = mOverrides;
+        if (overrides != null) {
+            overrides.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Finds operators by name, see {@link RussvyNameIndex#find(String)}.
+     * Search index is built on the first call.
+     * @param query part of the name, case insensitive, e.g. "мегафон".
+     * @return sorted ids of matching operators.
+     */
+    @NonNull
+    public int[] findOperators(@Nullable String query) {
+        RussvyNameIndex index = mOperatorIndex;
+        if (index == null) {
+            final int generation = getNameGeneration();
+            index = RussvyNameIndex.build(
+                    RussvyDatabaseHelper.getNameColumns(getReadableDatabase(), Table.OPERATOR));
+            synchronized (mNameCacheLock) {
+                if (generation == mNameGeneration) {
+                    mOperatorIndex = index;
+                }
+            }
+        }
+        return index.find(query);
+    }
+
+    /**
+     * Finds regions by name, see {@link RussvyNameIndex#find(String)}.
+     * Search index is built on the first call.
+     * @param query part of the name, case insensitive, e.g. "краснодар".
+     * @return sorted ids of matching regions.
+     */
+    @NonNull
+    public int[] findRegions(@Nullable String query) {
+        RussvyNameIndex index = mRegionIndex;
+        if (index == null) {
+            final int generation = getNameGeneration();
+            index = RussvyNameIndex.build(
+                    RussvyDatabaseHelper.getNameColumns(getReadableDatabase(), Table.REGION));
+            synchronized (mNameCacheLock) {
+                if (generation == mNameGeneration) {
+                    mRegionIndex = index;
+                }
+            }
+        }
+        return index.find(query);
+    }
+
+    /**
+     * Returns all ranges of the operator sorted by code and start.
+     * Cursor data contains region code column, use {@link RussvyNumberRange} to read it.
+     * @param id operator id, e.g. one of {@link #findOperators(String)}.
+     */
+    public Cursor getOperatorRanges(int id) {
+        ensureRangeIndexes();
+        return RussvyDatabaseHelper.getRangesById(getReadableDatabase(),
+                RussvyDatabaseHelper.COLUMN_OPERATOR, id);
+    }
+
+    /**
+     * Returns all ranges of the region sorted by code and start.
+     * Cursor data contains region code column, use {@link RussvyNumberRange} to read it.
+     * @param id region id, e.g. one of {@link #findRegions(String)}.
+     */
+    public Cursor getRegionRangesById(int id) {
+        ensureRangeIndexes();
+        return RussvyDatabaseHelper.getRangesById(getReadableDatabase(),
+                RussvyDatabaseHelper.COLUMN_REGION, id);
+    }
+
+    /**
+     * Does all the slow things which would otherwise be done by the first lookup: opens the
+     * database, compiles lookup statements, loads operator and region names into memory and
+     * reads range pages from storage. Makes the first real lookup (e.g. the one for an
+     * incoming call) as fast as the thousandth.
+     * Takes a while, call it on a background thread, e.g. with {@link #warmUpInBackground}.
+     * @return how long each step took.
+     */
+    @WorkerThread
+    @NonNull
+    public RussvyWarmUpReport warmUp() {
+        long time = System.nanoTime();
+        final SQLiteDatabase db = getReadableDatabase();
+        final long openMicros = elapsedMicros(time);
+
+        time = System.nanoTime();
+        // SQLite keeps compiled statements in per-connection cache keyed by SQL text
+        RussvyUtils.closeCursor(RussvyDatabaseHelper.getClosestRange(db, 0));
+        RussvyUtils.closeCursor(RussvyDatabaseHelper.getCoveringRanges(db, 0, 0));
+        final long prepareMicros = elapsedMicros(time);
+
+        time = System.nanoTime();
+        final int generation = getNameGeneration();
+        final String[] operatorNames = RussvyDatabaseHelper.getNameColumns(db, Table.OPERATOR);
+        final String[] regionNames = RussvyDatabaseHelper.getNameColumns(db, Table.REGION);
+        synchronized (mNameCacheLock) {
+            // Names read while an import was replacing them must not stay cached
+            if (generation == mNameGeneration) {
+                mOperatorNames = operatorNames;
+                mRegionNames = regionNames;
+            }
+        }
+        final long namesMicros = elapsedMicros(time);
+
+        time = System.nanoTime();
+        RussvyDatabaseHelper.touchRanges(db);
+        final long pagesMicros = elapsedMicros(time);
+
+        return new RussvyWarmUpReport(openMicros, prepareMicros, namesMicros, pagesMicros);
+    }
+
+    /**
+     * Builds indexes on operator and region of ranges, see {@link #getOperatorRanges(int)}.
+     * Ranges are inserted faster without indexes, so {@link #clearRanges()} drops them.
+     * {@link RussvyAssetReader} calls this after the import, call it after adding ranges with
+     * {@link #addRange(int, int, int, int, int)} directly. Otherwise the first query which needs
+     * them builds them.
+     * @return true if indexes are there.
+     */
+    @WorkerThread
+    public boolean createIndexes() {
+        try {
+            createRangeIndexes(getWritableDatabase());
+            return true;
+        } catch (SQLiteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes the database small and fast after the import: builds indexes (see
+     * {@link #createIndexes()}), collects statistics for the query planner (ANALYZE) and
+     * rebuilds the file without free pages and fragmentation (VACUUM).
+     * Takes seconds and needs free storage for a copy of the database, so it should be done
+     * once after the import, in the background. See also
+     * {@link RussvyAssetReader#setCompaction(boolean, int)}.
+     * Not done during the bulk load (see {@link #beginBulkLoad()}): VACUUM rewrites every page,
+     * user overrides included, and a crash without a journal could break them.
+     * @param pageSize new page size in bytes, power of two from 512 to 65536, or 0 to keep the
+     *                 current one. Can not be changed in write-ahead logging mode.
+     * @return report or null if something went wrong.
+     */
+    @Nullable
+    @WorkerThread
+    public RussvyCompactionReport compact(int pageSize) {
+        if (mSavedJournalMode != null) {
+            Log.e(TAG, "Database can not be compacted during bulk load.");
+            return null;
+        }
+        try {
+            final SQLiteDatabase db = getWritableDatabase();
+            final File file = new File(db.getPath());
+            final long initialSize = file.length();
+
+            long startNanos = System.nanoTime();
+            createRangeIndexes(db);
+            final long indexMicros = elapsedMicros(startNanos);
+            final long indexedSize = file.length();
+
+            startNanos = System.nanoTime();
+            db.execSQL(RussvyDatabaseHelper.SQL_ANALYZE);
+            final long analyzeMicros = elapsedMicros(startNanos);
+
+            startNanos = System.nanoTime();
+            if (pageSize > 0) {
+                // Takes effect when the file is rebuilt
+                db.setPageSize(pageSize);
+            }
+            db.execSQL(RussvyDatabaseHelper.SQL_VACUUM);
+            final long vacuumMicros = elapsedMicros(startNanos);
+
+            return new RussvyCompactionReport(initialSize, indexMicros, indexedSize,
+                    analyzeMicros, vacuumMicros, file.length(), db.getPageSize());
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Compaction failed.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Starts background thread which calls {@link #warmUp()}.
+     * @param listener object which will be notified when warm-up is complete.
+     */
+    public void warmUpInBackground(@Nullable final WarmUpListener listener) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final RussvyWarmUpReport report = warmUp();
+                if (listener != null) {
+                    listener.onWarmUpComplete(report);
+                }
+            }
+        }, "RussvyWarmUp").start();
+    }
+
     /** Called automatically when opening database after a clean install/data wipe. */
     @Override
     public void onCreate(SQLiteDatabase db) {
         createTables(db);
     }
 
+    /** Returns true between {@link #beginBulkLoad()} and {@link #endBulkLoad(boolean)}. */
+    boolean isBulkLoading() {
+        return mSavedJournalMode != null;
+    }
+
+    private static void enableWriteAheadLogging(@NonNull SQLiteDatabase db) {
+        if (!db.enableWriteAheadLogging()) {
+            Log.e(TAG, "Write-ahead logging can not be enabled again.");
+        }
+    }
+
+    /** Removes data left by bulk load which was interrupted, see {@link #beginBulkLoad()}. */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        final File marker = getBulkLoadMarker(db);
+        if (db.isReadOnly() || !marker.exists()) {
+            return;
+        }
+        Log.e(TAG, "Previous import was interrupted, removing its data.");
+        for (Table table : Table.values()) {
+            if (!clearTable(db, table)) {
+                return;
+            }
+        }
+        if (!marker.delete()) {
+            Log.e(TAG, "Bulk load marker can not be removed.");
+        }
+    }
+
     /** Called automatically when opening database of version older than {@link #DB_VERSION}. */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Intentionally blank. Add code here when database scheme changes in the future.
+        // Runs inside a transaction, so a failed migration leaves the old database untouched.
+        if (oldVersion < 2) {
+            for (String sql : RussvyDatabaseHelper.SQL_MIGRATE_RANGE_V1) {
+                db.execSQL(sql);
+            }
+        }
+        if (oldVersion < 3) {
+            createRangeIndexes(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_OVERRIDE);
+        }
     }
 
     private void createTables(SQLiteDatabase db) {
         db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_REGION);
         db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_OPERATOR);
         db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_RANGE);
+        db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_META);
+        db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_OVERRIDE);
+        createRangeIndexes(db);
+    }
+
+    private void createRangeIndexes(SQLiteDatabase db) {
+        db.execSQL(RussvyDatabaseHelper.SQL_CREATE_INDEX_RANGE_OPERATOR);
+        db.execSQL(RussvyDatabaseHelper.SQL_CREATE_INDEX_RANGE_REGION);
+        mRangeIndexesCreated = true;
+    }
+
+    /** Builds range indexes if they may be missing, queries by id would scan the table. */
+    private void ensureRangeIndexes() {
+        if (!mRangeIndexesCreated && !createIndexes()) {
+            Log.e(TAG, "Indexes can not be created.");
+        }
+    }
+
+    private static long elapsedMicros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    /**
+     * Forgets cached names of the table. Called both before and after the names change, so
+     * caches built from names read in between are not published.
+     */
+    private void dropNameCache(Table table) {
+        synchronized (mNameCacheLock) {
+            if (table == Table.OPERATOR) {
+                mOperatorNames = null;
+                mOperatorIndex = null;
+            } else if (table == Table.REGION) {
+                mRegionNames = null;
+                mRegionIndex = null;
+            } else {
+                return;
+            }
+            mNameGeneration++;
+        }
+    }
+
+    private int getNameGeneration() {
+        synchronized (mNameCacheLock) {
+            return mNameGeneration;
+        }
+    }
+
+    @NonNull
+    private static File getBulkLoadMarker(@NonNull SQLiteDatabase db) {
+        return new File(db.getPath() + BULK_LOAD_MARKER_SUFFIX);
     }
 
     private boolean clearTable(Table table) {
-        SQLiteDatabase db = null;
         try {
-            db = getWritableDatabase();
+            return clearTable(getWritableDatabase(), table);
+        } catch (SQLiteException e) {
+            return false;
+        }
+    }
+
+    private boolean clearTable(@NonNull SQLiteDatabase db, Table table) {
+        dropNameCache(table);
+        try {
             db.beginTransaction();
             db.execSQL(String.format(RussvyDatabaseHelper.SQL_FORMAT_DROP_TABLE, table.name));
             switch (table) {
                 case RANGE:
+                    // Indexes are built after the import, see createIndexes()
+                    mRangeIndexesCreated = false;
                     db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_RANGE);
                     break;
                 case OPERATOR:
@@ -256,21 +1047,39 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
                 case REGION:
                     db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_REGION);
                     break;
+                case META:
+                    db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_META);
+                    break;
             }
             db.setTransactionSuccessful();
         } catch (SQLiteException e) {
             return false;
         } finally {
-            if (db != null) {
-                db.endTransaction();
-            }
+            db.endTransaction();
+            dropNameCache(table);
         }
         return true;
     }
 
     @Nullable
     private String getNameFromTable(@NonNull Table table, int id) {
-        return RussvyDatabaseHelper.getNameColumn(getReadableDatabase(), table, id);
+        final RussvyMetrics metrics = mMetrics;
+        final long startTime = metrics != null ? System.nanoTime() : 0;
+        final String[] names = table == Table.OPERATOR ? mOperatorNames : mRegionNames;
+        final String name;
+        if (names != null) {
+            name = id >= 0 && id < names.length ? names[id] : null;
+        } else {
+            name = RussvyDatabaseHelper.getNameColumn(getReadableDatabase(), table, id);
+        }
+        if (metrics != null) {
+            final RussvyMetrics.Method method = table == Table.OPERATOR
+                    ? RussvyMetrics.Method.GET_OPERATOR_NAME : RussvyMetrics.Method.GET_REGION_NAME;
+            metrics.recordCache(method, names != null);
+            metrics.record(method, startTime, names != null || name == null ? 0 : 1,
+                    name != null ? 1 : 0);
+        }
+        return name;
     }
 
     // Map (instead of SparseArray) is used since we expect thousands of names
@@ -278,6 +1087,7 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
         if (!table.equals(Table.OPERATOR) && !table.equals(Table.REGION)) {
             return false;
         }
+        dropNameCache(table);
         SQLiteDatabase db = null;
         try {
             db = getWritableDatabase();
@@ -296,6 +1106,7 @@ public class RussvyDatabaseManager extends SQLiteOpenHelper {
             if (db != null) {
                 db.endTransaction();
             }
+            dropNameCache(table);
         }
         return true;
     }
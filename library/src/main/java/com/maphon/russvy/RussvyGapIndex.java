@@ -0,0 +1,172 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Unallocated blocks (gaps): numbers which do not belong to any range, for every code.
+ * Computed by the converter, so nothing has to be derived from the ranges at run time.
+ * Layout of the "gaps" asset (big endian):
+ * - int: magic, "RSVG"
+ * - short: format version
+ * - int: date when the data was published by Rossvyaz, yyyyMMdd
+ * - int: count of gaps
+ * - long: CRC32 of everything that follows the header
+ * - {@link RussvyAssetDirectory} of the gaps, every code of the data is in it (all codes
+ *   unless the converter was limited to some of them)
+ * - for each gap, sorted by code and start:
+ *   - int: gap start (without code)
+ *   - int: gap capacity
+ * Gaps of a code never overlap or touch each other. Codes without ranges are one gap.
+ * Index is immutable and thread safe, a few hundred kilobytes of Java heap.
+ */
+public final class RussvyGapIndex {
+    private static final String TAG = "Russvy";
+
+    private static final int MAGIC = 0x52535647;
+    private static final int FORMAT_VERSION = 1;
+
+    @NonNull
+    private final RussvyAssetDirectory mDirectory;
+    @NonNull
+    private final int[] mStarts;
+    @NonNull
+    private final int[] mCapacities;
+
+    private RussvyGapIndex(@NonNull RussvyAssetDirectory directory, @NonNull int[] starts,
+                           @NonNull int[] capacities) {
+        mDirectory = directory;
+        mStarts = starts;
+        mCapacities = capacities;
+    }
+
+    /**
+     * Reads gaps shipped in assets.
+     * @param path path in asset directory the the Rossvyaz data files.
+     * @return index or null if there is no such asset or it can not be read.
+     */
+    @Nullable
+    public static RussvyGapIndex open(@NonNull Context context, @Nullable String path) {
+        return read(RussvyDataSource.assets(context, path));
+    }
+
+    @Nullable
+    static RussvyGapIndex read(@NonNull RussvyDataSource source) {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(
+                    source.open(RussvyDataSource.GAPS_FILE)));
+            if (is.readInt() != MAGIC || is.readShort() != FORMAT_VERSION) {
+                Log.e(TAG, "Gaps are corrupted.");
+                return null;
+            }
+            // Date
+            is.readInt();
+            final int count = is.readInt();
+            final long checksum = is.readLong();
+            final CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+            final DataInputStream cs = new DataInputStream(checked);
+            final RussvyAssetDirectory directory = RussvyAssetDirectory.read(cs, count);
+            final int[] starts = new int[count];
+            final int[] capacities = new int[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = cs.readInt();
+                capacities[i] = cs.readInt();
+            }
+            if (checked.getChecksum().getValue() != checksum) {
+                Log.e(TAG, "Gaps checksum mismatch.");
+                return null;
+            }
+            return new RussvyGapIndex(directory, starts, capacities);
+        } catch (IOException e) {
+            Log.e(TAG, "Gaps not found or corrupted.");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+    }
+
+    /**
+     * Checks whether the number is not allocated to any operator.
+     * Always false for codes which are not in the data.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     */
+    public boolean isInGap(long number) {
+        if (number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            return false;
+        }
+        final int code = RussvyUtils.getCode(number);
+        final int localNumber = RussvyUtils.getLocalNumber(number);
+        final int first = getFirstGap(code);
+        // Last gap starting at or before the number
+        int low = first;
+        int high = first + mDirectory.getRecordCount(code) - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mStarts[middle] <= localNumber) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found >= 0 && localNumber - mStarts[found] < mCapacities[found];
+    }
+
+    /** Returns count of gaps in the code, e.g. 921. */
+    public int getGapCount(int code) {
+        return mDirectory.getRecordCount(code);
+    }
+
+    /** Returns count of numbers of the code which are not allocated to any operator. */
+    public long getFreeNumberCount(int code) {
+        final int first = getFirstGap(code);
+        long count = 0;
+        for (int i = first; i < first + mDirectory.getRecordCount(code); i++) {
+            count += mCapacities[i];
+        }
+        return count;
+    }
+
+    /**
+     * Fills block with gaps of the code, sorted by start. Operator and region ids are -1.
+     * See {@link RussvyRangeBlock} for paging through codes with lots of gaps.
+     * @param code code, e.g. 921.
+     * @param fromStart only gaps starting at this number or after it are returned.
+     * @param block block to fill, previous content is discarded.
+     * @return count of gaps in the block.
+     */
+    public int getGaps(int code, int fromStart, @NonNull RussvyRangeBlock block) {
+        block.reset(code);
+        final int first = getFirstGap(code);
+        final int end = first + mDirectory.getRecordCount(code);
+        // First gap starting at or after fromStart
+        int low = first;
+        int high = end;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (mStarts[middle] < fromStart) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < end && !block.isFull(); i++) {
+            block.add(mStarts[i], mCapacities[i], -1, -1);
+        }
+        return block.size();
+    }
+
+    private int getFirstGap(int code) {
+        return mDirectory.contains(code) ? mDirectory.getFirstRecord(code) : 0;
+    }
+}
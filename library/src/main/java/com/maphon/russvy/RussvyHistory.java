@@ -0,0 +1,359 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Ranges of several Rossvyaz releases, for resolving numbers as of a past date (e.g. the date of
+ * a call). Built by the converter (HistoryConverter) into the "history" asset, see its layout
+ * there. Every range version is stored once with the releases it was valid in, so a range which
+ * did not change takes one record for all releases. Release is valid from its date until the
+ * date of the next one, the last release stays valid. Release dates are days of Rossvyaz, so a
+ * release starts at midnight Moscow time ({@link #RELEASE_TIME_ZONE}), whatever the default
+ * time zone of the device is.
+ * Lookups without a date ({@link RussvyLookupSource} methods) use the last release and the
+ * porting overlay, dated ones use the release of the date and no overlay: ported numbers are
+ * known for today only. Operator ids are the ids of the "operators" asset the history was built
+ * with, the ported asset of the same build matches them.
+ * Whole history is held in the Java heap, about 20 bytes per range version. Immutable once
+ * read, thread safe.
+ */
+public final class RussvyHistory implements RussvyLookupSource, RussvyNameSource {
+    private static final String TAG = "Russvy";
+
+    private static final int MAGIC = 0x52535648;
+    private static final int FORMAT_VERSION = 1;
+
+    /** Time zone of the release dates. */
+    public static final String RELEASE_TIME_ZONE = "Europe/Moscow";
+
+    /** Release dates, yyyyMMdd, ascending. */
+    @NonNull
+    private final int[] mReleaseDates;
+    /** Starts of the releases, milliseconds since the epoch, ascending. */
+    @NonNull
+    private final long[] mReleaseTimes;
+    @NonNull
+    private final RussvyAssetDirectory mDirectory;
+    @NonNull
+    private final int[] mStarts;
+    @NonNull
+    private final int[] mCapacities;
+    @NonNull
+    private final short[] mOperators;
+    @NonNull
+    private final short[] mRegions;
+    /** First release the record is valid in. */
+    @NonNull
+    private final short[] mFrom;
+    /** Release the record is not valid in anymore, count of releases if it still is. */
+    @NonNull
+    private final short[] mTo;
+    /**
+     * Largest end (start + capacity) of the records of the code up to this one. Records of
+     * different releases overlap, this tells when to stop looking at the earlier ones.
+     */
+    @NonNull
+    private final int[] mMaxEnds;
+    /** Set once the records are read. */
+    @NonNull
+    private String[] mOperatorNames = new String[0];
+    @NonNull
+    private String[] mRegionNames = new String[0];
+    private int mLatestRangeCount;
+
+    @Nullable
+    private volatile RussvyPortingOverlay mPortingOverlay;
+
+    private RussvyHistory(@NonNull int[] releaseDates, @NonNull RussvyAssetDirectory directory,
+                          int recordCount) {
+        mReleaseDates = releaseDates;
+        mReleaseTimes = new long[releaseDates.length];
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(RELEASE_TIME_ZONE));
+        for (int i = 0; i < releaseDates.length; i++) {
+            calendar.clear();
+            calendar.set(releaseDates[i] / 10000, releaseDates[i] / 100 % 100 - 1,
+                    releaseDates[i] % 100);
+            mReleaseTimes[i] = calendar.getTimeInMillis();
+        }
+        mDirectory = directory;
+        mStarts = new int[recordCount];
+        mCapacities = new int[recordCount];
+        mOperators = new short[recordCount];
+        mRegions = new short[recordCount];
+        mFrom = new short[recordCount];
+        mTo = new short[recordCount];
+        mMaxEnds = new int[recordCount];
+    }
+
+    /**
+     * Reads history shipped in assets.
+     * @param path path in asset directory the the Rossvyaz data files.
+     * @return history or null if there is no such asset or it can not be read.
+     */
+    @Nullable
+    public static RussvyHistory open(@NonNull Context context, @Nullable String path) {
+        return read(RussvyDataSource.assets(context, path));
+    }
+
+    @Nullable
+    static RussvyHistory read(@NonNull RussvyDataSource source) {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(
+                    source.open(RussvyDataSource.HISTORY_FILE)));
+            if (is.readInt() != MAGIC || is.readShort() != FORMAT_VERSION) {
+                Log.e(TAG, "History is corrupted.");
+                return null;
+            }
+            final int[] releaseDates = new int[is.readShort()];
+            for (int i = 0; i < releaseDates.length; i++) {
+                releaseDates[i] = is.readInt();
+            }
+            final int count = is.readInt();
+            final long checksum = is.readLong();
+            final CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+            final DataInputStream cs = new DataInputStream(checked);
+            final RussvyHistory history = new RussvyHistory(releaseDates,
+                    RussvyAssetDirectory.read(cs, count), count);
+            int code = -1;
+            for (int i = 0; i < count; i++) {
+                final int recordCode = cs.readShort();
+                history.mStarts[i] = cs.readInt();
+                history.mCapacities[i] = cs.readInt();
+                history.mOperators[i] = cs.readShort();
+                history.mRegions[i] = cs.readShort();
+                history.mFrom[i] = cs.readShort();
+                history.mTo[i] = cs.readShort();
+                final int end = history.mStarts[i] + history.mCapacities[i];
+                history.mMaxEnds[i] = recordCode == code ? Math.max(history.mMaxEnds[i - 1], end)
+                        : end;
+                code = recordCode;
+                if (history.mTo[i] == releaseDates.length) {
+                    history.mLatestRangeCount++;
+                }
+            }
+            history.mOperatorNames = readNames(cs);
+            history.mRegionNames = readNames(cs);
+            if (checked.getChecksum().getValue() != checksum) {
+                Log.e(TAG, "History checksum mismatch.");
+                return null;
+            }
+            return history;
+        } catch (IOException e) {
+            Log.e(TAG, "History not found or corrupted.");
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "History does not fit into memory.");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+    }
+
+    /** Returns count of releases in the history. */
+    public int getReleaseCount() {
+        return mReleaseDates.length;
+    }
+
+    /**
+     * Returns start of the day when the release was published by Rossvyaz, in
+     * {@link #RELEASE_TIME_ZONE}. Releases are oldest first.
+     * @return date or null if there is no such release.
+     */
+    @Nullable
+    public Date getReleaseDate(int release) {
+        if (release < 0 || release >= mReleaseTimes.length) {
+            return null;
+        }
+        return new Date(mReleaseTimes[release]);
+    }
+
+    /**
+     * Returns release which was valid at the date, see {@link #RELEASE_TIME_ZONE}.
+     * @return release or -1 if the date is older than the first release.
+     */
+    public int getRelease(@NonNull Date date) {
+        final long time = date.getTime();
+        // Last release starting at or before the time
+        int low = 0;
+        int high = mReleaseTimes.length - 1;
+        int release = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mReleaseTimes[middle] <= time) {
+                release = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return release;
+    }
+
+    /**
+     * Finds range which the phone number belonged to at the date.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return range or null if the number was not allocated to any operator then (or the date
+     *         is older than the history).
+     */
+    @Nullable
+    public RussvyLookupResult lookup(long number, @NonNull Date date) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, date, result) ? result : null;
+    }
+
+    /**
+     * Finds range which the phone number belonged to at the date, see
+     * {@link #lookup(long, Date)}.
+     * @param out result to fill, left as is if the number is not found.
+     * @return false if the number was not allocated to any operator then.
+     */
+    public boolean lookup(long number, @NonNull Date date, @NonNull RussvyLookupResult out) {
+        final int release = getRelease(date);
+        return release >= 0 && lookup(number, release, null, out);
+    }
+
+    @Override
+    public void setPortingOverlay(@Nullable RussvyPortingOverlay overlay) {
+        mPortingOverlay = overlay;
+    }
+
+    /** Finds range of the number in the last release. */
+    @Nullable
+    @Override
+    public RussvyLookupResult lookup(long number) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, result) ? result : null;
+    }
+
+    @Override
+    public boolean lookup(long number, @NonNull RussvyLookupResult out) {
+        return lookup(number, mReleaseDates.length - 1, mPortingOverlay, out);
+    }
+
+    @NonNull
+    @Override
+    public RussvyLookupResult[] lookup(@NonNull long[] numbers) {
+        final RussvyLookupResult[] results = new RussvyLookupResult[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            results[i] = lookup(numbers[i]);
+        }
+        return results;
+    }
+
+    /** Fills block with ranges of the code in the last release. */
+    @Override
+    public int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block) {
+        block.reset(regionCode);
+        final int first = getFirstRecord(regionCode);
+        final int end = first + mDirectory.getRecordCount(regionCode);
+        final int latest = mReleaseDates.length;
+        // First record starting at or after fromStart
+        int low = first;
+        int high = end;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (mStarts[middle] < fromStart) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < end && !block.isFull(); i++) {
+            if (mTo[i] == latest) {
+                block.add(mStarts[i], mCapacities[i], mOperators[i], mRegions[i]);
+            }
+        }
+        return block.size();
+    }
+
+    /** Returns count of ranges in the last release. */
+    @Override
+    public long getRangeCount() {
+        return mLatestRangeCount;
+    }
+
+    /** Returns count of operators of all releases. */
+    @Override
+    public long getOperatorCount() {
+        return mOperatorNames.length;
+    }
+
+    /** Returns count of regions of all releases. */
+    @Override
+    public long getRegionCount() {
+        return mRegionNames.length;
+    }
+
+    @Nullable
+    @Override
+    public String getOperatorName(int id) {
+        return id >= 0 && id < mOperatorNames.length ? mOperatorNames[id] : null;
+    }
+
+    @Nullable
+    @Override
+    public String getRegionName(int id) {
+        return id >= 0 && id < mRegionNames.length ? mRegionNames[id] : null;
+    }
+
+    private boolean lookup(long number, int release, @Nullable RussvyPortingOverlay overlay,
+                           @NonNull RussvyLookupResult out) {
+        if (release < 0 || number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            return false;
+        }
+        final int code = RussvyUtils.getCode(number);
+        final int localNumber = RussvyUtils.getLocalNumber(number);
+        final int first = getFirstRecord(code);
+        // Last record starting at or before the number
+        int low = first;
+        int high = first + mDirectory.getRecordCount(code) - 1;
+        int found = first - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mStarts[middle] <= localNumber) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // Earlier records may contain the number too, until none of them reaches it
+        for (int i = found; i >= first && mMaxEnds[i] > localNumber; i--) {
+            if (mFrom[i] <= release && release < mTo[i]
+                    && localNumber - mStarts[i] < mCapacities[i]) {
+                final int portedOperatorId = overlay != null ? overlay.getOperatorId(number) : -1;
+                out.set(code, mStarts[i], mCapacities[i],
+                        portedOperatorId >= 0 ? portedOperatorId : mOperators[i], mRegions[i],
+                        portedOperatorId >= 0, this);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getFirstRecord(int code) {
+        return mDirectory.contains(code) ? mDirectory.getFirstRecord(code) : 0;
+    }
+
+    @NonNull
+    private static String[] readNames(@NonNull DataInputStream is) throws IOException {
+        final String[] names = new String[is.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = is.readUTF();
+        }
+        return names;
+    }
+}
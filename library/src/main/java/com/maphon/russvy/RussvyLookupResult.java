@@ -0,0 +1,136 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Number range which a particular phone number belongs to.
+ * See {@link RussvyDatabaseManager#lookup(long)}.
+ * Results returned by lookups are never changed afterwards. Hot paths (call screening) can
+ * create one result and pass it to {@link RussvyLookupSource#lookup(long, RussvyLookupResult)}
+ * for every number instead, which allocates nothing when the data is in memory. Names are
+ * resolved only when asked for. Reused results are not thread safe.
+ */
+public final class RussvyLookupResult {
+    private int mCode;
+    private int mStart;
+    private int mCapacity;
+    private int mOperatorId;
+    private int mRegionId;
+    private boolean mPorted;
+    @Nullable
+    private String mLabel;
+    /** Source of the names. */
+    @Nullable
+    private RussvyNameSource mSource;
+
+    /**
+     * Creates empty result to be filled by
+     * {@link RussvyLookupSource#lookup(long, RussvyLookupResult)}.
+     */
+    public RussvyLookupResult() {
+        mOperatorId = -1;
+        mRegionId = -1;
+    }
+
+    /** Fills the result, label is removed. */
+    void set(int code, int start, int capacity, int operatorId, int regionId, boolean ported,
+             @Nullable RussvyNameSource source) {
+        mCode = code;
+        mStart = start;
+        mCapacity = capacity;
+        mOperatorId = operatorId;
+        mRegionId = regionId;
+        mPorted = ported;
+        mLabel = null;
+        mSource = source;
+    }
+
+    void setLabel(@Nullable String label) {
+        mLabel = label;
+    }
+
+    void setSource(@Nullable RussvyNameSource source) {
+        mSource = source;
+    }
+
+    /** Returns result with the same content which can be changed independently of this one. */
+    @NonNull
+    RussvyLookupResult copy() {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        result.set(mCode, mStart, mCapacity, mOperatorId, mRegionId, mPorted, mSource);
+        result.mLabel = mLabel;
+        return result;
+    }
+
+    /** Returns range code, e.g. 921. */
+    public int getCode() {
+        return mCode;
+    }
+
+    /** Returns first number of the range (without code). */
+    public int getStart() {
+        return mStart;
+    }
+
+    /** Returns last number of the range (without code). */
+    public int getEnd() {
+        return mStart + mCapacity - 1;
+    }
+
+    /** Returns count of numbers in the range. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns id of the operator serving the number, see
+     * {@link RussvyDatabaseManager#getOperatorName(int)}. For ported numbers it is not the one
+     * which owns the range. -1 for numbers which are only known from {@link RussvyOverrides}.
+     */
+    public int getOperatorId() {
+        return mOperatorId;
+    }
+
+    /**
+     * Returns id of the region, see {@link RussvyDatabaseManager#getRegionName(int)}.
+     * -1 for numbers which are only known from {@link RussvyOverrides}.
+     */
+    public int getRegionId() {
+        return mRegionId;
+    }
+
+    /**
+     * Returns name of the operator serving the number, taken from the source which found it.
+     * @return name or null if the operator is unknown.
+     */
+    @Nullable
+    public String getOperatorName() {
+        final RussvyNameSource source = mSource;
+        return source != null && mOperatorId >= 0 ? source.getOperatorName(mOperatorId) : null;
+    }
+
+    /**
+     * Returns name of the region, taken from the source which found the number.
+     * @return name or null if the region is unknown.
+     */
+    @Nullable
+    public String getRegionName() {
+        final RussvyNameSource source = mSource;
+        return source != null && mRegionId >= 0 ? source.getRegionName(mRegionId) : null;
+    }
+
+    /**
+     * Checks whether the number was ported to another operator.
+     * See {@link RussvyPortingOverlay}.
+     */
+    public boolean isPorted() {
+        return mPorted;
+    }
+
+    /** Returns label set by the user, see {@link RussvyOverrides}, or null if there is none. */
+    @Nullable
+    public String getLabel() {
+        return mLabel;
+    }
+}
@@ -0,0 +1,281 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous number lookups with request coalescing.
+ * Lookups requested from any thread are queued for a few milliseconds, identical numbers are
+ * merged and the whole batch is resolved with {@link RussvyDatabaseManager#lookup(long[])} on a
+ * dedicated thread. Lots of small concurrent lookups (list rows, notifications, call screening)
+ * turn into a few cheap batched ones. Every request gets a result of its own, even if its number
+ * was merged with others.
+ * Service is thread safe. Call {@link #shutdown()} when it is not needed anymore.
+ */
+public final class RussvyLookupService {
+    private static final String TAG = "Russvy";
+
+    /** Default time requests wait for other requests to join the batch. */
+    public static final long DEFAULT_DELAY_MS = 5;
+    /** Default maximal count of distinct numbers in batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /** Gets notified when the lookup is complete. Called on the service thread. */
+    public interface Callback {
+        /**
+         * @param number number which was looked up.
+         * @param result range of the number or null if the number is not allocated or the
+         *               lookup failed.
+         */
+        void onLookupComplete(long number, @Nullable RussvyLookupResult result);
+    }
+
+    @NonNull
+    private final RussvyDatabaseManager mManager;
+    private final long mDelayMs;
+    private final int mMaxBatchSize;
+    @NonNull
+    private final ScheduledExecutorService mExecutor;
+
+    private final Object mLock = new Object();
+    /** Requests waiting for the next batch, by number. Guarded by mLock. */
+    @NonNull
+    private Map<Long, PendingLookup> mPending = new HashMap<Long, PendingLookup>();
+    /** Guarded by mLock. */
+    private boolean mShutdown;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** Creates service with default delay and batch size. */
+    public RussvyLookupService(@NonNull RussvyDatabaseManager manager) {
+        this(manager, DEFAULT_DELAY_MS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates service.
+     * @param manager source of the data.
+     * @param delayMs time requests wait for other requests to join the batch.
+     * @param maxBatchSize count of distinct numbers after which the batch is resolved without
+     *                     waiting any longer.
+     */
+    public RussvyLookupService(@NonNull RussvyDatabaseManager manager, long delayMs,
+                               int maxBatchSize) {
+        mManager = manager;
+        mDelayMs = Math.max(0, delayMs);
+        mMaxBatchSize = Math.max(1, maxBatchSize);
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                final Thread thread = new Thread(r, "RussvyLookupService");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Requests lookup of the number, see {@link RussvyDatabaseManager#lookup(long)}.
+     * @return future result, null value means that the number is not allocated.
+     * @throws RejectedExecutionException if the service is shut down.
+     */
+    @NonNull
+    public Future<RussvyLookupResult> lookup(long number) {
+        return enqueue(number, null);
+    }
+
+    /**
+     * Requests lookup of the number, see {@link RussvyDatabaseManager#lookup(long)}.
+     * @param callback called on the service thread when the lookup is complete.
+     * @throws RejectedExecutionException if the service is shut down.
+     */
+    public void lookup(long number, @NonNull Callback callback) {
+        enqueue(number, callback);
+    }
+
+    /** Stops the service. Pending requests are still resolved, new ones are rejected. */
+    public void shutdown() {
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            mExecutor.execute(mFlush);
+            mExecutor.shutdown();
+        }
+    }
+
+    @NonNull
+    private Request enqueue(long number, @Nullable Callback callback) {
+        synchronized (mLock) {
+            // Checked before the lookup is queued, nothing would ever flush it
+            if (mShutdown) {
+                throw new RejectedExecutionException("Lookup service is shut down.");
+            }
+            final boolean first = mPending.isEmpty();
+            PendingLookup pending = mPending.get(number);
+            if (pending == null) {
+                pending = new PendingLookup(number);
+                mPending.put(number, pending);
+            }
+            final Request request = new Request(number, callback);
+            pending.requests.add(request);
+            // Scheduled under the lock, so shutdown() can not come in between
+            if (mPending.size() >= mMaxBatchSize) {
+                mExecutor.execute(mFlush);
+            } else if (first) {
+                mExecutor.schedule(mFlush, mDelayMs, TimeUnit.MILLISECONDS);
+            }
+            return request;
+        }
+    }
+
+    // Runs on the service thread.
+    private void flush() {
+        final Map<Long, PendingLookup> batch;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = mPending;
+            mPending = new HashMap<Long, PendingLookup>();
+        }
+        final PendingLookup[] lookups = batch.values().toArray(new PendingLookup[batch.size()]);
+        final long[] numbers = new long[lookups.length];
+        for (int i = 0; i < lookups.length; i++) {
+            numbers[i] = lookups[i].number;
+        }
+        RussvyLookupResult[] results = null;
+        RuntimeException error = null;
+        try {
+            results = mManager.lookup(numbers);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Batch lookup failed.", e);
+            error = e;
+        }
+        // Every lookup is done before any callback runs, a failing callback can not keep the
+        // others waiting
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i].complete(results != null ? results[i] : null, error);
+        }
+        for (PendingLookup lookup : lookups) {
+            lookup.notifyCallbacks();
+        }
+    }
+
+    /** Lookup shared by all requests of the same number in the batch. */
+    private static final class PendingLookup {
+        final long number;
+        /** Guarded by RussvyLookupService.mLock until the lookup leaves the pending map. */
+        final List<Request> requests = new ArrayList<Request>(1);
+
+        PendingLookup(long number) {
+            this.number = number;
+        }
+
+        /** Completes the requests, the first one gets the result and the others get copies. */
+        void complete(@Nullable RussvyLookupResult result, @Nullable RuntimeException error) {
+            for (int i = 0; i < requests.size(); i++) {
+                requests.get(i).complete(result != null && i > 0 ? result.copy() : result, error);
+            }
+        }
+
+        void notifyCallbacks() {
+            for (Request request : requests) {
+                request.notifyCallback();
+            }
+        }
+    }
+
+    /** Lookup requested by one caller. */
+    private static final class Request implements Future<RussvyLookupResult> {
+        private final long mNumber;
+        @Nullable
+        private final Callback mCallback;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        @Nullable
+        private volatile RussvyLookupResult mResult;
+        @Nullable
+        private volatile RuntimeException mError;
+
+        Request(long number, @Nullable Callback callback) {
+            mNumber = number;
+            mCallback = callback;
+        }
+
+        void complete(@Nullable RussvyLookupResult result, @Nullable RuntimeException error) {
+            mResult = result;
+            mError = error;
+            mDone.countDown();
+        }
+
+        void notifyCallback() {
+            if (mCallback == null) {
+                return;
+            }
+            try {
+                mCallback.onLookupComplete(mNumber, mResult);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Lookup callback failed.", e);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public RussvyLookupResult get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return getResult();
+        }
+
+        @Override
+        public RussvyLookupResult get(long timeout, @NonNull TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        @Nullable
+        private RussvyLookupResult getResult() throws ExecutionException {
+            final RuntimeException error = mError;
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return mResult;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Read access to the range data, regardless of where it is kept: {@link RussvyDatabaseManager}
+ * (SQLite), {@link RussvyRangeIndex} (Java heap) or a memory mapped asset. See
+ * {@link RussvyTieredLookup} which switches between them depending on available memory.
+ * All sources holding the same data return the same ranges. Labels of {@link RussvyOverrides}
+ * are applied by {@link RussvyDatabaseManager} and {@link RussvyTieredLookup} only, the other
+ * sources return Rossvyaz data as is.
+ */
+public interface RussvyLookupSource {
+    /**
+     * Finds range which the phone number belongs to.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return range or null if the number is not allocated to any operator.
+     */
+    @Nullable
+    RussvyLookupResult lookup(long number);
+
+    /**
+     * Finds range which the phone number belongs to and stores it in the result passed.
+     * Allocates nothing if the data is in memory, so the same result can be reused for every
+     * number.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @param out result to fill, left as is if the number is not found.
+     * @return false if the number is not allocated to any operator.
+     */
+    boolean lookup(long number, @NonNull RussvyLookupResult out);
+
+    /**
+     * Finds ranges of several phone numbers at once.
+     * @param numbers ten digit phone numbers without country prefix, may contain duplicates.
+     * @return array of the same length as numbers, with ranges of numbers at the same positions
+     *         (null for numbers which are not allocated to any operator).
+     */
+    @NonNull
+    RussvyLookupResult[] lookup(@NonNull long[] numbers);
+
+    /**
+     * Fills block with ranges of the code, sorted by range start.
+     * @param regionCode code, e.g. 921.
+     * @param fromStart only ranges starting at this number or after it are returned.
+     * @param block block to fill, previous content is discarded.
+     * @return count of ranges in the block.
+     */
+    int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block);
+
+    /** Returns total count of ranges. */
+    long getRangeCount();
+
+    /** Returns count of operators, ids of operators are below it. */
+    long getOperatorCount();
+
+    /** Returns count of regions, ids of regions are below it. */
+    long getRegionCount();
+
+    /** Returns name of the operator or null if there is no operator with the id specified. */
+    @Nullable
+    String getOperatorName(int id);
+
+    /** Returns name of the region or null if there is no region with the id specified. */
+    @Nullable
+    String getRegionName(int id);
+
+    /**
+     * Sets ported numbers consulted by lookups.
+     * @param overlay ported numbers or null to use range operators only.
+     */
+    void setPortingOverlay(@Nullable RussvyPortingOverlay overlay);
+}
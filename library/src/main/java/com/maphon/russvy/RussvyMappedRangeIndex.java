@@ -0,0 +1,180 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Range data served straight from the memory mapped "ranges" file.
+ * Records are binary searched in place, nothing but the header, directory and names is copied
+ * into the Java heap. Mapped pages are clean, so the system can drop them under memory pressure
+ * and read them again when they are needed. Slower than {@link RussvyRangeIndex}, much faster
+ * than the database. Thread safe.
+ */
+final class RussvyMappedRangeIndex implements RussvyLookupSource, RussvyNameSource {
+    private static final String TAG = "Russvy";
+
+    /** Header, directory and names of the data, ranges are never loaded from it. */
+    @NonNull
+    private final RussvyDataSnapshot mSnapshot;
+    @NonNull
+    private final ByteBuffer mBuffer;
+
+    @Nullable
+    private volatile RussvyPortingOverlay mPortingOverlay;
+
+    private RussvyMappedRangeIndex(@NonNull RussvyDataSnapshot snapshot,
+                                   @NonNull ByteBuffer buffer) {
+        mSnapshot = snapshot;
+        mBuffer = buffer;
+    }
+
+    /**
+     * Maps ranges of the source.
+     * @return index or null if data can not be read or mapped (e.g. compressed asset).
+     */
+    @Nullable
+    static RussvyMappedRangeIndex open(@NonNull RussvyDataSource source) {
+        final RussvyDataSnapshot snapshot = RussvyDataSnapshot.open(source);
+        if (snapshot == null) {
+            return null;
+        }
+        final ByteBuffer buffer = source.map(RussvyDataSource.RANGES_FILE);
+        if (buffer == null) {
+            Log.e(TAG, "Data can not be mapped.");
+            return null;
+        }
+        final long size = RussvyAssetHeader.SIZE + snapshot.directory.getSize()
+                + (long) snapshot.header.recordCount * RussvyAssetHeader.RECORD_SIZE;
+        if (buffer.capacity() < size) {
+            Log.e(TAG, "Data is corrupted.");
+            return null;
+        }
+        return new RussvyMappedRangeIndex(snapshot, buffer);
+    }
+
+    @Override
+    public void setPortingOverlay(@Nullable RussvyPortingOverlay overlay) {
+        mPortingOverlay = overlay;
+    }
+
+    @Nullable
+    @Override
+    public RussvyLookupResult lookup(long number) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, result) ? result : null;
+    }
+
+    @Override
+    public boolean lookup(long number, @NonNull RussvyLookupResult out) {
+        if (number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            return false;
+        }
+        final int code = RussvyUtils.getCode(number);
+        final RussvyAssetDirectory directory = mSnapshot.directory;
+        if (!directory.contains(code)) {
+            return false;
+        }
+        final int localNumber = RussvyUtils.getLocalNumber(number);
+        final int offset = (int) directory.getRecordOffset(code);
+        // Last range starting at or before the number
+        int low = 0;
+        int high = directory.getRecordCount(code) - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (getStart(offset, middle) <= localNumber) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+        final int record = offset + found * RussvyAssetHeader.RECORD_SIZE;
+        final int start = mBuffer.getInt(record + 2);
+        final int capacity = mBuffer.getInt(record + 6);
+        if (localNumber - start >= capacity) {
+            return false;
+        }
+        final RussvyPortingOverlay overlay = mPortingOverlay;
+        final int portedOperatorId = overlay != null ? overlay.getOperatorId(number) : -1;
+        out.set(code, start, capacity,
+                portedOperatorId >= 0 ? portedOperatorId : mBuffer.getShort(record + 10),
+                mBuffer.getShort(record + 12), portedOperatorId >= 0, this);
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public RussvyLookupResult[] lookup(@NonNull long[] numbers) {
+        final RussvyLookupResult[] results = new RussvyLookupResult[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            results[i] = lookup(numbers[i]);
+        }
+        return results;
+    }
+
+    @Override
+    public int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block) {
+        block.reset(regionCode);
+        final RussvyAssetDirectory directory = mSnapshot.directory;
+        if (!directory.contains(regionCode)) {
+            return 0;
+        }
+        final int offset = (int) directory.getRecordOffset(regionCode);
+        final int count = directory.getRecordCount(regionCode);
+        // First range starting at or after fromStart
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getStart(offset, middle) < fromStart) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < count && !block.isFull(); i++) {
+            final int record = offset + i * RussvyAssetHeader.RECORD_SIZE;
+            block.add(mBuffer.getInt(record + 2), mBuffer.getInt(record + 6),
+                    mBuffer.getShort(record + 10), mBuffer.getShort(record + 12));
+        }
+        return block.size();
+    }
+
+    @Override
+    public long getRangeCount() {
+        return mSnapshot.header.recordCount;
+    }
+
+    @Override
+    public long getOperatorCount() {
+        return mSnapshot.getOperatorCount();
+    }
+
+    @Override
+    public long getRegionCount() {
+        return mSnapshot.getRegionCount();
+    }
+
+    @Nullable
+    @Override
+    public String getOperatorName(int id) {
+        return mSnapshot.getOperatorName(id);
+    }
+
+    @Nullable
+    @Override
+    public String getRegionName(int id) {
+        return mSnapshot.getRegionName(id);
+    }
+
+    private int getStart(int offset, int record) {
+        return mBuffer.getInt(offset + record * RussvyAssetHeader.RECORD_SIZE + 2);
+    }
+}
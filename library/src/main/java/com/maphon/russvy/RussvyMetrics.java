@@ -0,0 +1,270 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the query methods of {@link RussvyDatabaseManager}, for field telemetry.
+ * Opt-in: nothing is counted until the metrics are passed to
+ * {@link RussvyDatabaseManager#setMetrics(RussvyMetrics)}. Recording is a few atomic increments
+ * per call and allocates nothing.
+ * For every {@link Method} there are:
+ * - count of calls and their total time;
+ * - latency histogram with power of two buckets: bucket 0 counts calls faster than 1 us,
+ *   bucket i counts calls taking [2^(i-1), 2^i) us, the last one counts everything slower;
+ * - rows read from the database and rows (ranges, names) returned to the caller;
+ * - cache hits and misses of the name methods: they hit when names are loaded by
+ *   {@link RussvyDatabaseManager#warmUp()};
+ * - filter rejects of the lookups: numbers which the number filter answered without the
+ *   database. Other numbers are not counted as misses, the filter is not a cache: a number it
+ *   passes may still be missing in the database.
+ * Read them with {@link #getSnapshot()} or have them pushed to a {@link Sink} periodically.
+ * Thread safe.
+ */
+public final class RussvyMetrics {
+    /** Instrumented methods. */
+    public enum Method {
+        /** {@link RussvyDatabaseManager#lookup(long)} and the variant with the result to fill. */
+        LOOKUP,
+        /** {@link RussvyDatabaseManager#lookup(long[])}. */
+        LOOKUP_BATCH,
+        /** Both getRanges methods of {@link RussvyDatabaseManager}. */
+        GET_RANGES,
+        GET_RANGE_COUNT,
+        GET_OPERATOR_NAME,
+        GET_REGION_NAME
+    }
+
+    /** Receives snapshots, see {@link #setSink(Sink, long)}. */
+    public interface Sink {
+        /** Called on a background thread. */
+        void onMetrics(@NonNull Snapshot snapshot);
+    }
+
+    /** Count of latency buckets, the last one is for calls taking 2^22 us (4 s) and more. */
+    public static final int BUCKET_COUNT = 24;
+
+    private static final int METHOD_COUNT = Method.values().length;
+    // Counters of a method are at method.ordinal() * COUNTER_COUNT
+    private static final int CALLS = 0;
+    private static final int NANOS = 1;
+    private static final int ROWS_SCANNED = 2;
+    private static final int ROWS_RETURNED = 3;
+    private static final int CACHE_HITS = 4;
+    private static final int CACHE_MISSES = 5;
+    private static final int FILTER_REJECTS = 6;
+    private static final int COUNTER_COUNT = 7;
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(METHOD_COUNT * COUNTER_COUNT);
+    private final AtomicLongArray mBuckets = new AtomicLongArray(METHOD_COUNT * BUCKET_COUNT);
+
+    /** Guarded by this. */
+    @Nullable
+    private ScheduledExecutorService mExecutor;
+
+    /**
+     * Records a finished call.
+     * @param startNanos System.nanoTime() when the call started.
+     */
+    void record(@NonNull Method method, long startNanos, long rowsScanned, long rowsReturned) {
+        final long nanos = Math.max(0, System.nanoTime() - startNanos);
+        final int counters = method.ordinal() * COUNTER_COUNT;
+        mCounters.incrementAndGet(counters + CALLS);
+        mCounters.addAndGet(counters + NANOS, nanos);
+        if (rowsScanned != 0) {
+            mCounters.addAndGet(counters + ROWS_SCANNED, rowsScanned);
+        }
+        if (rowsReturned != 0) {
+            mCounters.addAndGet(counters + ROWS_RETURNED, rowsReturned);
+        }
+        mBuckets.incrementAndGet(method.ordinal() * BUCKET_COUNT + getBucket(nanos / 1000));
+    }
+
+    void recordCache(@NonNull Method method, boolean hit) {
+        mCounters.incrementAndGet(method.ordinal() * COUNTER_COUNT
+                + (hit ? CACHE_HITS : CACHE_MISSES));
+    }
+
+    void recordFilterRejects(@NonNull Method method, long count) {
+        if (count != 0) {
+            mCounters.addAndGet(method.ordinal() * COUNTER_COUNT + FILTER_REJECTS, count);
+        }
+    }
+
+    /** Returns copy of the counters. Counters of concurrent calls may be partially included. */
+    @NonNull
+    public Snapshot getSnapshot() {
+        final long[] counters = new long[mCounters.length()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        final long[] buckets = new long[mBuckets.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(counters, buckets);
+    }
+
+    /** Sets all counters to zero. */
+    public void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+    }
+
+    /**
+     * Pushes snapshot to the sink every periodMs on a background thread.
+     * Counters are not reset, compare with {@link Snapshot#minus(Snapshot)} to get the change.
+     * @param sink sink to replace the previous one or null to stop pushing.
+     */
+    public synchronized void setSink(@Nullable final Sink sink, long periodMs) {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        if (sink == null) {
+            return;
+        }
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                final Thread thread = new Thread(r, "RussvyMetrics");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        final long period = Math.max(1, periodMs);
+        mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sink.onMetrics(getSnapshot());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static int getBucket(long micros) {
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+    }
+
+    /** Immutable copy of the counters. */
+    public static final class Snapshot {
+        @NonNull
+        private final long[] mCounters;
+        @NonNull
+        private final long[] mBuckets;
+
+        Snapshot(@NonNull long[] counters, @NonNull long[] buckets) {
+            mCounters = counters;
+            mBuckets = buckets;
+        }
+
+        /** Returns counters accumulated since the older snapshot. */
+        @NonNull
+        public Snapshot minus(@NonNull Snapshot older) {
+            final long[] counters = new long[mCounters.length];
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = mCounters[i] - older.mCounters[i];
+            }
+            final long[] buckets = new long[mBuckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets[i] - older.mBuckets[i];
+            }
+            return new Snapshot(counters, buckets);
+        }
+
+        public long getCallCount(@NonNull Method method) {
+            return get(method, CALLS);
+        }
+
+        /** Returns total time of the calls. */
+        public long getTotalMicros(@NonNull Method method) {
+            return get(method, NANOS) / 1000;
+        }
+
+        /** Returns rows read from the database (cursor rows, counted rows). */
+        public long getRowsScanned(@NonNull Method method) {
+            return get(method, ROWS_SCANNED);
+        }
+
+        /** Returns ranges or names returned to the callers. */
+        public long getRowsReturned(@NonNull Method method) {
+            return get(method, ROWS_RETURNED);
+        }
+
+        public long getCacheHits(@NonNull Method method) {
+            return get(method, CACHE_HITS);
+        }
+
+        public long getCacheMisses(@NonNull Method method) {
+            return get(method, CACHE_MISSES);
+        }
+
+        /** Returns numbers rejected by the number filter without a database query. */
+        public long getFilterRejects(@NonNull Method method) {
+            return get(method, FILTER_REJECTS);
+        }
+
+        /** Returns count of calls in the bucket, see {@link RussvyMetrics} for bucket bounds. */
+        public long getBucketCount(@NonNull Method method, int bucket) {
+            return mBuckets[method.ordinal() * BUCKET_COUNT + bucket];
+        }
+
+        /**
+         * Returns upper bound of the latency which the fraction of calls did not exceed,
+         * e.g. 0.99 for 99th percentile. Precise to a power of two.
+         * @return microseconds or 0 if there were no calls.
+         */
+        public long getPercentileMicros(@NonNull Method method, double fraction) {
+            final long calls = getCallCount(method);
+            if (calls == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(calls * Math.min(1, Math.max(0, fraction)));
+            long count = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                count += getBucketCount(method, bucket);
+                if (count >= target) {
+                    return 1L << bucket;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (Method method : Method.values()) {
+                final long calls = getCallCount(method);
+                if (calls == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US,
+                        "%s: %d calls, %d us avg, p50 %d us, p99 %d us, rows %d/%d,"
+                                + " cache %d/%d, filter rejects %d\n",
+                        method, calls, getTotalMicros(method) / calls,
+                        getPercentileMicros(method, 0.5), getPercentileMicros(method, 0.99),
+                        getRowsReturned(method), getRowsScanned(method),
+                        getCacheHits(method), getCacheHits(method) + getCacheMisses(method),
+                        getFilterRejects(method)));
+            }
+            return builder.toString();
+        }
+
+        private long get(@NonNull Method method, int counter) {
+            return mCounters[method.ordinal() * COUNTER_COUNT + counter];
+        }
+    }
+}
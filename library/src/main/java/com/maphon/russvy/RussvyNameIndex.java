@@ -0,0 +1,253 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Case insensitive substring search over operator or region names.
+ * Names are folded (lower case, "ё" is "е", punctuation and quotes are spaces), so that
+ * "мегафон" finds 'ПАО "МегаФон"'. Queries of three and more characters are answered with a
+ * trigram index, shorter ones with a sorted list of words (prefix search). No names are scanned
+ * one by one, so it is fast enough to search on every keystroke.
+ * Index is immutable and thread safe.
+ */
+public final class RussvyNameIndex {
+    private static final Locale LOCALE = new Locale("ru");
+    private static final int[] EMPTY = new int[0];
+    /** Orders posting lists by length, intersecting the short ones first keeps the rest small. */
+    private static final Comparator<int[]> SHORTEST_FIRST = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+            return a.length - b.length;
+        }
+    };
+
+    /** Folded names by id. */
+    @NonNull
+    private final String[] mNames;
+    /** Sorted trigrams and ids of names containing them (sorted as well). */
+    @NonNull
+    private final long[] mTrigrams;
+    @NonNull
+    private final int[][] mTrigramIds;
+    /** Sorted words of all names and ids of names they belong to. */
+    @NonNull
+    private final String[] mWords;
+    @NonNull
+    private final int[] mWordIds;
+
+    private RussvyNameIndex(@NonNull String[] names, @NonNull long[] trigrams,
+                            @NonNull int[][] trigramIds, @NonNull String[] words,
+                            @NonNull int[] wordIds) {
+        mNames = names;
+        mTrigrams = trigrams;
+        mTrigramIds = trigramIds;
+        mWords = words;
+        mWordIds = wordIds;
+    }
+
+    /**
+     * Builds index.
+     * @param names names indexed by id, null values are skipped.
+     */
+    @NonNull
+    public static RussvyNameIndex build(@NonNull String[] names) {
+        final String[] folded = new String[names.length];
+        final Map<Long, List<Integer>> trigrams = new HashMap<Long, List<Integer>>();
+        final List<WordEntry> words = new ArrayList<WordEntry>();
+        for (int id = 0; id < names.length; id++) {
+            folded[id] = names[id] != null ? fold(names[id]) : "";
+            final String name = folded[id];
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                final long trigram = getTrigram(name, i);
+                List<Integer> ids = trigrams.get(trigram);
+                if (ids == null) {
+                    ids = new ArrayList<Integer>(2);
+                    trigrams.put(trigram, ids);
+                }
+                // Ids are increasing, so only the last one can be the same
+                if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+                    ids.add(id);
+                }
+            }
+            for (String word : name.split(" ")) {
+                if (!word.isEmpty()) {
+                    words.add(new WordEntry(word, id));
+                }
+            }
+        }
+
+        final long[] trigramKeys = new long[trigrams.size()];
+        int i = 0;
+        for (Long trigram : trigrams.keySet()) {
+            trigramKeys[i++] = trigram;
+        }
+        Arrays.sort(trigramKeys);
+        final int[][] trigramIds = new int[trigramKeys.length][];
+        for (i = 0; i < trigramKeys.length; i++) {
+            final List<Integer> ids = trigrams.get(trigramKeys[i]);
+            trigramIds[i] = new int[ids.size()];
+            for (int j = 0; j < ids.size(); j++) {
+                trigramIds[i][j] = ids.get(j);
+            }
+        }
+
+        final WordEntry[] sortedWords = words.toArray(new WordEntry[words.size()]);
+        Arrays.sort(sortedWords);
+        final String[] wordKeys = new String[sortedWords.length];
+        final int[] wordIds = new int[sortedWords.length];
+        for (i = 0; i < sortedWords.length; i++) {
+            wordKeys[i] = sortedWords[i].word;
+            wordIds[i] = sortedWords[i].id;
+        }
+        return new RussvyNameIndex(folded, trigramKeys, trigramIds, wordKeys, wordIds);
+    }
+
+    /**
+     * Finds names containing the query.
+     * Queries shorter than three characters match beginnings of words only.
+     * @return sorted ids of matching names, empty if nothing matches or the query is blank.
+     */
+    @NonNull
+    public int[] find(@Nullable String query) {
+        if (query == null) {
+            return EMPTY;
+        }
+        final String folded = fold(query);
+        if (folded.isEmpty()) {
+            return EMPTY;
+        }
+        return folded.length() < 3 ? findByWordPrefix(folded) : findBySubstring(folded);
+    }
+
+    /** Returns count of indexed names. */
+    public int size() {
+        return mNames.length;
+    }
+
+    /** Lower cases the name, replaces "ё" and non alphanumeric characters, trims spaces. */
+    @NonNull
+    static String fold(@NonNull String name) {
+        final String lower = name.toLowerCase(LOCALE);
+        final StringBuilder sb = new StringBuilder(lower.length());
+        boolean space = true;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            // Cyrillic "io" is written as "ie" as often as not
+            if (c == '\u0451') {
+                c = '\u0435';
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        if (space && sb.length() > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    private int[] findByWordPrefix(@NonNull String prefix) {
+        int i = Arrays.binarySearch(mWords, prefix);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        final boolean[] matched = new boolean[mNames.length];
+        int count = 0;
+        for (; i < mWords.length && mWords[i].startsWith(prefix); i++) {
+            if (!matched[mWordIds[i]]) {
+                matched[mWordIds[i]] = true;
+                count++;
+            }
+        }
+        final int[] ids = new int[count];
+        count = 0;
+        for (int id = 0; id < matched.length; id++) {
+            if (matched[id]) {
+                ids[count++] = id;
+            }
+        }
+        return ids;
+    }
+
+    @NonNull
+    private int[] findBySubstring(@NonNull String query) {
+        // Candidates are names containing all trigrams of the query, starting with the rarest
+        final int[][] postings = new int[query.length() - 2][];
+        for (int i = 0; i < postings.length; i++) {
+            final int position = Arrays.binarySearch(mTrigrams, getTrigram(query, i));
+            if (position < 0) {
+                return EMPTY;
+            }
+            postings[i] = mTrigramIds[position];
+        }
+        Arrays.sort(postings, SHORTEST_FIRST);
+        int[] candidates = postings[0];
+        for (int i = 1; i < postings.length && candidates.length > 0; i++) {
+            candidates = intersect(candidates, postings[i]);
+        }
+        // Trigrams can be in another order, check the whole query
+        int count = 0;
+        final int[] ids = new int[candidates.length];
+        for (int id : candidates) {
+            if (mNames[id].contains(query)) {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    @NonNull
+    private static int[] intersect(@NonNull int[] a, @NonNull int[] b) {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long getTrigram(@NonNull String s, int start) {
+        return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16)
+                | s.charAt(start + 2);
+    }
+
+    private static final class WordEntry implements Comparable<WordEntry> {
+        final String word;
+        final int id;
+
+        WordEntry(String word, int id) {
+            this.word = word;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(@NonNull WordEntry other) {
+            final int result = word.compareTo(other.word);
+            return result != 0 ? result : (id < other.id ? -1 : (id == other.id ? 0 : 1));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.maphon.russvy;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Names of operators and regions by id, as {@link RussvyLookupResult} resolves them.
+ * Ids are only meaningful within one release of the data, so results keep the names of the
+ * data they were found in.
+ */
+interface RussvyNameSource {
+    @Nullable
+    String getOperatorName(int id);
+
+    @Nullable
+    String getRegionName(int id);
+}
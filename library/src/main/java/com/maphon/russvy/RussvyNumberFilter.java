@@ -0,0 +1,96 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Compact bitmap over allocated phone number blocks.
+ * Answers "can this number belong to any Rossvyaz range?" in a couple of memory reads, so that
+ * junk numbers (spoofed caller ids, short codes, foreign numbers) can be rejected before any
+ * real lookup is done.
+ * Every code is split into blocks of {@link #BLOCK_SIZE} numbers, a block is marked as soon as
+ * any range touches it. Hence negative answers are exact, while positive ones only mean that
+ * the number is worth looking up.
+ * Filter is immutable, use {@link Builder} (or
+ * {@link RussvyAssetReader#readNumberFilter(android.content.Context)}) to create one.
+ */
+public final class RussvyNumberFilter {
+    /** Count of numbers covered by one bit. */
+    public static final int BLOCK_SIZE = 1000;
+
+    private static final int BLOCKS_PER_CODE = RussvyUtils.NUMBERS_PER_CODE / BLOCK_SIZE;
+    private static final int WORDS_PER_CODE = (BLOCKS_PER_CODE + 63) >>> 6;
+
+    /** Block bitmaps indexed by code, null for codes without any ranges. */
+    @NonNull
+    private final long[][] mBlocks;
+
+    private RussvyNumberFilter(@NonNull long[][] blocks) {
+        mBlocks = blocks;
+    }
+
+    /**
+     * Checks whether the number may be allocated.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return false if the number is definitely outside of all known ranges.
+     */
+    public boolean mayContain(long number) {
+        if (number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            return false;
+        }
+        final long[] words = mBlocks[RussvyUtils.getCode(number)];
+        if (words == null) {
+            return false;
+        }
+        final int block = RussvyUtils.getLocalNumber(number) / BLOCK_SIZE;
+        return (words[block >>> 6] & (1L << block)) != 0;
+    }
+
+    /** Checks whether there are any ranges for the code. */
+    public boolean containsCode(int code) {
+        return code >= 0 && code < RussvyUtils.CODE_COUNT && mBlocks[code] != null;
+    }
+
+    /** Collects allocated ranges and turns them into the filter. Not thread safe. */
+    public static final class Builder {
+        private final long[][] mBlocks = new long[RussvyUtils.CODE_COUNT][];
+
+        /**
+         * Marks range as allocated.
+         * Ranges with code or bounds outside of the numbering plan are ignored.
+         * @param code range code, e.g. 921.
+         * @param start first number of the range without code.
+         * @param capacity count of numbers in the range.
+         */
+        @NonNull
+        public Builder add(int code, int start, int capacity) {
+            if (code < 0 || code >= RussvyUtils.CODE_COUNT || start < 0 || capacity <= 0) {
+                return this;
+            }
+            final int last = start + capacity - 1;
+            if (last >= RussvyUtils.NUMBERS_PER_CODE) {
+                return this;
+            }
+            long[] words = mBlocks[code];
+            if (words == null) {
+                words = new long[WORDS_PER_CODE];
+                mBlocks[code] = words;
+            }
+            final int lastBlock = last / BLOCK_SIZE;
+            for (int block = start / BLOCK_SIZE; block <= lastBlock; block++) {
+                words[block >>> 6] |= 1L << block;
+            }
+            return this;
+        }
+
+        @NonNull
+        public RussvyNumberFilter build() {
+            final long[][] blocks = new long[RussvyUtils.CODE_COUNT][];
+            for (int code = 0; code < blocks.length; code++) {
+                if (mBlocks[code] != null) {
+                    blocks[code] = mBlocks[code].clone();
+                }
+            }
+            return new RussvyNumberFilter(blocks);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.maphon.russvy;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Labels set by the user for numbers or ranges, e.g. "our corporate PBX".
+ * Overrides win over Rossvyaz data: lookups of overridden numbers return the label (see
+ * {@link RussvyLookupResult#getLabel()}) even if the number is not allocated to any operator.
+ * They are kept in a table of their own which is not touched by
+ * {@link RussvyDatabaseManager#clear()} and re-imports.
+ * Lookups read an immutable in-memory copy, edits replace it at once and are written to the
+ * database in the background: edits made within {@link #WRITE_DELAY_MS} are written together.
+ * Overridden ranges never overlap, a new override replaces the overlapped parts of older ones.
+ * Thread safe. Get one with {@link RussvyDatabaseManager#getOverrides()}.
+ */
+public final class RussvyOverrides {
+    private static final String TAG = "Russvy";
+
+    /** Time edits wait for other edits before they are written to the database. */
+    public static final long WRITE_DELAY_MS = 1000;
+
+    @NonNull
+    private final SQLiteOpenHelper mDatabase;
+    @NonNull
+    private volatile Snapshot mSnapshot;
+
+    /** Guarded by this. */
+    @Nullable
+    private ScheduledExecutorService mExecutor;
+    /** Guarded by this. */
+    private boolean mWriteScheduled;
+    private final Object mWriteLock = new Object();
+    /** Version of the snapshot stored in the database. Guarded by mWriteLock. */
+    private int mWrittenVersion;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RussvyOverrides.this) {
+                mWriteScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    private RussvyOverrides(@NonNull SQLiteOpenHelper database, @NonNull Snapshot snapshot) {
+        mDatabase = database;
+        mSnapshot = snapshot;
+    }
+
+    /** Reads overrides stored in the database. */
+    @NonNull
+    static RussvyOverrides load(@NonNull SQLiteOpenHelper database) {
+        final List<Long> firsts = new ArrayList<Long>();
+        final List<Long> lasts = new ArrayList<Long>();
+        final List<String> labels = new ArrayList<String>();
+        Cursor cursor = null;
+        try {
+            cursor = RussvyDatabaseHelper.getOverrides(database.getReadableDatabase());
+            while (cursor != null && cursor.moveToNext()) {
+                firsts.add(cursor.getLong(0));
+                lasts.add(cursor.getLong(1));
+                labels.add(cursor.getString(2));
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Overrides can not be read.");
+        } finally {
+            RussvyUtils.closeCursor(cursor);
+        }
+        final Snapshot snapshot = new Snapshot(firsts.size(), 0);
+        for (int i = 0; i < firsts.size(); i++) {
+            snapshot.firsts[i] = firsts.get(i);
+            snapshot.lasts[i] = lasts.get(i);
+            snapshot.labels[i] = labels.get(i);
+        }
+        return new RussvyOverrides(database, snapshot);
+    }
+
+    /** Returns count of overridden ranges. */
+    public int size() {
+        return mSnapshot.firsts.length;
+    }
+
+    /**
+     * Returns label of the number.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return label or null if the number is not overridden.
+     */
+    @Nullable
+    public String getLabel(long number) {
+        final Snapshot snapshot = mSnapshot;
+        final int i = snapshot.find(number);
+        return i >= 0 ? snapshot.labels[i] : null;
+    }
+
+    /** Labels the number, see {@link #set(long, long, String)}. */
+    public boolean set(long number, @NonNull String label) {
+        return set(number, number, label);
+    }
+
+    /**
+     * Labels all numbers from first to last. Parts of older overrides between them are lost.
+     * Takes effect at once, the database is updated later.
+     * @param first first ten digit number of the range, e.g. 9215000000.
+     * @param last last number of the range, must have the same code as the first one.
+     * @return false if the range is invalid.
+     */
+    public boolean set(long first, long last, @NonNull String label) {
+        if (!isValid(first, last)) {
+            return false;
+        }
+        edit(first, last, label);
+        return true;
+    }
+
+    /**
+     * Removes labels of all numbers from first to last.
+     * Takes effect at once, the database is updated later.
+     * @return false if the range is invalid.
+     */
+    public boolean remove(long first, long last) {
+        if (!isValid(first, last)) {
+            return false;
+        }
+        edit(first, last, null);
+        return true;
+    }
+
+    /**
+     * Writes pending edits to the database right now instead of waiting for the background
+     * write, e.g. before the process goes away.
+     * @return true if all edits are stored.
+     */
+    @WorkerThread
+    public boolean flush() {
+        synchronized (mWriteLock) {
+            if (mSnapshot.version == mWrittenVersion) {
+                return true;
+            }
+        }
+        // Opened before the write lock is taken: the helper opens the database holding its own
+        // monitor, waiting for it under the lock would deadlock with a synchronized caller
+        final SQLiteDatabase db;
+        try {
+            db = mDatabase.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Overrides can not be written.");
+            return false;
+        }
+        synchronized (mWriteLock) {
+            final Snapshot snapshot = mSnapshot;
+            if (snapshot.version == mWrittenVersion) {
+                return true;
+            }
+            boolean written;
+            try {
+                written = RussvyDatabaseHelper.replaceOverrides(db, snapshot.firsts,
+                        snapshot.lasts, snapshot.labels);
+            } catch (SQLiteException e) {
+                written = false;
+            } catch (IllegalStateException e) {
+                // Closed meanwhile
+                written = false;
+            }
+            if (!written) {
+                // Kept in memory, next edit or flush tries again
+                Log.e(TAG, "Overrides can not be written.");
+                return false;
+            }
+            mWrittenVersion = snapshot.version;
+            return true;
+        }
+    }
+
+    /**
+     * Writes pending edits and stops the background writer, see
+     * {@link RussvyDatabaseManager#close()}. Later edits start it again.
+     */
+    @WorkerThread
+    void close() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+            mWriteScheduled = false;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * Adds label to the result of the lookup.
+     * @param result Rossvyaz range of the number, null if there is none.
+     * @return result with label if the number is overridden (range of the override if there is
+     *         no Rossvyaz range), otherwise result as is.
+     */
+    @Nullable
+    RussvyLookupResult apply(long number, @Nullable RussvyLookupResult result) {
+        if (result != null) {
+            apply(number, result, true);
+            return result;
+        }
+        if (getLabel(number) == null) {
+            return null;
+        }
+        final RussvyLookupResult out = new RussvyLookupResult();
+        apply(number, out, false);
+        return out;
+    }
+
+    /**
+     * Adds label to the result of the lookup, allocates nothing.
+     * @param found whether out holds Rossvyaz range of the number.
+     * @return true if out holds the range of the number: Rossvyaz one (with label if the number
+     *         is overridden) or the override one.
+     */
+    boolean apply(long number, @NonNull RussvyLookupResult out, boolean found) {
+        final Snapshot snapshot = mSnapshot;
+        final int i = snapshot.find(number);
+        if (i < 0) {
+            return found;
+        }
+        if (!found) {
+            final long first = snapshot.firsts[i];
+            out.set(RussvyUtils.getCode(first), RussvyUtils.getLocalNumber(first),
+                    (int) (snapshot.lasts[i] - first + 1), -1, -1, false, null);
+        }
+        out.setLabel(snapshot.labels[i]);
+        return true;
+    }
+
+    private static boolean isValid(long first, long last) {
+        return first >= 0 && first <= last && last < RussvyUtils.MAX_NUMBER
+                && RussvyUtils.getCode(first) == RussvyUtils.getCode(last);
+    }
+
+    private synchronized void edit(long first, long last, @Nullable String label) {
+        mSnapshot = mSnapshot.edit(first, last, label);
+        if (mWriteScheduled) {
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    final Thread thread = new Thread(r, "RussvyOverrides");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mExecutor.schedule(mWrite, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        mWriteScheduled = true;
+    }
+
+    /** Immutable sorted non-overlapping overrides. */
+    private static final class Snapshot {
+        final long[] firsts;
+        final long[] lasts;
+        final String[] labels;
+        /** Incremented by every edit. */
+        final int version;
+
+        Snapshot(int size, int version) {
+            firsts = new long[size];
+            lasts = new long[size];
+            labels = new String[size];
+            this.version = version;
+        }
+
+        // Returns position of the override containing the number or -1.
+        int find(long number) {
+            int low = 0;
+            int high = firsts.length - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (firsts[middle] > number) {
+                    high = middle - 1;
+                } else if (lasts[middle] < number) {
+                    low = middle + 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        // Returns copy with the range labeled (or not labeled if label is null).
+        @NonNull
+        Snapshot edit(long first, long last, @Nullable String label) {
+            // Overlapped overrides are [from, to)
+            int from = 0;
+            while (from < firsts.length && lasts[from] < first) {
+                from++;
+            }
+            int to = from;
+            while (to < firsts.length && firsts[to] <= last) {
+                to++;
+            }
+            final boolean leftPart = from < to && firsts[from] < first;
+            final boolean rightPart = from < to && lasts[to - 1] > last;
+            final int size = firsts.length - (to - from) + (leftPart ? 1 : 0)
+                    + (label != null ? 1 : 0) + (rightPart ? 1 : 0);
+            final Snapshot result = new Snapshot(size, version + 1);
+            int i = result.copy(this, 0, from, 0);
+            if (leftPart) {
+                i = result.set(i, firsts[from], first - 1, labels[from]);
+            }
+            if (label != null) {
+                i = result.set(i, first, last, label);
+            }
+            if (rightPart) {
+                i = result.set(i, last + 1, lasts[to - 1], labels[to - 1]);
+            }
+            result.copy(this, to, firsts.length, i);
+            return result;
+        }
+
+        private int set(int i, long first, long last, @NonNull String label) {
+            firsts[i] = first;
+            lasts[i] = last;
+            labels[i] = label;
+            return i + 1;
+        }
+
+        private int copy(@NonNull Snapshot source, int from, int to, int i) {
+            System.arraycopy(source.firsts, from, firsts, i, to - from);
+            System.arraycopy(source.lasts, from, lasts, i, to - from);
+            System.arraycopy(source.labels, from, labels, i, to - from);
+            return i + to - from;
+        }
+    }
+}
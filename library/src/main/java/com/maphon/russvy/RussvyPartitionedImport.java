@@ -0,0 +1,309 @@
+package com.maphon.russvy;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports range records into the database using several threads.
+ * Records are split by code into partitions of similar size. Every partition is inserted by a
+ * thread of its own into a temporary database next to the main one, so the threads never wait
+ * for each other's locks. Partitions are then copied into the range table with one
+ * INSERT ... SELECT per partition: partitions hold ascending codes, so rows are appended to the
+ * table in key order. Temporary databases are deleted afterwards.
+ * The framework turns write-ahead logging off for good on a database object which had anything
+ * attached, so the copy is done by a connection of its own, closed afterwards. The database of
+ * the manager keeps its settings.
+ */
+final class RussvyPartitionedImport {
+    private static final String TAG = "Russvy";
+
+    /** SQLite allows 10 attached databases by default. */
+    static final int MAX_PARTITIONS = 8;
+
+    private static final String PARTITION_SUFFIX = "-partition";
+    private static final String PARTITION_SCHEMA = "partition";
+    /** Part of the progress taken by filling the partitions, the rest is for copying. */
+    private static final int FILL_PERCENT = 90;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    /** Receives progress in percents, on the thread which runs the import. */
+    interface Listener {
+        void onProgress(int percentComplete);
+    }
+
+    @NonNull
+    private final RussvyDatabaseManager mDatabase;
+    private final int mPartitionCount;
+
+    /**
+     * @param database database with the range table to fill.
+     * @param partitionCount count of partitions and threads, at most {@link #MAX_PARTITIONS}.
+     */
+    RussvyPartitionedImport(@NonNull RussvyDatabaseManager database, int partitionCount) {
+        mDatabase = database;
+        mPartitionCount = Math.max(1, Math.min(MAX_PARTITIONS, partitionCount));
+    }
+
+    /**
+     * Inserts the records into the range table.
+     * @param records records of the "ranges" asset, sorted by code.
+     * @param directory directory of the records.
+     * @param codes codes to insert, null for all.
+     * @return true if everything went fine.
+     */
+    @WorkerThread
+    boolean run(@NonNull byte[] records, @NonNull RussvyAssetDirectory directory,
+                @Nullable boolean[] codes, @Nullable Listener listener) {
+        final int[] bounds = split(directory, codes);
+        final int partitionCount = bounds.length - 1;
+        long recordCount = 0;
+        for (int entry = 0; entry < directory.size(); entry++) {
+            final int code = directory.getCode(entry);
+            if (codes == null || codes[code]) {
+                recordCount += directory.getRecordCount(code);
+            }
+        }
+        final SQLiteDatabase db;
+        try {
+            db = mDatabase.getWritableDatabase();
+        } catch (SQLiteException e) {
+            return false;
+        }
+        // Left by an interrupted import which had more partitions
+        for (int i = partitionCount; i < MAX_PARTITIONS; i++) {
+            deleteFile(getPartitionFile(db, i));
+        }
+        final File[] files = new File[partitionCount];
+        final Partition[] partitions = new Partition[partitionCount];
+        final AtomicLong insertedCount = new AtomicLong();
+        for (int i = 0; i < partitionCount; i++) {
+            files[i] = getPartitionFile(db, i);
+            // Left by an import which was interrupted
+            deleteFile(files[i]);
+            partitions[i] = new Partition(files[i], ByteBuffer.wrap(records), bounds[i],
+                    bounds[i + 1], codes, insertedCount);
+            partitions[i].start();
+        }
+        boolean filled = true;
+        try {
+            for (Partition partition : partitions) {
+                while (partition.isAlive()) {
+                    partition.join(PROGRESS_INTERVAL_MS);
+                    if (listener != null && recordCount > 0) {
+                        listener.onProgress((int) (FILL_PERCENT * insertedCount.get()
+                                / recordCount));
+                    }
+                }
+                filled &= partition.isFilled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            filled = false;
+        }
+        final boolean copied = filled && copy(db, files, mDatabase.isBulkLoading());
+        for (File file : files) {
+            deleteFile(file);
+        }
+        if (copied && listener != null) {
+            listener.onProgress(FILL_PERCENT + (100 - FILL_PERCENT) / 2);
+        }
+        return copied;
+    }
+
+    /**
+     * Returns bounds of the partitions: partition i holds records [bounds[i], bounds[i + 1]).
+     * Bounds are at code boundaries, so a large code may make fewer partitions. Partitions get
+     * similar counts of the selected records.
+     */
+    @NonNull
+    private int[] split(@NonNull RussvyAssetDirectory directory, @Nullable boolean[] codes) {
+        long selectedCount = 0;
+        int recordCount = 0;
+        for (int entry = 0; entry < directory.size(); entry++) {
+            final int code = directory.getCode(entry);
+            if (codes == null || codes[code]) {
+                selectedCount += directory.getRecordCount(code);
+            }
+            recordCount = Math.max(recordCount,
+                    directory.getFirstRecord(code) + directory.getRecordCount(code));
+        }
+        final int[] bounds = new int[mPartitionCount + 1];
+        int count = 1;
+        // Selected records before the current code
+        long before = 0;
+        for (int entry = 0; entry < directory.size() && count < mPartitionCount; entry++) {
+            final int code = directory.getCode(entry);
+            final int first = directory.getFirstRecord(code);
+            if (first > bounds[count - 1]
+                    && before >= selectedCount * count / mPartitionCount) {
+                bounds[count++] = first;
+            }
+            if (codes == null || codes[code]) {
+                before += directory.getRecordCount(code);
+            }
+        }
+        bounds[count] = recordCount;
+        final int[] result = new int[count + 1];
+        System.arraycopy(bounds, 0, result, 0, count + 1);
+        return result;
+    }
+
+    /**
+     * Copies the partitions into the range table of the database with a new connection.
+     * @param bulkLoad whether the copy is a part of the bulk load, see
+     *                 {@link RussvyDatabaseManager#beginBulkLoad()}.
+     */
+    private static boolean copy(@NonNull SQLiteDatabase database, @NonNull File[] files,
+                                boolean bulkLoad) {
+        final int flags = Build.VERSION.SDK_INT >= 16 && database.isWriteAheadLoggingEnabled()
+                ? SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING : 0;
+        final SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(database.getPath(), null,
+                    SQLiteDatabase.OPEN_READWRITE | flags);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Database can not be opened for the copy.", e);
+            return false;
+        }
+        int attachedCount = 0;
+        try {
+            // Journal mode and synchronous are settings of the connection
+            if (bulkLoad) {
+                RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE,
+                        RussvyDatabaseHelper.JOURNAL_MODE_BULK_LOAD);
+                RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS,
+                        RussvyDatabaseHelper.SYNCHRONOUS_BULK_LOAD);
+            }
+            // Attaching and detaching is not allowed inside transactions.
+            for (; attachedCount < files.length; attachedCount++) {
+                db.execSQL("ATTACH DATABASE ? AS " + PARTITION_SCHEMA + attachedCount,
+                        new Object[] {files[attachedCount].getPath()});
+            }
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < files.length; i++) {
+                    db.execSQL(String.format(RussvyDatabaseHelper.SQL_FORMAT_COPY_RANGES,
+                            PARTITION_SCHEMA + i));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Partitions can not be copied.", e);
+            return false;
+        } finally {
+            for (int i = 0; i < attachedCount; i++) {
+                try {
+                    db.execSQL("DETACH DATABASE " + PARTITION_SCHEMA + i);
+                } catch (SQLiteException e) {
+                    // nop
+                }
+            }
+            db.close();
+        }
+    }
+
+    @NonNull
+    private static File getPartitionFile(@NonNull SQLiteDatabase db, int index) {
+        return new File(db.getPath() + PARTITION_SUFFIX + index);
+    }
+
+    private static void deleteFile(@NonNull File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Partition can not be deleted: " + file);
+        }
+    }
+
+    /** Thread which fills one temporary database. */
+    private static final class Partition extends Thread {
+        private static final int PROGRESS_BATCH = 1000;
+
+        @NonNull
+        private final File mFile;
+        @NonNull
+        private final ByteBuffer mRecords;
+        private final int mFrom;
+        private final int mTo;
+        @Nullable
+        private final boolean[] mCodes;
+        @NonNull
+        private final AtomicLong mInsertedCount;
+        private volatile boolean mFilled;
+
+        Partition(@NonNull File file, @NonNull ByteBuffer records, int from, int to,
+                  @Nullable boolean[] codes, @NonNull AtomicLong insertedCount) {
+            super("RussvyPartition");
+            mFile = file;
+            mRecords = records;
+            mFrom = from;
+            mTo = to;
+            mCodes = codes;
+            mInsertedCount = insertedCount;
+        }
+
+        boolean isFilled() {
+            return mFilled;
+        }
+
+        @Override
+        public void run() {
+            SQLiteDatabase db = null;
+            try {
+                db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+                // The file is thrown away if anything goes wrong, no need for durability
+                RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE,
+                        "OFF");
+                RussvyDatabaseHelper.setPragma(db, RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS,
+                        RussvyDatabaseHelper.SYNCHRONOUS_BULK_LOAD);
+                db.execSQL(RussvyDatabaseHelper.SQL_CREATE_TABLE_RANGE);
+                db.beginTransaction();
+                try {
+                    final SQLiteStatement statement =
+                            db.compileStatement(RussvyDatabaseHelper.SQL_FORMAT_INSERT_RANGE);
+                    int insertedCount = 0;
+                    for (int i = mFrom; i < mTo; i++) {
+                        final int record = i * RussvyAssetHeader.RECORD_SIZE;
+                        final int code = mRecords.getShort(record);
+                        if (mCodes != null && (code < 0 || code >= mCodes.length
+                                || !mCodes[code])) {
+                            continue;
+                        }
+                        final long first = RussvyUtils.getNumber(code,
+                                mRecords.getInt(record + 2));
+                        statement.bindLong(1, first);
+                        statement.bindLong(2, first + mRecords.getInt(record + 6) - 1);
+                        statement.bindLong(3, mRecords.getShort(record + 10));
+                        statement.bindLong(4, mRecords.getShort(record + 12));
+                        statement.execute();
+                        if (++insertedCount % PROGRESS_BATCH == 0) {
+                            mInsertedCount.addAndGet(PROGRESS_BATCH);
+                        }
+                    }
+                    mInsertedCount.addAndGet(insertedCount % PROGRESS_BATCH);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mFilled = true;
+            } catch (SQLiteException e) {
+                Log.e(TAG, "Partition can not be filled.", e);
+            } finally {
+                if (db != null) {
+                    db.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Ported numbers (MNP): maps phone number to the operator currently serving it.
+ * Ranges only tell which operator the number was originally assigned to, ported numbers are
+ * served by someone else. There are millions of them, so the data is kept outside of the Java
+ * heap: file produced by the converter is a ready to use open addressing hash table which is
+ * memory mapped (or copied into a direct buffer if mapping is not possible). Layout (big endian):
+ * - int: magic, "RSVP"
+ * - short: format version
+ * - short: reserved
+ * - int: count of ported numbers
+ * - int: count of slots, power of two
+ * - long[slots]: numbers, 0 for empty slots
+ * - short[slots]: operator ids
+ * Slot is found by linear probing starting from {@link #hash(long)} of the number.
+ * Every slot takes 10 bytes. The converter doubles the table once it is filled by 70%, so there
+ * are 1.4-2.9 slots, 14-29 bytes per ported number: 10 million numbers take 2^24 slots, 168 MB
+ * of address space (and of memory for the pages read). The file is not compressed any further.
+ * Operator ids are the same as in the "operators" asset.
+ * Overlay is immutable and thread safe.
+ */
+public final class RussvyPortingOverlay {
+    private static final String TAG = "Russvy";
+
+    private static final int MAGIC = 0x52535650;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 4;
+
+    @NonNull
+    private final ByteBuffer mBuffer;
+    private final int mSize;
+    private final int mMask;
+    private final int mValuesOffset;
+
+    private RussvyPortingOverlay(@NonNull ByteBuffer buffer, int size, int slots) {
+        mBuffer = buffer;
+        mSize = size;
+        mMask = slots - 1;
+        mValuesOffset = HEADER_SIZE + slots * 8;
+    }
+
+    /**
+     * Opens overlay shipped in assets.
+     * Asset is memory mapped if it is stored uncompressed in the APK (see aaptOptions
+     * noCompress), otherwise it is copied into a direct buffer.
+     * @param path path in asset directory the the Rossvyaz data files.
+     * @return overlay or null if there is no such asset or it can not be read.
+     */
+    @Nullable
+    public static RussvyPortingOverlay open(@NonNull Context context, @Nullable String path) {
+        final RussvyDataSource source = RussvyDataSource.assets(context, path);
+        final ByteBuffer mapped = source.map(RussvyDataSource.PORTED_FILE);
+        InputStream is = null;
+        try {
+            if (mapped != null) {
+                return wrap(mapped);
+            }
+            // Compressed asset, has to be copied.
+            is = source.open(RussvyDataSource.PORTED_FILE);
+            return copy(is);
+        } catch (IOException e) {
+            Log.e(TAG, "Ported numbers not found (assets).");
+            return null;
+        } finally {
+            RussvyUtils.closeStream(is);
+        }
+    }
+
+    /**
+     * Opens overlay stored in a file, e.g. downloaded one. The file is memory mapped.
+     * @return overlay or null if file can not be read.
+     */
+    @Nullable
+    public static RussvyPortingOverlay open(@NonNull File file) {
+        final ByteBuffer mapped = RussvyDataSource.directory(file.getParentFile())
+                .map(file.getName());
+        try {
+            if (mapped != null) {
+                return wrap(mapped);
+            }
+        } catch (IOException e) {
+            // Reported below
+        }
+        Log.e(TAG, "Ported numbers not found (file).");
+        return null;
+    }
+
+    /** Returns count of ported numbers. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns id of the operator serving the number.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return operator id or -1 if the number was not ported.
+     */
+    public int getOperatorId(long number) {
+        if (number <= 0) {
+            return -1;
+        }
+        int slot = (int) hash(number) & mMask;
+        while (true) {
+            final long key = mBuffer.getLong(HEADER_SIZE + slot * 8);
+            if (key == number) {
+                return mBuffer.getShort(mValuesOffset + slot * 2);
+            }
+            if (key == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    /** Hash function of the table, must be kept in sync with the converter. */
+    static long hash(long number) {
+        // Finalizer of MurmurHash3
+        number ^= number >>> 33;
+        number *= 0xff51afd7ed558ccdL;
+        number ^= number >>> 33;
+        number *= 0xc4ceb9fe1a85ec53L;
+        number ^= number >>> 33;
+        return number;
+    }
+
+    @NonNull
+    private static RussvyPortingOverlay copy(@NonNull InputStream is) throws IOException {
+        final DataInputStream header = new DataInputStream(is);
+        final int magic = header.readInt();
+        final int version = header.readShort();
+        // Reserved
+        header.readShort();
+        final int size = header.readInt();
+        final int slots = header.readInt();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(
+                checkedSize(magic, version, size, slots));
+        buffer.putInt(magic).putShort((short) version).putShort((short) 0)
+                .putInt(size).putInt(slots);
+        final ReadableByteChannel channel = Channels.newChannel(is);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of data.");
+            }
+        }
+        return wrap(buffer);
+    }
+
+    @NonNull
+    private static RussvyPortingOverlay wrap(@NonNull ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("Unexpected end of data.");
+        }
+        final int size = buffer.getInt(8);
+        final int slots = buffer.getInt(12);
+        if (buffer.capacity() < checkedSize(buffer.getInt(0), buffer.getShort(4), size, slots)) {
+            throw new IOException("Unexpected end of data.");
+        }
+        return new RussvyPortingOverlay(buffer, size, slots);
+    }
+
+    // Returns expected size of the data in bytes.
+    private static int checkedSize(int magic, int version, int size, int slots)
+            throws IOException {
+        if (magic != MAGIC || version != FORMAT_VERSION) {
+            throw new IOException("Not a ported numbers file.");
+        }
+        if (slots <= 0 || (slots & (slots - 1)) != 0 || size < 0 || size >= slots
+                || slots > (Integer.MAX_VALUE - HEADER_SIZE) / 10) {
+            throw new IOException("Malformed ported numbers file.");
+        }
+        return HEADER_SIZE + slots * 10;
+    }
+}
@@ -0,0 +1,124 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Reusable block of number ranges of one code stored in primitive arrays.
+ * Filled by {@link RussvyDatabaseManager#getRanges(int, int, RussvyRangeBlock)} and
+ * {@link RussvyRangeIndex#getRanges(int, int, RussvyRangeBlock)} without any per-row column
+ * lookups. Codes with more ranges than the block can hold are read page by page:
+ * <pre>
+ * int from = 0;
+ * while (manager.getRanges(code, from, block) > 0) {
+ *     for (int i = 0; i &lt; block.size(); i++) {
+ *         // block.getStarts()[i], block.getCapacities()[i]...
+ *     }
+ *     if (!block.isFull()) break;
+ *     from = block.getNextStart();
+ * }
+ * </pre>
+ * Not thread safe.
+ */
+public final class RussvyRangeBlock {
+    /** Default count of ranges in block. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int[] mStarts;
+    private final int[] mCapacities;
+    private final short[] mOperators;
+    private final short[] mRegions;
+    private int mCode = -1;
+    private int mSize;
+
+    /** Creates block of {@link #DEFAULT_CAPACITY} ranges. */
+    public RussvyRangeBlock() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates block.
+     * @param capacity maximal count of ranges the block can hold, positive.
+     */
+    public RussvyRangeBlock(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        mStarts = new int[capacity];
+        mCapacities = new int[capacity];
+        mOperators = new short[capacity];
+        mRegions = new short[capacity];
+    }
+
+    /** Returns code of the ranges in block or -1 if block was not filled yet. */
+    public int getCode() {
+        return mCode;
+    }
+
+    /** Returns count of ranges in block. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns maximal count of ranges the block can hold. */
+    public int capacity() {
+        return mStarts.length;
+    }
+
+    /** Checks whether block is full, which means there may be more ranges of the code. */
+    public boolean isFull() {
+        return mSize == mStarts.length;
+    }
+
+    /** Returns value of fromStart which should be used to get the next page of ranges. */
+    public int getNextStart() {
+        return mSize > 0 ? mStarts[mSize - 1] + 1 : 0;
+    }
+
+    /** Returns starts of ranges, only first {@link #size()} values make sense. */
+    @NonNull
+    public int[] getStarts() {
+        return mStarts;
+    }
+
+    /** Returns capacities of ranges, only first {@link #size()} values make sense. */
+    @NonNull
+    public int[] getCapacities() {
+        return mCapacities;
+    }
+
+    /** Returns operator ids of ranges, only first {@link #size()} values make sense. */
+    @NonNull
+    public short[] getOperatorIds() {
+        return mOperators;
+    }
+
+    /** Returns region ids of ranges, only first {@link #size()} values make sense. */
+    @NonNull
+    public short[] getRegionIds() {
+        return mRegions;
+    }
+
+    void reset(int code) {
+        mCode = code;
+        mSize = 0;
+    }
+
+    void add(int start, int capacity, int operatorId, int regionId) {
+        mStarts[mSize] = start;
+        mCapacities[mSize] = capacity;
+        mOperators[mSize] = (short) operatorId;
+        mRegions[mSize] = (short) regionId;
+        mSize++;
+    }
+
+    // Copies ranges of the table starting at position "from", as much as fits into the block.
+    void fill(@NonNull RussvyRangeTable table, int from) {
+        reset(table.code);
+        final int count = Math.max(0, Math.min(table.size() - from, mStarts.length));
+        System.arraycopy(table.starts, from, mStarts, 0, count);
+        System.arraycopy(table.capacities, from, mCapacities, 0, count);
+        System.arraycopy(table.operators, from, mOperators, 0, count);
+        System.arraycopy(table.regions, from, mRegions, 0, count);
+        mSize = count;
+    }
+}
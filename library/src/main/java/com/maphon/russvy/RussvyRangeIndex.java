@@ -0,0 +1,257 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory index of number ranges, read straight from assets without any database import.
+ * Only the asset header and directory are read when the index is opened. Ranges of a code are
+ * loaded when the code is queried for the first time, so the first lookup takes milliseconds
+ * instead of the full import time. Call {@link #loadAll()} (or {@link #loadInBackground()}) to
+ * fill in the rest of the codes in advance.
+ * When a fresh dataset arrives (new application version or downloaded update), it can be
+ * switched to with {@link #reload(File)} without restarting anything: new data is read
+ * completely in the background and then replaces the old one at once. Readers are never
+ * blocked and never see empty results, lookups which are already running finish on the old
+ * data.
+ * All codes of the assets are served, {@link RussvyAssetReader#setCodes(int[])} limits the
+ * database only.
+ * The index is thread safe.
+ */
+public final class RussvyRangeIndex implements RussvyLookupSource, RussvyNameSource {
+    /** Active data. */
+    @NonNull
+    private final AtomicReference<RussvyDataSnapshot> mSnapshot;
+
+    /** Overrides operators of ported numbers. */
+    @Nullable
+    private volatile RussvyPortingOverlay mPortingOverlay;
+
+    private RussvyRangeIndex(@NonNull RussvyDataSnapshot snapshot) {
+        mSnapshot = new AtomicReference<RussvyDataSnapshot>(snapshot);
+    }
+
+    /**
+     * Opens index over the assets. Does not load any ranges yet.
+     * @param path path in asset directory the the Rossvyaz data files.
+     * @return index or null if assets can not be read.
+     */
+    @Nullable
+    public static RussvyRangeIndex open(@NonNull Context context, @Nullable String path) {
+        return open(RussvyDataSource.assets(context, path));
+    }
+
+    /**
+     * Opens index over data files (the same ones as shipped in assets) stored in the directory.
+     * Does not load any ranges yet.
+     * @return index or null if files can not be read.
+     */
+    @Nullable
+    public static RussvyRangeIndex open(@NonNull File directory) {
+        return open(RussvyDataSource.directory(directory));
+    }
+
+    /**
+     * Replaces data of the index with the one from assets, see {@link #reload(File)}.
+     * @param path path in asset directory the the Rossvyaz data files.
+     */
+    public boolean reload(@NonNull Context context, @Nullable String path) {
+        return reload(RussvyDataSource.assets(context, path));
+    }
+
+    /**
+     * Replaces data of the index with the one stored in the directory.
+     * New data is read completely before it replaces the old one, so this takes a while and
+     * should not be done on the main thread. Index keeps working on the old data meanwhile.
+     * Porting overlay is not changed, set the one matching new data if operators differ.
+     * Results found before keep resolving names against the old data, ids of operators and
+     * regions are not the same in different releases.
+     * @return true if data was replaced, false if new data can not be read (old data is kept).
+     */
+    public boolean reload(@NonNull File directory) {
+        return reload(RussvyDataSource.directory(directory));
+    }
+
+    /**
+     * Returns date when the active data was published by Rossvyaz.
+     * Changes after successful {@link #reload(File)}.
+     */
+    @Nullable
+    public Date getDataAge() {
+        return mSnapshot.get().getDataAge();
+    }
+
+    /**
+     * Sets ported numbers consulted by {@link #lookup(long)}.
+     * @param overlay ported numbers or null to use range operators only.
+     */
+    @Override
+    public void setPortingOverlay(@Nullable RussvyPortingOverlay overlay) {
+        mPortingOverlay = overlay;
+    }
+
+    /**
+     * Finds range which the phone number belongs to.
+     * Loads ranges of the number's code if they are not in memory yet.
+     * @param number ten digit phone number without country prefix, e.g. 9215000000.
+     * @return range or null if the number is not allocated to any operator.
+     */
+    @Nullable
+    @Override
+    public RussvyLookupResult lookup(long number) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, result) ? result : null;
+    }
+
+    /**
+     * Finds range which the phone number belongs to, see {@link #lookup(long)}.
+     * Allocates nothing once ranges of the code are loaded.
+     * @param out result to fill, left as is if the number is not found.
+     * @return false if the number is not allocated to any operator.
+     */
+    @Override
+    public boolean lookup(long number, @NonNull RussvyLookupResult out) {
+        if (number < 0 || number >= RussvyUtils.MAX_NUMBER) {
+            return false;
+        }
+        // Ids are resolved against names of the same release, even if reload() comes in between
+        final RussvyDataSnapshot snapshot = mSnapshot.get();
+        final RussvyRangeTable table = snapshot.getTable(RussvyUtils.getCode(number));
+        if (table == null) {
+            return false;
+        }
+        final int i = table.find(RussvyUtils.getLocalNumber(number));
+        if (i < 0) {
+            return false;
+        }
+        final RussvyPortingOverlay overlay = mPortingOverlay;
+        final int portedOperatorId = overlay != null ? overlay.getOperatorId(number) : -1;
+        out.set(table.code, table.starts[i], table.capacities[i],
+                portedOperatorId >= 0 ? portedOperatorId : table.operators[i],
+                table.regions[i], portedOperatorId >= 0, snapshot);
+        return true;
+    }
+
+    /**
+     * Finds ranges of several phone numbers at once.
+     * Lookups in memory are cheap, so it's the same as calling {@link #lookup(long)} for every
+     * number.
+     */
+    @NonNull
+    @Override
+    public RussvyLookupResult[] lookup(@NonNull long[] numbers) {
+        final RussvyLookupResult[] results = new RussvyLookupResult[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            results[i] = lookup(numbers[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Fills block with ranges of the code, sorted by range start.
+     * Loads ranges of the code if they are not in memory yet.
+     * @param regionCode code, e.g. 921.
+     * @param fromStart only ranges starting at this number or after it are returned.
+     * @param block block to fill, previous content is discarded.
+     * @return count of ranges in the block.
+     */
+    @Override
+    public int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block) {
+        final RussvyRangeTable table = mSnapshot.get().getTable(regionCode);
+        if (table == null) {
+            block.reset(regionCode);
+            return 0;
+        }
+        block.fill(table, table.lowerBound(fromStart));
+        return block.size();
+    }
+
+    /** Returns count of ranges of the code, does not need the code to be loaded. */
+    public int getRangeCount(int regionCode) {
+        return mSnapshot.get().directory.getRecordCount(regionCode);
+    }
+
+    /** Returns total count of ranges. */
+    @Override
+    public long getRangeCount() {
+        return mSnapshot.get().header.recordCount;
+    }
+
+    /** Returns count of operators, loads all operator names on the first call. */
+    @Override
+    public long getOperatorCount() {
+        return mSnapshot.get().getOperatorCount();
+    }
+
+    /** Returns count of regions, loads all region names on the first call. */
+    @Override
+    public long getRegionCount() {
+        return mSnapshot.get().getRegionCount();
+    }
+
+    /** Checks whether ranges of the code are already in memory. */
+    public boolean isLoaded(int regionCode) {
+        return mSnapshot.get().isLoaded(regionCode);
+    }
+
+    /**
+     * Returns name of the operator, loads all operator names on the first call.
+     * @return operator name or null if there is no operator with the id specified.
+     */
+    @Nullable
+    @Override
+    public String getOperatorName(int id) {
+        return mSnapshot.get().getOperatorName(id);
+    }
+
+    /**
+     * Returns name of the region, loads all region names on the first call.
+     * @return region name or null if there is no region with the id specified.
+     */
+    @Nullable
+    @Override
+    public String getRegionName(int id) {
+        return mSnapshot.get().getRegionName(id);
+    }
+
+    /**
+     * Loads all codes which are not in memory yet and names of operators and regions.
+     * Reads ranges in one pass, takes a while, so do not call it on the main thread.
+     * @return true if everything went fine.
+     */
+    public boolean loadAll() {
+        return mSnapshot.get().loadAll();
+    }
+
+    /** Starts background thread which calls {@link #loadAll()}. */
+    public void loadInBackground() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadAll();
+            }
+        }, "RussvyRangeIndex");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Nullable
+    private static RussvyRangeIndex open(@NonNull RussvyDataSource source) {
+        final RussvyDataSnapshot snapshot = RussvyDataSnapshot.open(source);
+        return snapshot != null ? new RussvyRangeIndex(snapshot) : null;
+    }
+
+    private boolean reload(@NonNull RussvyDataSource source) {
+        final RussvyDataSnapshot snapshot = RussvyDataSnapshot.open(source);
+        if (snapshot == null || !snapshot.loadAll()) {
+            return false;
+        }
+        mSnapshot.set(snapshot);
+        return true;
+    }
+}
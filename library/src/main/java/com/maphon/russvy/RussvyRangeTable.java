@@ -0,0 +1,140 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Immutable in-memory copy of all ranges of one code, sorted by range start.
+ * Used by {@link RussvyRangeIndex}.
+ * Binary search over a big sorted array misses cache on almost every probe, so large tables
+ * also keep starts in Eytzinger (breadth first) order: the first levels of the search share a
+ * few cache lines and the next probe is always close to the previous one.
+ */
+final class RussvyRangeTable {
+    /** Smaller tables fit in cache and are searched in the sorted array. */
+    private static final int EYTZINGER_MIN_SIZE = 1024;
+
+    final int code;
+    final int[] starts;
+    final int[] capacities;
+    final short[] operators;
+    final short[] regions;
+    /** Starts in Eytzinger order (1-based), null for small tables. */
+    @Nullable
+    private final int[] mEytzinger;
+    /** Positions in the sorted arrays of Eytzinger elements. */
+    @Nullable
+    private final int[] mEytzingerPositions;
+
+    private RussvyRangeTable(int code, @NonNull int[] starts, @NonNull int[] capacities,
+                             @NonNull short[] operators, @NonNull short[] regions) {
+        this.code = code;
+        this.starts = starts;
+        this.capacities = capacities;
+        this.operators = operators;
+        this.regions = regions;
+        if (starts.length >= EYTZINGER_MIN_SIZE) {
+            mEytzinger = new int[starts.length + 1];
+            mEytzingerPositions = new int[starts.length + 1];
+            fillEytzinger(0, 1);
+        } else {
+            mEytzinger = null;
+            mEytzingerPositions = null;
+        }
+    }
+
+    /**
+     * Reads records of the code from the asset stream.
+     * @param is stream positioned at the first record of the code.
+     * @param count count of records to read.
+     * @throws IOException if stream can not be read or contains records of another code.
+     */
+    @NonNull
+    static RussvyRangeTable read(@NonNull DataInputStream is, int code, int count)
+            throws IOException {
+        final int[] starts = new int[count];
+        final int[] capacities = new int[count];
+        final short[] operators = new short[count];
+        final short[] regions = new short[count];
+        for (int i = 0; i < count; i++) {
+            if (is.readShort() != code) {
+                throw new IOException("Unexpected code.");
+            }
+            starts[i] = is.readInt();
+            capacities[i] = is.readInt();
+            operators[i] = is.readShort();
+            regions[i] = is.readShort();
+        }
+        return new RussvyRangeTable(code, starts, capacities, operators, regions);
+    }
+
+    int size() {
+        return starts.length;
+    }
+
+    /** Returns position of the first range starting at the number or after it. */
+    int lowerBound(int localNumber) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (starts[middle] < localNumber) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Returns position of the range containing the number or -1 if there is no such range. */
+    int find(int localNumber) {
+        final int i = mEytzinger != null ? findInEytzinger(localNumber)
+                : findInSorted(localNumber);
+        return i >= 0 && localNumber - starts[i] < capacities[i] ? i : -1;
+    }
+
+    // Returns position of the last range starting at the number or before it, -1 if none.
+    private int findInSorted(int localNumber) {
+        int low = 0;
+        int high = starts.length - 1;
+        // Looking for the last range starting before the number
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (starts[middle] <= localNumber) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    // The same as findInSorted.
+    private int findInEytzinger(int localNumber) {
+        final int[] eytzinger = mEytzinger;
+        final int size = starts.length;
+        // Descending to the leaf, right if the element is not after the number
+        int k = 1;
+        while (k <= size) {
+            k = (k << 1) + (eytzinger[k] <= localNumber ? 1 : 0);
+        }
+        // Climbing back to the last left turn gives the first element after the number
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+        return (k == 0 ? size : mEytzingerPositions[k]) - 1;
+    }
+
+    // In-order walk of the implicit tree, returns next position in the sorted arrays.
+    private int fillEytzinger(int position, int k) {
+        if (k <= starts.length) {
+            position = fillEytzinger(position, k << 1);
+            mEytzinger[k] = starts[position];
+            mEytzingerPositions[k] = position;
+            position = fillEytzinger(position + 1, (k << 1) + 1);
+        }
+        return position;
+    }
+}
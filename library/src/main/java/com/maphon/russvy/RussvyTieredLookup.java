@@ -0,0 +1,362 @@
+package com.maphon.russvy;
+
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Lookups served from the fastest data source the memory allows.
+ * Sources (tiers), fastest first:
+ * - {@link Tier#MEMORY}: {@link RussvyRangeIndex}, several megabytes of Java heap;
+ * - {@link Tier#MAPPED}: memory mapped "ranges" asset, pages are reclaimable by the system;
+ *   available only if the asset is stored uncompressed (aaptOptions noCompress);
+ * - {@link Tier#DATABASE}: {@link RussvyDatabaseManager}, always available.
+ * Memory tier is built in the background on first use. Low memory signals (see
+ * {@link #onTrimMemory(int)}) drop it, lookups fall back to the next available tier at once and
+ * the memory tier is rebuilt when there was no pressure for {@link #DEFAULT_COOLDOWN_MS}.
+ * Database must contain the same data as the assets, e.g. imported with
+ * {@link RussvyAssetReader#importIfNeeded(Context, int)}. User overrides of the database
+ * (see {@link RussvyDatabaseManager#getOverrides()}) apply to all tiers, they are loaded together
+ * with the memory tier, so its lookups never wait for the database. If the import is limited
+ * with {@link RussvyAssetReader#setCodes(int[])}, limit the lookup with {@link #setCodes(int[])}
+ * too.
+ * Lookup is thread safe. Memory callbacks are registered with
+ * {@link #registerMemoryCallbacks()} on API 14+, older versions should forward
+ * Application.onLowMemory() to {@link #onLowMemory()}.
+ */
+public final class RussvyTieredLookup implements RussvyLookupSource, RussvyNameSource {
+    /** Default time without memory pressure after which memory tier is rebuilt. */
+    public static final long DEFAULT_COOLDOWN_MS = 60 * 1000;
+
+    /** Data sources, fastest first. */
+    public enum Tier {
+        MEMORY,
+        MAPPED,
+        DATABASE
+    }
+
+    @NonNull
+    private final Context mContext;
+    @Nullable
+    private final String mPath;
+    @NonNull
+    private final RussvyDatabaseManager mManager;
+    private final long mCooldownMs;
+
+    private final Object mLock = new Object();
+    @Nullable
+    private volatile RussvyRangeIndex mMemory;
+    /** Opened on first use, stays null if the asset can not be mapped. Guarded by mLock. */
+    @Nullable
+    private volatile RussvyMappedRangeIndex mMapped;
+    private volatile boolean mMappedOpened;
+    @Nullable
+    private volatile RussvyPortingOverlay mPortingOverlay;
+    /** Codes served by memory and mapped tiers, null for all. */
+    @Nullable
+    private volatile boolean[] mCodes;
+    /** Memory tier is not built before this time (elapsed realtime). */
+    private volatile long mRebuildTime;
+    /** Incremented on every memory pressure signal. Guarded by mLock. */
+    private int mPressureCount;
+    /** Guarded by mLock. */
+    private boolean mRebuilding;
+    /** Guarded by mLock. */
+    @Nullable
+    private ComponentCallbacks mCallbacks;
+
+    /** Creates lookup with default cooldown. */
+    public RussvyTieredLookup(@NonNull Context context, @Nullable String path,
+                              @NonNull RussvyDatabaseManager manager) {
+        this(context, path, manager, DEFAULT_COOLDOWN_MS);
+    }
+
+    /**
+     * Creates lookup. Does not build any tier yet.
+     * @param path path in asset directory the the Rossvyaz data files.
+     * @param manager database with the same data as the assets.
+     * @param cooldownMs time without memory pressure after which memory tier is rebuilt.
+     */
+    public RussvyTieredLookup(@NonNull Context context, @Nullable String path,
+                              @NonNull RussvyDatabaseManager manager, long cooldownMs) {
+        mContext = context.getApplicationContext();
+        mPath = path;
+        mManager = manager;
+        mCooldownMs = Math.max(0, cooldownMs);
+    }
+
+    /** Returns tier which serves lookups at the moment. */
+    @NonNull
+    public Tier getTier() {
+        final RussvyLookupSource source = getSource();
+        return source == mManager ? Tier.DATABASE
+                : source instanceof RussvyMappedRangeIndex ? Tier.MAPPED : Tier.MEMORY;
+    }
+
+    /**
+     * Sets ported numbers for all tiers, the database manager included.
+     * @param overlay ported numbers or null to use range operators only.
+     */
+    @Override
+    public void setPortingOverlay(@Nullable RussvyPortingOverlay overlay) {
+        synchronized (mLock) {
+            mPortingOverlay = overlay;
+            final RussvyRangeIndex memory = mMemory;
+            if (memory != null) {
+                memory.setPortingOverlay(overlay);
+            }
+            final RussvyMappedRangeIndex mapped = mMapped;
+            if (mapped != null) {
+                mapped.setPortingOverlay(overlay);
+            }
+        }
+        mManager.setPortingOverlay(overlay);
+    }
+
+    /**
+     * Limits memory and mapped tiers to ranges of the codes, so that they give the same results
+     * as the database limited with {@link RussvyAssetReader#setCodes(int[])}.
+     * @param codes codes imported into the database or null if everything is imported.
+     */
+    public void setCodes(@Nullable int[] codes) {
+        mCodes = RussvyUtils.getCodeSet(codes);
+    }
+
+    @Nullable
+    @Override
+    public RussvyLookupResult lookup(long number) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        return lookup(number, result) ? result : null;
+    }
+
+    @Override
+    public boolean lookup(long number, @NonNull RussvyLookupResult out) {
+        final RussvyLookupSource source = getSource();
+        boolean found = (source == mManager || isSelected(number)) && source.lookup(number, out);
+        // The database applies user overrides itself
+        if (source != mManager) {
+            found = mManager.getOverrides().apply(number, out, found);
+        }
+        if (found) {
+            // Names of a dropped tier must not keep it in memory
+            out.setSource(this);
+        }
+        return found;
+    }
+
+    @NonNull
+    @Override
+    public RussvyLookupResult[] lookup(@NonNull long[] numbers) {
+        final RussvyLookupSource source = getSource();
+        final RussvyLookupResult[] results = source.lookup(numbers);
+        if (source != mManager) {
+            final RussvyOverrides overrides = mManager.getOverrides();
+            for (int i = 0; i < numbers.length; i++) {
+                results[i] = overrides.apply(numbers[i],
+                        isSelected(numbers[i]) ? results[i] : null);
+            }
+        }
+        for (RussvyLookupResult result : results) {
+            if (result != null) {
+                result.setSource(this);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int getRanges(int regionCode, int fromStart, @NonNull RussvyRangeBlock block) {
+        final RussvyLookupSource source = getSource();
+        final boolean[] codes = mCodes;
+        if (source != mManager && codes != null
+                && (regionCode < 0 || regionCode >= codes.length || !codes[regionCode])) {
+            block.reset(regionCode);
+            return 0;
+        }
+        return source.getRanges(regionCode, fromStart, block);
+    }
+
+    /**
+     * Returns total count of ranges. Counted by the database if codes are limited, see
+     * {@link #setCodes(int[])}.
+     */
+    @Override
+    public long getRangeCount() {
+        return mCodes != null ? mManager.getRangeCount() : getSource().getRangeCount();
+    }
+
+    @Override
+    public long getOperatorCount() {
+        return getSource().getOperatorCount();
+    }
+
+    @Override
+    public long getRegionCount() {
+        return getSource().getRegionCount();
+    }
+
+    @Nullable
+    @Override
+    public String getOperatorName(int id) {
+        return getSource().getOperatorName(id);
+    }
+
+    @Nullable
+    @Override
+    public String getRegionName(int id) {
+        return getSource().getRegionName(id);
+    }
+
+    /**
+     * Registers {@link #onTrimMemory(int)} and {@link #onLowMemory()} as application callbacks.
+     * Does nothing before API 14.
+     */
+    public void registerMemoryCallbacks() {
+        if (Build.VERSION.SDK_INT < 14) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mCallbacks == null) {
+                mCallbacks = new MemoryCallbacks(this);
+                mContext.registerComponentCallbacks(mCallbacks);
+            }
+        }
+    }
+
+    /** Unregisters callbacks registered by {@link #registerMemoryCallbacks()}. */
+    public void unregisterMemoryCallbacks() {
+        synchronized (mLock) {
+            if (mCallbacks != null) {
+                mContext.unregisterComponentCallbacks(mCallbacks);
+                mCallbacks = null;
+            }
+        }
+    }
+
+    /**
+     * Drops memory tier if the level means memory pressure (running low or worse, or the
+     * process is in background LRU list). See ComponentCallbacks2 for levels.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            dropMemoryTier();
+        }
+    }
+
+    /** Drops memory tier. */
+    public void onLowMemory() {
+        dropMemoryTier();
+    }
+
+    private boolean isSelected(long number) {
+        final boolean[] codes = mCodes;
+        return codes == null || number >= 0 && number < RussvyUtils.MAX_NUMBER
+                && codes[RussvyUtils.getCode(number)];
+    }
+
+    @NonNull
+    private RussvyLookupSource getSource() {
+        final RussvyRangeIndex memory = mMemory;
+        if (memory != null) {
+            return memory;
+        }
+        rebuildIfNeeded();
+        final RussvyMappedRangeIndex mapped = getMapped();
+        return mapped != null ? mapped : mManager;
+    }
+
+    @Nullable
+    private RussvyMappedRangeIndex getMapped() {
+        if (mMappedOpened) {
+            return mMapped;
+        }
+        synchronized (mLock) {
+            if (!mMappedOpened) {
+                final RussvyMappedRangeIndex mapped =
+                        RussvyMappedRangeIndex.open(RussvyDataSource.assets(mContext, mPath));
+                if (mapped != null) {
+                    mapped.setPortingOverlay(mPortingOverlay);
+                }
+                mMapped = mapped;
+                mMappedOpened = true;
+            }
+            return mMapped;
+        }
+    }
+
+    private void dropMemoryTier() {
+        synchronized (mLock) {
+            mPressureCount++;
+            mMemory = null;
+            mRebuildTime = SystemClock.elapsedRealtime() + mCooldownMs;
+        }
+    }
+
+    private void rebuildIfNeeded() {
+        if (SystemClock.elapsedRealtime() < mRebuildTime) {
+            return;
+        }
+        final int pressureCount;
+        synchronized (mLock) {
+            if (mRebuilding || mMemory != null) {
+                return;
+            }
+            mRebuilding = true;
+            pressureCount = mPressureCount;
+        }
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final RussvyRangeIndex index = RussvyRangeIndex.open(mContext, mPath);
+                final boolean loaded = index != null && index.loadAll();
+                if (loaded) {
+                    // Otherwise the first lookup of the tier would read them from the database
+                    mManager.getOverrides();
+                }
+                synchronized (mLock) {
+                    mRebuilding = false;
+                    if (!loaded) {
+                        // Try again later rather than on every lookup
+                        mRebuildTime = SystemClock.elapsedRealtime() + mCooldownMs;
+                    } else if (pressureCount == mPressureCount) {
+                        index.setPortingOverlay(mPortingOverlay);
+                        mMemory = index;
+                    }
+                }
+            }
+        }, "RussvyTieredLookup");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // Kept separate, ComponentCallbacks2 does not exist before API 14.
+    private static final class MemoryCallbacks implements ComponentCallbacks2 {
+        @NonNull
+        private final RussvyTieredLookup mLookup;
+
+        MemoryCallbacks(@NonNull RussvyTieredLookup lookup) {
+            mLookup = lookup;
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            mLookup.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            mLookup.onLowMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            // intentionally blank
+        }
+    }
+}
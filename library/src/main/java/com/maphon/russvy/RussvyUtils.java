@@ -12,9 +12,34 @@ import java.util.Date;
 import java.util.Locale;
 
 final class RussvyUtils {
+    /** Codes are three digit numbers. */
+    static final int CODE_COUNT = 1000;
+    /** Numbers inside the code are seven digit numbers. */
+    static final int NUMBERS_PER_CODE = 10000000;
+    /** Upper bound (exclusive) of ten digit phone numbers. */
+    static final long MAX_NUMBER = (long) CODE_COUNT * NUMBERS_PER_CODE;
+
     private RussvyUtils() {
     }
 
+    /**
+     * Returns set of the codes indexed by code, codes out of range are left out.
+     * @return set or null if codes are null (all codes).
+     */
+    @Nullable
+    static boolean[] getCodeSet(@Nullable int[] codes) {
+        if (codes == null) {
+            return null;
+        }
+        final boolean[] set = new boolean[CODE_COUNT];
+        for (int code : codes) {
+            if (code >= 0 && code < CODE_COUNT) {
+                set[code] = true;
+            }
+        }
+        return set;
+    }
+
     @Nullable
     public static Date parseDate(@NonNull String format, @Nullable String date) {
         if (date == null) {
@@ -39,6 +64,21 @@ final class RussvyUtils {
         }
     }
 
+    /** Returns code of the ten digit phone number, e.g. 921 for 9215000000. */
+    public static int getCode(long number) {
+        return (int) (number / NUMBERS_PER_CODE);
+    }
+
+    /** Returns number inside the code, e.g. 5000000 for 9215000000. */
+    public static int getLocalNumber(long number) {
+        return (int) (number % NUMBERS_PER_CODE);
+    }
+
+    /** Builds ten digit phone number from its code and number inside the code. */
+    public static long getNumber(int code, int localNumber) {
+        return (long) code * NUMBERS_PER_CODE + localNumber;
+    }
+
     // Cursor does not implement Closeable in API < 16.
     public static void closeCursor(@Nullable Cursor c) {
         if (c != null) c.close();
@@ -0,0 +1,55 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Tells how long each step of {@link RussvyDatabaseManager#warmUp()} took.
+ * All durations are in microseconds.
+ */
+public final class RussvyWarmUpReport {
+    private final long mOpenMicros;
+    private final long mPrepareMicros;
+    private final long mNamesMicros;
+    private final long mPagesMicros;
+
+    RussvyWarmUpReport(long openMicros, long prepareMicros, long namesMicros, long pagesMicros) {
+        mOpenMicros = openMicros;
+        mPrepareMicros = prepareMicros;
+        mNamesMicros = namesMicros;
+        mPagesMicros = pagesMicros;
+    }
+
+    /** Returns time spent on opening (and creating/migrating, if needed) the database. */
+    public long getOpenMicros() {
+        return mOpenMicros;
+    }
+
+    /** Returns time spent on compiling lookup statements. */
+    public long getPrepareMicros() {
+        return mPrepareMicros;
+    }
+
+    /** Returns time spent on loading operator and region names into memory. */
+    public long getNamesMicros() {
+        return mNamesMicros;
+    }
+
+    /** Returns time spent on reading range pages from storage. */
+    public long getPagesMicros() {
+        return mPagesMicros;
+    }
+
+    /** Returns total time of the warm-up. */
+    public long getTotalMicros() {
+        return mOpenMicros + mPrepareMicros + mNamesMicros + mPagesMicros;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "open %d us, prepare %d us, names %d us, pages %d us",
+                mOpenMicros, mPrepareMicros, mNamesMicros, mPagesMicros);
+    }
+}
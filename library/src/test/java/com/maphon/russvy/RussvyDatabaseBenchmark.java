@@ -0,0 +1,526 @@
+package com.maphon.russvy;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmark and soak test of the SQLite data layer ({@link RussvyDatabaseManager},
+ * {@link RussvyAssetReader}) on a plain JVM, over the assets of the repository.
+ * Robolectric runs the framework database classes on top of native SQLite. Absolute numbers
+ * differ from a device, and Robolectric does all SQLite calls on a single worker thread, so
+ * the multi-threaded figures show contention rather than parallelism. Runs on the same machine
+ * are comparable though: random numbers use a fixed seed and every timing is a median of
+ * several runs, so a data layer change can be judged by running the benchmark before and after
+ * it.
+ * Both tests are skipped unless enabled, see testOptions in build.gradle. Results are printed
+ * and written to build/reports/russvy-<test>.tsv as name, value and unit separated by tabs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyDatabaseBenchmark {
+    private static final long SEED = 20170201L;
+    private static final String DATABASE_NAME = "benchmark.db";
+    private static final String REPORT_FORMAT = "build/reports/russvy-%s.tsv";
+
+    private static final int[] BATCH_COUNTS = {100, RussvyAssetReader.DEFAULT_BATCH_COUNT, 10000};
+    private static final int[] PARTITION_COUNTS = {2, 4};
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int LOOKUP_COUNT = 20000;
+    private static final int BATCH_LOOKUP_SIZE = 100;
+    private static final int NAME_PASSES = 10;
+    private static final int SLOWEST_CODE_COUNT = 5;
+
+    private static final int SOAK_THREAD_COUNT = 4;
+    private static final int SOAK_NUMBER_COUNT = 10000;
+    private static final long SOAK_SINK_PERIOD_MS = 10000;
+
+    private final List<String> mResults = new ArrayList<String>();
+    private Context mContext;
+    private RussvyRangeIndex mIndex;
+    /** Codes which have ranges, ascending. */
+    private int[] mCodes;
+    private int mRuns;
+
+    /**
+     * Imports the assets with different settings, then measures range reading, name and lookup
+     * latency and lookup throughput with several threads.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("russvy.benchmark"));
+        prepare();
+
+        benchmarkImport();
+        importData(DATABASE_NAME, RussvyAssetReader.DEFAULT_BATCH_COUNT, 1);
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(mContext, DATABASE_NAME);
+        try {
+            benchmarkRanges(manager);
+            benchmarkLookups(manager);
+        } finally {
+            manager.close();
+        }
+        // Fresh manager, names are not cached yet
+        benchmarkNames();
+        writeReport("benchmark");
+    }
+
+    /**
+     * Runs lookups, range reads and name queries from several threads for the configured time
+     * and checks every answer against the one given by a single thread before.
+     */
+    @Test
+    public void soak() throws Exception {
+        final int seconds = Integer.getInteger("russvy.soak.seconds", 0);
+        assumeTrue(seconds > 0);
+        prepare();
+
+        importData(DATABASE_NAME, RussvyAssetReader.DEFAULT_BATCH_COUNT, 1);
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(mContext, DATABASE_NAME);
+        final long[] numbers = createNumbers(SOAK_NUMBER_COUNT);
+        final RussvyLookupResult[] expectedResults = new RussvyLookupResult[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            expectedResults[i] = manager.lookup(numbers[i]);
+        }
+        final RussvyRangeBlock block = new RussvyRangeBlock();
+        final int[] expectedRangeCounts = new int[mCodes.length];
+        for (int i = 0; i < mCodes.length; i++) {
+            expectedRangeCounts[i] = readRanges(manager, mCodes[i], block);
+        }
+        // Read one by one from the database, warmUp() switches to the cache in the middle
+        final String[] expectedOperators = new String[(int) manager.getOperatorCount()];
+        for (int i = 0; i < expectedOperators.length; i++) {
+            expectedOperators[i] = manager.getOperatorName(i);
+        }
+
+        final RussvyMetrics metrics = new RussvyMetrics();
+        manager.setMetrics(metrics);
+        metrics.setSink(new RussvyMetrics.Sink() {
+            private RussvyMetrics.Snapshot mPrevious = metrics.getSnapshot();
+
+            @Override
+            public void onMetrics(@NonNull RussvyMetrics.Snapshot snapshot) {
+                System.out.print(snapshot.minus(mPrevious));
+                mPrevious = snapshot;
+            }
+        }, SOAK_SINK_PERIOD_MS);
+
+        final long heapBefore = getUsedHeap();
+        final AtomicLong operationCount = new AtomicLong();
+        final AtomicLong mismatchCount = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final Thread[] threads = new Thread[SOAK_THREAD_COUNT];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(SEED + t);
+            final boolean warmsUp = t == 0;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final RussvyLookupResult result = new RussvyLookupResult();
+                    final RussvyRangeBlock block = new RussvyRangeBlock();
+                    final long[] batch = new long[BATCH_LOOKUP_SIZE];
+                    final int[] batchIndexes = new int[BATCH_LOOKUP_SIZE];
+                    long operations = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            final int operation = random.nextInt(100);
+                            if (operation < 80) {
+                                final int i = random.nextInt(numbers.length);
+                                final RussvyLookupResult expected = expectedResults[i];
+                                final boolean found = manager.lookup(numbers[i], result);
+                                if (found != (expected != null)
+                                        || found && !isSameRange(expected, result)) {
+                                    mismatchCount.incrementAndGet();
+                                }
+                            } else if (operation < 90) {
+                                for (int j = 0; j < batch.length; j++) {
+                                    batchIndexes[j] = random.nextInt(numbers.length);
+                                    batch[j] = numbers[batchIndexes[j]];
+                                }
+                                final RussvyLookupResult[] results = manager.lookup(batch);
+                                for (int j = 0; j < batch.length; j++) {
+                                    if (!isSameRange(expectedResults[batchIndexes[j]],
+                                            results[j])) {
+                                        mismatchCount.incrementAndGet();
+                                    }
+                                }
+                            } else if (operation < 95) {
+                                final int i = random.nextInt(mCodes.length);
+                                if (readRanges(manager, mCodes[i], block)
+                                        != expectedRangeCounts[i]) {
+                                    mismatchCount.incrementAndGet();
+                                }
+                            } else {
+                                final int id = random.nextInt(expectedOperators.length);
+                                final String name = manager.getOperatorName(id);
+                                if (name == null || !name.equals(expectedOperators[id])) {
+                                    mismatchCount.incrementAndGet();
+                                }
+                            }
+                            if (warmsUp && ++operations % 10000 == 0) {
+                                manager.warmUp();
+                            }
+                            operationCount.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "RussvySoak" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        metrics.setSink(null, 0);
+        manager.close();
+
+        report("soak.operations", operationCount.get() / seconds, "ops/s");
+        report("soak.mismatches", mismatchCount.get(), "count");
+        report("soak.heap_growth", (getUsedHeap() - heapBefore) / 1024, "KiB");
+        System.out.print(metrics.getSnapshot());
+        writeReport("soak");
+        assertNull("Soak thread failed: " + failure.get(), failure.get());
+        assertEquals(0, mismatchCount.get());
+    }
+
+    private void prepare() {
+        mContext = RuntimeEnvironment.application;
+        mRuns = Math.max(1, Integer.getInteger("russvy.benchmark.runs", 3));
+        mIndex = RussvyRangeIndex.open(mContext, null);
+        assertNotNull("Assets not found", mIndex);
+        final List<Integer> codes = new ArrayList<Integer>();
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            if (mIndex.getRangeCount(code) > 0) {
+                codes.add(code);
+            }
+        }
+        mCodes = new int[codes.size()];
+        for (int i = 0; i < mCodes.length; i++) {
+            mCodes[i] = codes.get(i);
+        }
+        final Date dataAge = mIndex.getDataAge();
+        System.out.println(String.format(Locale.US,
+                "Java %s, %s %s, %d CPUs, %d runs, seed %d, data of %tF, %d ranges",
+                System.getProperty("java.version"), System.getProperty("os.name"),
+                System.getProperty("os.arch"), Runtime.getRuntime().availableProcessors(), mRuns,
+                SEED, dataAge, mIndex.getRangeCount()));
+    }
+
+    private void benchmarkImport() {
+        for (int batchCount : BATCH_COUNTS) {
+            final long[] millis = new long[mRuns];
+            for (int run = 0; run < mRuns; run++) {
+                millis[run] = importData(DATABASE_NAME, batchCount, 1);
+            }
+            report("import.batch" + batchCount, median(millis), "ms");
+        }
+        for (int partitionCount : PARTITION_COUNTS) {
+            final long[] millis = new long[mRuns];
+            for (int run = 0; run < mRuns; run++) {
+                millis[run] = importData(DATABASE_NAME, RussvyAssetReader.DEFAULT_BATCH_COUNT,
+                        partitionCount);
+            }
+            report("import.partitions" + partitionCount, median(millis), "ms");
+        }
+    }
+
+    /** Reads ranges of every code, page by page and with the cursor. */
+    private void benchmarkRanges(@NonNull RussvyDatabaseManager manager) {
+        final RussvyRangeBlock block = new RussvyRangeBlock();
+        final long[][] micros = new long[mCodes.length][mRuns + 1];
+        final long[] cursorMillis = new long[mRuns + 1];
+        // Run 0 warms up the page cache and is not counted
+        for (int run = 0; run <= mRuns; run++) {
+            final long cursorStart = System.nanoTime();
+            for (int code : mCodes) {
+                final Cursor cursor = manager.getRanges(code);
+                while (cursor != null && cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+                RussvyUtils.closeCursor(cursor);
+            }
+            cursorMillis[run] = (System.nanoTime() - cursorStart) / 1000000;
+            for (int i = 0; i < mCodes.length; i++) {
+                final long start = System.nanoTime();
+                readRanges(manager, mCodes[i], block);
+                micros[i][run] = (System.nanoTime() - start) / 1000;
+            }
+        }
+        report("ranges.cursor_all_codes", median(Arrays.copyOfRange(cursorMillis, 1, mRuns + 1)),
+                "ms");
+
+        // Median of the runs for every code
+        final long[] codeMicros = new long[mCodes.length];
+        long total = 0;
+        for (int i = 0; i < mCodes.length; i++) {
+            codeMicros[i] = median(Arrays.copyOfRange(micros[i], 1, mRuns + 1));
+            total += codeMicros[i];
+        }
+        report("ranges.block_all_codes", total / 1000, "ms");
+        final long[] sorted = codeMicros.clone();
+        Arrays.sort(sorted);
+        report("ranges.code_p50", sorted[sorted.length / 2], "us");
+        report("ranges.code_p90", sorted[sorted.length * 9 / 10], "us");
+        report("ranges.code_max", sorted[sorted.length - 1], "us");
+        final Integer[] order = new Integer[mCodes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return codeMicros[a] != codeMicros[b] ? (codeMicros[a] > codeMicros[b] ? -1 : 1)
+                        : a - b;
+            }
+        });
+        for (int i = 0; i < Math.min(SLOWEST_CODE_COUNT, order.length); i++) {
+            final int code = mCodes[order[i]];
+            report("ranges.code" + code + "_" + mIndex.getRangeCount(code) + "_ranges",
+                    codeMicros[order[i]], "us");
+        }
+    }
+
+    private void benchmarkLookups(@NonNull RussvyDatabaseManager manager)
+            throws InterruptedException {
+        final long[] numbers = createNumbers(LOOKUP_COUNT);
+        final RussvyLookupResult result = new RussvyLookupResult();
+        for (long number : numbers) {
+            manager.lookup(number, result);
+        }
+
+        // Latency of single lookups from one thread
+        final RussvyMetrics metrics = new RussvyMetrics();
+        manager.setMetrics(metrics);
+        for (int run = 0; run < mRuns; run++) {
+            for (long number : numbers) {
+                manager.lookup(number, result);
+            }
+        }
+        final RussvyMetrics.Snapshot snapshot = metrics.getSnapshot();
+        final RussvyMetrics.Method method = RussvyMetrics.Method.LOOKUP;
+        report("lookup.avg", snapshot.getTotalMicros(method) * 1000
+                / Math.max(1, snapshot.getCallCount(method)), "ns");
+        report("lookup.p50", snapshot.getPercentileMicros(method, 0.5), "us");
+        report("lookup.p99", snapshot.getPercentileMicros(method, 0.99), "us");
+        manager.setMetrics(null);
+
+        for (int threadCount : THREAD_COUNTS) {
+            final long[] rates = new long[mRuns];
+            for (int run = 0; run < mRuns; run++) {
+                rates[run] = runLookups(manager, numbers, threadCount);
+            }
+            report("lookup.threads" + threadCount, median(rates), "lookups/s");
+        }
+
+        final long[] batchRates = new long[mRuns];
+        final long[] batch = new long[BATCH_LOOKUP_SIZE];
+        for (int run = 0; run < mRuns; run++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i + batch.length <= numbers.length; i += batch.length) {
+                System.arraycopy(numbers, i, batch, 0, batch.length);
+                manager.lookup(batch);
+            }
+            batchRates[run] = numbers.length * 1000000000L / Math.max(1, System.nanoTime() - start);
+        }
+        report("lookup.batch" + BATCH_LOOKUP_SIZE, median(batchRates), "lookups/s");
+    }
+
+    /** Names one by one from the database, then from the cache filled by warmUp(). */
+    private void benchmarkNames() {
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(mContext, DATABASE_NAME);
+        try {
+            final int operatorCount = (int) manager.getOperatorCount();
+            final int regionCount = (int) manager.getRegionCount();
+            report("names.database", timeNames(manager, operatorCount, regionCount), "ns");
+            report("names.warm_up", manager.warmUp().getTotalMicros() / 1000, "ms");
+            report("names.cache", timeNames(manager, operatorCount, regionCount), "ns");
+        } finally {
+            manager.close();
+        }
+    }
+
+    /** Returns median time of a name query. */
+    private long timeNames(@NonNull RussvyDatabaseManager manager, int operatorCount,
+                           int regionCount) {
+        final long[] nanos = new long[mRuns];
+        final long callCount = (long) NAME_PASSES * (operatorCount + regionCount);
+        for (int run = 0; run < mRuns; run++) {
+            final long start = System.nanoTime();
+            for (int pass = 0; pass < NAME_PASSES; pass++) {
+                for (int id = 0; id < operatorCount; id++) {
+                    assertNotNull(manager.getOperatorName(id));
+                }
+                for (int id = 0; id < regionCount; id++) {
+                    assertNotNull(manager.getRegionName(id));
+                }
+            }
+            nanos[run] = (System.nanoTime() - start) / Math.max(1, callCount);
+        }
+        return median(nanos);
+    }
+
+    /**
+     * Imports assets into a new database.
+     * @return time the import took, ms.
+     */
+    private long importData(@NonNull String name, int batchCount, int partitionCount) {
+        mContext.deleteDatabase(name);
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(mContext, name);
+        try {
+            final RussvyAssetReader reader = new RussvyAssetReader(null, manager, null);
+            reader.setPartitionCount(partitionCount);
+            final long start = System.nanoTime();
+            assertTrue("Import failed", reader.importIfNeeded(mContext, batchCount));
+            final long millis = (System.nanoTime() - start) / 1000000;
+            assertEquals(mIndex.getRangeCount(), manager.getRangeCount());
+            return millis;
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Returns numbers to look up: half of them are in ranges, the rest are random numbers of
+     * codes which have ranges. Same numbers for the same count.
+     */
+    @NonNull
+    private long[] createNumbers(int count) {
+        final Random random = new Random(SEED);
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        final long[] numbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            final int code = mCodes[random.nextInt(mCodes.length)];
+            final int localNumber = random.nextInt(RussvyUtils.NUMBERS_PER_CODE);
+            if (i % 2 == 0 && mIndex.getRanges(code, localNumber, block) > 0) {
+                numbers[i] = RussvyUtils.getNumber(code, block.getStarts()[0]
+                        + random.nextInt(block.getCapacities()[0]));
+            } else {
+                numbers[i] = RussvyUtils.getNumber(code, localNumber);
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Looks up all the numbers, split between the threads.
+     * @return lookups per second.
+     */
+    private static long runLookups(@NonNull final RussvyDatabaseManager manager,
+                                   @NonNull final long[] numbers, final int threadCount)
+            throws InterruptedException {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int first = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final RussvyLookupResult result = new RussvyLookupResult();
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = first; i < numbers.length; i += threadCount) {
+                        manager.lookup(numbers[i], result);
+                    }
+                }
+            }, "RussvyLookup" + t);
+            threads[t].start();
+        }
+        final long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return numbers.length * 1000000000L / Math.max(1, System.nanoTime() - start);
+    }
+
+    /** Reads all ranges of the code page by page, returns their count. */
+    private static int readRanges(@NonNull RussvyDatabaseManager manager, int code,
+                                  @NonNull RussvyRangeBlock block) {
+        int count = 0;
+        int fromStart = 0;
+        while (manager.getRanges(code, fromStart, block) > 0) {
+            count += block.size();
+            if (!block.isFull()) {
+                break;
+            }
+            fromStart = block.getNextStart();
+        }
+        return count;
+    }
+
+    private static boolean isSameRange(@Nullable RussvyLookupResult a,
+                                       @Nullable RussvyLookupResult b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getCode() == b.getCode() && a.getStart() == b.getStart()
+                && a.getCapacity() == b.getCapacity() && a.getOperatorId() == b.getOperatorId()
+                && a.getRegionId() == b.getRegionId();
+    }
+
+    private static long median(@NonNull long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void report(@NonNull String name, long value, @NonNull String unit) {
+        final String line = name + "\t" + value + "\t" + unit;
+        mResults.add(line);
+        System.out.println(line);
+    }
+
+    private void writeReport(@NonNull String test) throws FileNotFoundException {
+        final File report = new File(String.format(REPORT_FORMAT, test));
+        final File directory = report.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Can not create " + directory);
+        }
+        final PrintWriter writer = new PrintWriter(report);
+        try {
+            for (String line : mResults) {
+                writer.println(line);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.maphon.russvy;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyDatabaseManagerTest {
+    private static final String DATABASE_NAME = "manager.db";
+    /** Imported codes, the full import takes too long for a unit test. */
+    static final int[] CODES = {812, 921};
+
+    private RussvyDatabaseManager mManager;
+
+    @Before
+    public void setUp() {
+        mManager = new RussvyDatabaseManager(RuntimeEnvironment.application, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void pagesThroughRangesInBlocks() {
+        importData(mManager);
+        final RussvyRangeIndex index = RussvyRangeIndex.open(new File("../assets"));
+        assertNotNull(index);
+        final RussvyRangeBlock block = new RussvyRangeBlock(100);
+        final RussvyRangeBlock expected = new RussvyRangeBlock(100);
+        for (int code : CODES) {
+            int count = 0;
+            int start = 0;
+            while (mManager.getRanges(code, start, block) > 0) {
+                assertEquals(code, block.getCode());
+                assertEquals(block.size(), index.getRanges(code, start, expected));
+                assertArrayEquals(copy(expected.getStarts(), expected.size()),
+                        copy(block.getStarts(), block.size()));
+                assertArrayEquals(copy(expected.getCapacities(), expected.size()),
+                        copy(block.getCapacities(), block.size()));
+                count += block.size();
+                start = block.getNextStart();
+            }
+            assertEquals(index.getRangeCount(code), count);
+        }
+        // Codes which are not imported
+        assertEquals(0, mManager.getRanges(495, 0, block));
+        assertEquals(495, block.getCode());
+    }
+
+    @Test
+    public void migratesVersion1Database() {
+        // Schema of the first release: ranges keyed by code and start within the code
+        final SQLiteOpenHelper helper = new SQLiteOpenHelper(RuntimeEnvironment.application,
+                DATABASE_NAME, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE range (code INTEGER, start INTEGER, capacity INTEGER,"
+                        + " operator INTEGER, region INTEGER);");
+                db.execSQL("CREATE TABLE operator (id INTEGER, name TEXT);");
+                db.execSQL("CREATE TABLE region (id INTEGER, name TEXT);");
+                db.execSQL("INSERT INTO range VALUES (921, 100, 50, 0, 1);");
+                db.execSQL("INSERT INTO range VALUES (921, 9999000, 1000, 1, 0);");
+                db.execSQL("INSERT INTO operator VALUES (0, 'ПАО \"МегаФон\"');");
+                db.execSQL("INSERT INTO operator VALUES (1, 'ПАО \"ВымпелКом\"');");
+                db.execSQL("INSERT INTO region VALUES (0, 'г. Москва');");
+                db.execSQL("INSERT INTO region VALUES (1, 'г. Санкт-Петербург');");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                // intentionally blank
+            }
+        };
+        helper.getWritableDatabase();
+        helper.close();
+
+        final RussvyLookupResult result = mManager.lookup(9210000149L);
+        assertNotNull(result);
+        assertEquals(921, result.getCode());
+        assertEquals(100, result.getStart());
+        assertEquals(50, result.getCapacity());
+        assertEquals("ПАО \"МегаФон\"", result.getOperatorName());
+        assertEquals("г. Санкт-Петербург", result.getRegionName());
+        assertNull(mManager.lookup(9210000150L));
+        assertNotNull(mManager.lookup(9219999999L));
+        assertEquals(2, mManager.getRangeCount());
+        // Indexes of version 3 and overrides of version 4
+        assertArrayEquals(new int[] {1}, mManager.findOperators("вымпел"));
+        final Cursor cursor = mManager.getOperatorRanges(1);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        assertTrue(mManager.getOverrides().set(9210000001L, "Дом"));
+        assertTrue(mManager.getOverrides().flush());
+    }
+
+    @Test
+    public void reportsWarmUpSteps() {
+        importData(mManager);
+        final RussvyMetrics metrics = new RussvyMetrics();
+        mManager.setMetrics(metrics);
+        final RussvyWarmUpReport report = mManager.warmUp();
+        assertTrue(report.getOpenMicros() >= 0);
+        assertTrue(report.getPrepareMicros() >= 0);
+        assertTrue(report.getNamesMicros() >= 0);
+        assertTrue(report.getPagesMicros() >= 0);
+        assertEquals(report.getOpenMicros() + report.getPrepareMicros()
+                + report.getNamesMicros() + report.getPagesMicros(), report.getTotalMicros());
+        assertTrue(report.toString().contains("pages " + report.getPagesMicros() + " us"));
+        // Names are served from memory after the warm-up
+        assertNotNull(mManager.getOperatorName(0));
+        assertEquals(1, metrics.getSnapshot().getCacheHits(RussvyMetrics.Method.GET_OPERATOR_NAME));
+    }
+
+    @Test
+    public void warmUpReadsRangeTable() {
+        // Counting would read the smallest index instead of the table pages
+        final Cursor cursor = mManager.getReadableDatabase().rawQuery(
+                "EXPLAIN QUERY PLAN " + RussvyDatabaseHelper.SQL_TOUCH_RANGES, null);
+        assertTrue(cursor.moveToFirst());
+        final String detail = cursor.getString(cursor.getColumnIndex("detail"));
+        cursor.close();
+        assertTrue(detail, detail.startsWith("SCAN TABLE range"));
+        assertFalse(detail, detail.contains("INDEX"));
+    }
+
+    @Test
+    public void compactsAfterImport() {
+        final RussvyAssetReader reader = new RussvyAssetReader(null, mManager, null);
+        reader.setCodes(CODES);
+        reader.setCompaction(true, 8192);
+        assertTrue(reader.importIfNeeded(RuntimeEnvironment.application,
+                RussvyAssetReader.DEFAULT_BATCH_COUNT));
+        final RussvyCompactionReport report = reader.getCompactionReport();
+        assertNotNull(report);
+        assertEquals(8192, report.getPageSize());
+        assertEquals(8192, mManager.getReadableDatabase().getPageSize());
+        assertTrue(report.getFinalSize() > 0);
+        assertEquals(new File(mManager.getReadableDatabase().getPath()).length(),
+                report.getFinalSize());
+        assertTrue(reader.isUpToDate(RuntimeEnvironment.application));
+        // Compaction is done after the bulk load, with durable settings
+        assertFalse(getBulkLoadMarker().exists());
+        assertNotEquals(RussvyDatabaseHelper.JOURNAL_MODE_BULK_LOAD.toLowerCase(Locale.US),
+                getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE).toLowerCase(Locale.US));
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, mManager.getRanges(921, 0, block));
+        assertNotNull(mManager.lookup(RussvyUtils.getNumber(921, block.getStarts()[0])));
+    }
+
+    @Test
+    public void doesNotCompactDuringBulkLoad() {
+        assertTrue(mManager.beginBulkLoad());
+        assertNull(mManager.compact(0));
+        assertTrue(mManager.endBulkLoad(true));
+        assertNotNull(mManager.compact(0));
+    }
+
+    @Test
+    public void restoresSettingsAfterBulkLoad() {
+        final String journalMode = getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE);
+        final String synchronous = getPragma(RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS);
+        assertTrue(mManager.beginBulkLoad());
+        assertTrue(getBulkLoadMarker().exists());
+        assertEquals(RussvyDatabaseHelper.JOURNAL_MODE_BULK_LOAD.toLowerCase(Locale.US),
+                getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE).toLowerCase(Locale.US));
+        assertEquals("0", getPragma(RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS));
+        assertTrue(mManager.endBulkLoad(true));
+        assertEquals(journalMode, getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE));
+        assertEquals(synchronous, getPragma(RussvyDatabaseHelper.PRAGMA_SYNCHRONOUS));
+        assertFalse(getBulkLoadMarker().exists());
+        assertFalse(mManager.endBulkLoad(true));
+    }
+
+    @Test
+    public void removesDataOfInterruptedBulkLoad() {
+        importData(mManager);
+        assertTrue(mManager.getOverrides().set(9210000001L, "Дом"));
+        assertTrue(mManager.getOverrides().flush());
+        assertTrue(mManager.beginBulkLoad());
+        // The process dies here, before endBulkLoad()
+        mManager.close();
+        assertTrue(getBulkLoadMarker().exists());
+
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(
+                RuntimeEnvironment.application, DATABASE_NAME);
+        try {
+            assertEquals(0, manager.getRangeCount());
+            assertEquals(0, manager.getOperatorCount());
+            assertFalse(getBulkLoadMarker().exists());
+            // User overrides are not imported data
+            assertEquals("Дом", manager.getOverrides().getLabel(9210000001L));
+            assertFalse(new RussvyAssetReader(null, manager, null)
+                    .isUpToDate(RuntimeEnvironment.application));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void reimportsWhenCodesChange() {
+        importData(mManager);
+        assertTrue(isUpToDate(CODES));
+        // Order of the codes does not matter
+        assertTrue(isUpToDate(new int[] {CODES[1], CODES[0]}));
+        assertFalse(isUpToDate(new int[] {CODES[0]}));
+        assertFalse(isUpToDate(null));
+
+        final RussvyAssetReader reader = new RussvyAssetReader(null, mManager, null);
+        reader.setCodes(new int[] {CODES[0]});
+        assertTrue(reader.importIfNeeded(RuntimeEnvironment.application,
+                RussvyAssetReader.DEFAULT_BATCH_COUNT));
+        assertTrue(reader.isUpToDate(RuntimeEnvironment.application));
+        assertFalse(isUpToDate(CODES));
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, mManager.getRanges(CODES[0], 0, block));
+        assertEquals(0, mManager.getRanges(CODES[1], 0, block));
+    }
+
+    @Test
+    public void filtersNumbersOfSelectedCodes() {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(new File("../assets"));
+        assertNotNull(index);
+        final RussvyAssetReader reader = new RussvyAssetReader(null, mManager, null);
+        reader.setCodes(new int[] {CODES[0]});
+        final RussvyNumberFilter filter = reader.readNumberFilter(RuntimeEnvironment.application);
+        assertNotNull(filter);
+        assertTrue(filter.containsCode(CODES[0]));
+        assertFalse(filter.containsCode(CODES[1]));
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, index.getRanges(CODES[0], 0, block));
+        assertTrue(filter.mayContain(RussvyUtils.getNumber(CODES[0], block.getStarts()[0])));
+    }
+
+    @Test
+    public void importsPartitionsLikeSingleThread() {
+        final RussvyAssetReader reader = new RussvyAssetReader(null, mManager, null);
+        reader.setCodes(CODES);
+        reader.setPartitionCount(4);
+        assertTrue(reader.importIfNeeded(RuntimeEnvironment.application,
+                RussvyAssetReader.DEFAULT_BATCH_COUNT));
+        final RussvyDatabaseManager single = new RussvyDatabaseManager(
+                RuntimeEnvironment.application, "single.db");
+        try {
+            importData(single);
+            assertEquals(single.getRangeCount(), mManager.getRangeCount());
+            final RussvyRangeBlock block = new RussvyRangeBlock(100);
+            final RussvyRangeBlock expected = new RussvyRangeBlock(100);
+            for (int code : CODES) {
+                int start = 0;
+                while (mManager.getRanges(code, start, block) > 0) {
+                    assertEquals(block.size(), single.getRanges(code, start, expected));
+                    assertArrayEquals(copy(expected.getStarts(), expected.size()),
+                            copy(block.getStarts(), block.size()));
+                    assertArrayEquals(copy(expected.getCapacities(), expected.size()),
+                            copy(block.getCapacities(), block.size()));
+                    assertArrayEquals(copy(expected.getOperatorIds(), expected.size()),
+                            copy(block.getOperatorIds(), block.size()));
+                    assertArrayEquals(copy(expected.getRegionIds(), expected.size()),
+                            copy(block.getRegionIds(), block.size()));
+                    start = block.getNextStart();
+                }
+            }
+        } finally {
+            single.close();
+            RuntimeEnvironment.application.deleteDatabase("single.db");
+        }
+        // Partitions were attached to a connection of their own
+        assertTrue(mManager.getWritableDatabase().enableWriteAheadLogging());
+    }
+
+    @Test
+    public void keepsWriteAheadLoggingOverBulkLoad() {
+        final SQLiteDatabase db = mManager.getWritableDatabase();
+        assertTrue(db.enableWriteAheadLogging());
+        assertTrue(mManager.beginBulkLoad());
+        assertFalse(db.isWriteAheadLoggingEnabled());
+        assertEquals(RussvyDatabaseHelper.JOURNAL_MODE_BULK_LOAD.toLowerCase(Locale.US),
+                getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE).toLowerCase(Locale.US));
+        assertTrue(mManager.endBulkLoad(true));
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertEquals("wal", getPragma(RussvyDatabaseHelper.PRAGMA_JOURNAL_MODE)
+                .toLowerCase(Locale.US));
+    }
+
+    @NonNull
+    private File getBulkLoadMarker() {
+        return new File(RuntimeEnvironment.application.getDatabasePath(DATABASE_NAME).getPath()
+                + "-bulk-load");
+    }
+
+    private boolean isUpToDate(@Nullable int[] codes) {
+        final RussvyAssetReader reader = new RussvyAssetReader(null, mManager, null);
+        reader.setCodes(codes);
+        return reader.isUpToDate(RuntimeEnvironment.application);
+    }
+
+    @NonNull
+    private String getPragma(@NonNull String pragma) {
+        final String value = RussvyDatabaseHelper.getPragma(mManager.getWritableDatabase(), pragma);
+        assertNotNull(value);
+        return value;
+    }
+
+    /** Imports ranges of {@link #CODES} from the assets. */
+    static void importData(@NonNull RussvyDatabaseManager manager) {
+        final RussvyAssetReader reader = new RussvyAssetReader(null, manager, null);
+        reader.setCodes(CODES);
+        assertTrue(reader.importIfNeeded(RuntimeEnvironment.application,
+                RussvyAssetReader.DEFAULT_BATCH_COUNT));
+    }
+
+    @NonNull
+    private static int[] copy(@NonNull int[] values, int size) {
+        final int[] copy = new int[size];
+        System.arraycopy(values, 0, copy, 0, size);
+        return copy;
+    }
+
+    @NonNull
+    private static short[] copy(@NonNull short[] values, int size) {
+        final short[] copy = new short[size];
+        System.arraycopy(values, 0, copy, 0, size);
+        return copy;
+    }
+}
@@ -0,0 +1,163 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyGapIndexTest {
+    private static final int MAGIC = 0x52535647;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void findsNumbersInGaps() throws IOException {
+        final RussvyGapIndex index = read(MAGIC, false);
+        assertNotNull(index);
+        assertTrue(index.isInGap(9210000000L));
+        assertTrue(index.isInGap(9210000099L));
+        assertFalse(index.isInGap(9210000100L));
+        assertFalse(index.isInGap(9210000199L));
+        assertTrue(index.isInGap(9210000200L));
+        assertTrue(index.isInGap(9210000249L));
+        assertFalse(index.isInGap(9210000250L));
+        assertFalse(index.isInGap(9219998999L));
+        assertTrue(index.isInGap(9219999000L));
+        assertTrue(index.isInGap(9219999999L));
+        assertTrue(index.isInGap(10000000L));
+        assertTrue(index.isInGap(19999999L));
+        // Codes which are not in the data
+        assertFalse(index.isInGap(9220000000L));
+        assertFalse(index.isInGap(0));
+        assertFalse(index.isInGap(-1));
+        assertFalse(index.isInGap(RussvyUtils.MAX_NUMBER));
+    }
+
+    @Test
+    public void countsGaps() throws IOException {
+        final RussvyGapIndex index = read(MAGIC, false);
+        assertNotNull(index);
+        assertEquals(3, index.getGapCount(921));
+        assertEquals(1, index.getGapCount(1));
+        assertEquals(0, index.getGapCount(922));
+        assertEquals(1150, index.getFreeNumberCount(921));
+        assertEquals(RussvyUtils.NUMBERS_PER_CODE, index.getFreeNumberCount(1));
+        assertEquals(0, index.getFreeNumberCount(922));
+    }
+
+    @Test
+    public void pagesThroughGaps() throws IOException {
+        final RussvyGapIndex index = read(MAGIC, false);
+        assertNotNull(index);
+        final RussvyRangeBlock block = new RussvyRangeBlock(2);
+        assertEquals(2, index.getGaps(921, 0, block));
+        assertEquals(921, block.getCode());
+        assertArrayEquals(new int[] {0, 200}, copyStarts(block));
+        assertArrayEquals(new int[] {100, 50}, copyCapacities(block));
+        assertEquals(1, index.getGaps(921, block.getNextStart(), block));
+        assertArrayEquals(new int[] {9999000}, copyStarts(block));
+        assertEquals(0, index.getGaps(921, block.getNextStart(), block));
+        // Gap which started before fromStart is not returned
+        assertEquals(1, index.getGaps(921, 220, block));
+        assertArrayEquals(new int[] {9999000}, copyStarts(block));
+        assertEquals(0, index.getGaps(922, 0, block));
+    }
+
+    @Test
+    public void rejectsCorruptedGaps() throws IOException {
+        assertNull(read(MAGIC, true));
+        assertNull(read(0x52535648, false));
+    }
+
+    @Test
+    public void readsAsset() {
+        final RussvyGapIndex index = RussvyGapIndex.read(
+                RussvyDataSource.directory(new File("../assets")));
+        assertNotNull(index);
+        int count = 0;
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            count += index.getGapCount(code);
+        }
+        assertTrue(count > 0);
+    }
+
+    /** Writes gaps of codes 1 and 921 to the temporary folder and reads them back. */
+    private RussvyGapIndex read(int magic, boolean corrupt) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(body);
+        os.writeShort(2);
+        writeEntry(os, 1, 0, 1);
+        writeEntry(os, 921, 1, 3);
+        writeGap(os, 0, RussvyUtils.NUMBERS_PER_CODE);
+        writeGap(os, 0, 100);
+        writeGap(os, 200, 50);
+        writeGap(os, 9999000, 1000);
+        final byte[] data = body.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        if (corrupt) {
+            data[data.length - 1]++;
+        }
+        final File file = new File(mFolder.getRoot(), RussvyDataSource.GAPS_FILE);
+        final DataOutputStream fs = new DataOutputStream(new FileOutputStream(file));
+        try {
+            fs.writeInt(magic);
+            fs.writeShort(1);
+            fs.writeInt(20170201);
+            fs.writeInt(4);
+            fs.writeLong(crc.getValue());
+            fs.write(data);
+        } finally {
+            fs.close();
+        }
+        return RussvyGapIndex.read(RussvyDataSource.directory(mFolder.getRoot()));
+    }
+
+    private static void writeEntry(@NonNull DataOutputStream os, int code, int first, int count)
+            throws IOException {
+        os.writeShort(code);
+        os.writeInt(first);
+        os.writeInt(count);
+    }
+
+    private static void writeGap(@NonNull DataOutputStream os, int start, int capacity)
+            throws IOException {
+        os.writeInt(start);
+        os.writeInt(capacity);
+    }
+
+    @NonNull
+    static int[] copyStarts(@NonNull RussvyRangeBlock block) {
+        final int[] starts = new int[block.size()];
+        System.arraycopy(block.getStarts(), 0, starts, 0, starts.length);
+        return starts;
+    }
+
+    @NonNull
+    static int[] copyCapacities(@NonNull RussvyRangeBlock block) {
+        final int[] capacities = new int[block.size()];
+        System.arraycopy(block.getCapacities(), 0, capacities, 0, capacities.length);
+        return capacities;
+    }
+}
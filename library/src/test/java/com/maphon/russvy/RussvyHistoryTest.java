@@ -0,0 +1,258 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyHistoryTest {
+    private static final int MAGIC = 0x52535648;
+    private static final int[] RELEASE_DATES = {20170101, 20170201};
+    /** Records of code 921: start, capacity, operator, first release, release after the last. */
+    private static final int[][] RECORDS = {
+            {0, 100, 0, 0, 2},
+            {100, 100, 1, 0, 1},
+            {100, 100, 2, 1, 2},
+            {1000, 10, 0, 0, 1},
+            {2000, 500, 1, 1, 2},
+            {5000, 1000, 0, 0, 1},
+            {5500, 100, 2, 1, 2},
+    };
+    private static final String[] OPERATORS = {
+            "ПАО \"МегаФон\"", "ПАО \"ВымпелКом\"", "ООО \"Т2 Мобайл\"",
+    };
+    private static final String[] REGIONS = {"г. Санкт-Петербург"};
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void findsReleaseOfDate() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        assertEquals(2, history.getReleaseCount());
+        assertEquals(-1, history.getRelease(getDate("20161231")));
+        assertEquals(0, history.getRelease(getDate("20170101")));
+        assertEquals(0, history.getRelease(getDate("20170131")));
+        assertEquals(1, history.getRelease(getDate("20170201")));
+        assertEquals(1, history.getRelease(getDate("20190101")));
+        assertEquals(getDate("20170201"), history.getReleaseDate(1));
+        assertNull(history.getReleaseDate(-1));
+        assertNull(history.getReleaseDate(2));
+    }
+
+    @Test
+    public void startsReleasesAtMoscowMidnight() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        final TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            for (String zone : new String[] {"America/Los_Angeles", "UTC", "Asia/Vladivostok"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                assertEquals(zone, 0, history.getRelease(getDate("201701312359")));
+                assertEquals(zone, 1, history.getRelease(getDate("201702010000")));
+                assertEquals(zone, getDate("201702010000"), history.getReleaseDate(1));
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+        // 2017-01-31 21:00 UTC
+        assertEquals(1, history.getRelease(new Date(1485896400000L)));
+        assertEquals(0, history.getRelease(new Date(1485896400000L - 1)));
+    }
+
+    @Test
+    public void findsRangesOfDate() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        final Date january = getDate("20170115");
+        checkRange(history.lookup(9210000050L, january), 0, 0);
+        checkRange(history.lookup(9210000150L, january), 100, 1);
+        checkRange(history.lookup(9210001005L, january), 1000, 0);
+        assertNull(history.lookup(9210002100L, january));
+        // Range of the second release starts before the number, the older one is still found
+        checkRange(history.lookup(9210005550L, january), 5000, 0);
+        checkRange(history.lookup(9210005600L, january), 5000, 0);
+        assertNull(history.lookup(9210006000L, january));
+
+        final Date february = getDate("20170215");
+        checkRange(history.lookup(9210000050L, february), 0, 0);
+        checkRange(history.lookup(9210000150L, february), 100, 2);
+        assertNull(history.lookup(9210001005L, february));
+        checkRange(history.lookup(9210002100L, february), 2000, 1);
+        assertNull(history.lookup(9210005200L, february));
+        checkRange(history.lookup(9210005550L, february), 5500, 2);
+
+        assertNull(history.lookup(9210000050L, getDate("20161231")));
+        assertNull(history.lookup(9220000050L, january));
+        assertNull(history.lookup(-1, january));
+    }
+
+    @Test
+    public void findsRangesOfLastRelease() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        final RussvyLookupResult result = history.lookup(9210000150L);
+        checkRange(result, 100, 2);
+        assertEquals(OPERATORS[2], result.getOperatorName());
+        assertEquals(REGIONS[0], result.getRegionName());
+        assertNull(history.lookup(9210001005L));
+        final RussvyLookupResult[] results = history.lookup(
+                new long[] {9210002100L, 9210006000L});
+        checkRange(results[0], 2000, 1);
+        assertNull(results[1]);
+        assertEquals(4, history.getRangeCount());
+        assertEquals(OPERATORS.length, history.getOperatorCount());
+        assertEquals(REGIONS.length, history.getRegionCount());
+        assertNull(history.getOperatorName(OPERATORS.length));
+    }
+
+    @Test
+    public void pagesThroughRangesOfLastRelease() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        final RussvyRangeBlock block = new RussvyRangeBlock(2);
+        assertEquals(2, history.getRanges(921, 0, block));
+        assertArrayEquals(new int[] {0, 100}, RussvyGapIndexTest.copyStarts(block));
+        assertEquals(2, block.getOperatorIds()[1]);
+        assertEquals(2, history.getRanges(921, block.getNextStart(), block));
+        assertArrayEquals(new int[] {2000, 5500}, RussvyGapIndexTest.copyStarts(block));
+        assertArrayEquals(new int[] {500, 100}, RussvyGapIndexTest.copyCapacities(block));
+        assertEquals(0, history.getRanges(921, block.getNextStart(), block));
+        assertEquals(2, history.getRanges(921, 150, block));
+        assertArrayEquals(new int[] {2000, 5500}, RussvyGapIndexTest.copyStarts(block));
+        assertEquals(0, history.getRanges(922, 0, block));
+    }
+
+    @Test
+    public void appliesPortingOverlayToLastRelease() throws IOException {
+        final RussvyHistory history = read(MAGIC, false);
+        assertNotNull(history);
+        final File file = mFolder.newFile();
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            // The number is ported to operator 1
+            os.write(RussvyPortingOverlayTest.createTable(0x52535650, new long[] {9210000050L},
+                    8, 1));
+        } finally {
+            os.close();
+        }
+        history.setPortingOverlay(RussvyPortingOverlay.open(file));
+        final RussvyLookupResult result = history.lookup(9210000050L);
+        assertNotNull(result);
+        assertTrue(result.isPorted());
+        assertEquals(1, result.getOperatorId());
+        final RussvyLookupResult dated = history.lookup(9210000050L, getDate("20170215"));
+        assertNotNull(dated);
+        assertFalse(dated.isPorted());
+        assertEquals(0, dated.getOperatorId());
+        assertFalse(history.lookup(9210000051L).isPorted());
+    }
+
+    @Test
+    public void rejectsCorruptedHistory() throws IOException {
+        assertNull(read(MAGIC, true));
+        assertNull(read(0x52535647, false));
+    }
+
+    private static void checkRange(@Nullable RussvyLookupResult result, int start,
+                                   int operatorId) {
+        assertNotNull(result);
+        assertEquals(921, result.getCode());
+        assertEquals(start, result.getStart());
+        assertEquals(operatorId, result.getOperatorId());
+        assertEquals(0, result.getRegionId());
+        assertFalse(result.isPorted());
+    }
+
+    /** Parses yyyyMMdd or yyyyMMddHHmm in Moscow time. */
+    @NonNull
+    private static Date getDate(@NonNull String date) {
+        final SimpleDateFormat format = new SimpleDateFormat(
+                date.length() > 8 ? "yyyyMMddHHmm" : "yyyyMMdd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone(RussvyHistory.RELEASE_TIME_ZONE));
+        try {
+            return format.parse(date);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(date, e);
+        }
+    }
+
+    /** Writes the history of code 921 to the temporary folder and reads it back. */
+    @Nullable
+    private RussvyHistory read(int magic, boolean corrupt) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(body);
+        os.writeShort(1);
+        os.writeShort(921);
+        os.writeInt(0);
+        os.writeInt(RECORDS.length);
+        for (int[] record : RECORDS) {
+            os.writeShort(921);
+            os.writeInt(record[0]);
+            os.writeInt(record[1]);
+            os.writeShort(record[2]);
+            os.writeShort(0);
+            os.writeShort(record[3]);
+            os.writeShort(record[4]);
+        }
+        writeNames(os, OPERATORS);
+        writeNames(os, REGIONS);
+        final byte[] data = body.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        if (corrupt) {
+            data[data.length - 1]++;
+        }
+        final File file = new File(mFolder.getRoot(), RussvyDataSource.HISTORY_FILE);
+        final DataOutputStream fs = new DataOutputStream(new FileOutputStream(file));
+        try {
+            fs.writeInt(magic);
+            fs.writeShort(1);
+            fs.writeShort(RELEASE_DATES.length);
+            for (int date : RELEASE_DATES) {
+                fs.writeInt(date);
+            }
+            fs.writeInt(RECORDS.length);
+            fs.writeLong(crc.getValue());
+            fs.write(data);
+        } finally {
+            fs.close();
+        }
+        return RussvyHistory.read(RussvyDataSource.directory(mFolder.getRoot()));
+    }
+
+    private static void writeNames(@NonNull DataOutputStream os, @NonNull String[] names)
+            throws IOException {
+        os.writeInt(names.length);
+        for (String name : names) {
+            os.writeUTF(name);
+        }
+    }
+}
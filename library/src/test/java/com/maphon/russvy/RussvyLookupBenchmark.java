@@ -0,0 +1,305 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmark of the in-memory lookup tiers ({@link RussvyRangeIndex},
+ * {@link RussvyMappedRangeIndex}) and of the structures next to them ({@link RussvyGapIndex})
+ * over the assets of the repository. Tests comparing two
+ * implementations check that they give the same answers before timing them. Figures are
+ * medians of several runs after a warm up run, random numbers use a fixed seed.
+ * Tests are skipped unless enabled, see testOptions in build.gradle. Results are printed and
+ * written to build/reports/russvy-<test>.tsv as name, value and unit separated by tabs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyLookupBenchmark {
+    private static final long SEED = 20170201L;
+    private static final File ASSETS_DIRECTORY = new File("../assets");
+    private static final String REPORT_FORMAT = "build/reports/russvy-%s.tsv";
+
+    private static final int CHECK_COUNT = 2000000;
+    private static final int LOOKUP_COUNT = 1000000;
+    private static final int REUSED_LOOKUP_COUNT = 5000000;
+
+    private final List<String> mResults = new ArrayList<String>();
+    private RussvyRangeIndex mIndex;
+    /** Codes which have ranges, ascending. */
+    private int[] mCodes;
+    private int mRuns;
+    /** Keeps results of timed loops alive. */
+    private long mSink;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("russvy.benchmark"));
+        mRuns = Math.max(1, Integer.getInteger("russvy.benchmark.runs", 3));
+        mIndex = RussvyRangeIndex.open(ASSETS_DIRECTORY);
+        assertNotNull("Assets not found", mIndex);
+        assertTrue(mIndex.loadAll());
+        final List<Integer> codes = new ArrayList<Integer>();
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            if (mIndex.getRangeCount(code) > 0) {
+                codes.add(code);
+            }
+        }
+        mCodes = new int[codes.size()];
+        for (int i = 0; i < mCodes.length; i++) {
+            mCodes[i] = codes.get(i);
+        }
+        System.out.println(String.format(Locale.US,
+                "Java %s, %s %s, %d runs, seed %d, data of %tF, %d ranges",
+                System.getProperty("java.version"), System.getProperty("os.name"),
+                System.getProperty("os.arch"), mRuns, SEED, mIndex.getDataAge(),
+                mIndex.getRangeCount()));
+    }
+
+    /**
+     * Mapped ranges against the loaded index: same results for random numbers and same pages
+     * of ranges for every code, then time of a single lookup in each.
+     */
+    @Test
+    public void mappedTier() throws Exception {
+        final RussvyMappedRangeIndex mapped = RussvyMappedRangeIndex.open(
+                RussvyDataSource.directory(ASSETS_DIRECTORY));
+        assertNotNull(mapped);
+        assertEquals(mIndex.getRangeCount(), mapped.getRangeCount());
+        assertEquals(mIndex.getOperatorCount(), mapped.getOperatorCount());
+        assertEquals(mIndex.getRegionCount(), mapped.getRegionCount());
+
+        final RussvyLookupResult expected = new RussvyLookupResult();
+        final RussvyLookupResult result = new RussvyLookupResult();
+        long mismatches = 0;
+        long found = 0;
+        for (long number : createNumbers(CHECK_COUNT)) {
+            final boolean indexFound = mIndex.lookup(number, expected);
+            if (indexFound != mapped.lookup(number, result)
+                    || indexFound && !isSameRange(expected, result)) {
+                mismatches++;
+            }
+            if (indexFound) {
+                found++;
+            }
+        }
+        report("mapped.checked_numbers", CHECK_COUNT, "count");
+        report("mapped.found_numbers", found, "count");
+        report("mapped.mismatches", mismatches, "count");
+
+        final RussvyRangeBlock expectedBlock = new RussvyRangeBlock();
+        final RussvyRangeBlock block = new RussvyRangeBlock();
+        long pageMismatches = 0;
+        long pages = 0;
+        for (int code : mCodes) {
+            int fromStart = 0;
+            while (true) {
+                final int count = mIndex.getRanges(code, fromStart, expectedBlock);
+                if (count != mapped.getRanges(code, fromStart, block)
+                        || !isSameBlock(expectedBlock, block)) {
+                    pageMismatches++;
+                }
+                pages++;
+                if (!expectedBlock.isFull()) {
+                    break;
+                }
+                fromStart = expectedBlock.getNextStart();
+            }
+        }
+        report("mapped.checked_pages", pages, "count");
+        report("mapped.page_mismatches", pageMismatches, "count");
+
+        final long[] numbers = createNumbers(LOOKUP_COUNT);
+        report("lookup.memory", timeLookups(mIndex, numbers), "ns");
+        report("lookup.mapped", timeLookups(mapped, numbers), "ns");
+        writeReport("lookup-tiers");
+        assertEquals(0, mismatches);
+        assertEquals(0, pageMismatches);
+    }
+
+    /**
+     * Bytes allocated by lookups into one reused result, after a warm up run. Names are asked
+     * for too, they must come from the loaded names without copying.
+     */
+    @Test
+    public void reusedResult() throws Exception {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+        final long[] numbers = createNumbers(LOOKUP_COUNT);
+        final RussvyLookupResult result = new RussvyLookupResult();
+        final long[] bytes = new long[mRuns + 1];
+        final int passes = REUSED_LOOKUP_COUNT / numbers.length;
+        for (int run = 0; run <= mRuns; run++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int pass = 0; pass < passes; pass++) {
+                for (long number : numbers) {
+                    final String name = mIndex.lookup(number, result)
+                            ? result.getOperatorName() : null;
+                    if (name != null) {
+                        mSink += name.length();
+                    }
+                }
+            }
+            bytes[run] = threads.getThreadAllocatedBytes(threadId) - before;
+        }
+        report("reused.lookups", (long) passes * numbers.length, "count");
+        report("reused.allocated_first_run", bytes[0], "bytes");
+        report("reused.allocated", median(Arrays.copyOfRange(bytes, 1, mRuns + 1)), "bytes");
+        writeReport("reused-result");
+        assertEquals(0, median(Arrays.copyOfRange(bytes, 1, mRuns + 1)));
+    }
+
+    /**
+     * Gaps against the loaded index: a number is in a gap if and only if it is in no range.
+     * Checks random numbers of codes with ranges and random numbers of all codes.
+     */
+    @Test
+    public void gaps() throws Exception {
+        final RussvyGapIndex gaps = RussvyGapIndex.read(
+                RussvyDataSource.directory(ASSETS_DIRECTORY));
+        assertNotNull(gaps);
+        long gapCount = 0;
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            gapCount += gaps.getGapCount(code);
+        }
+        report("gaps.count", gapCount, "count");
+
+        final long[] numbers = createNumbers(CHECK_COUNT);
+        final Random random = new Random(SEED);
+        final RussvyLookupResult result = new RussvyLookupResult();
+        long mismatches = 0;
+        long inGapCount = 0;
+        for (int i = 0; i < 2 * numbers.length; i++) {
+            final long number = i < numbers.length ? numbers[i]
+                    : (long) (random.nextDouble() * RussvyUtils.MAX_NUMBER);
+            final boolean inGap = gaps.isInGap(number);
+            if (inGap == mIndex.lookup(number, result)) {
+                mismatches++;
+            }
+            if (inGap) {
+                inGapCount++;
+            }
+        }
+        report("gaps.checked_numbers", 2 * numbers.length, "count");
+        report("gaps.numbers_in_gaps", inGapCount, "count");
+        report("gaps.mismatches", mismatches, "count");
+        writeReport("gaps");
+        assertEquals(0, mismatches);
+    }
+
+    /** Returns median time of a lookup, ns. */
+    private long timeLookups(@NonNull RussvyLookupSource source, @NonNull long[] numbers) {
+        final RussvyLookupResult result = new RussvyLookupResult();
+        final long[] nanos = new long[mRuns + 1];
+        // Run 0 warms up and is not counted
+        for (int run = 0; run <= mRuns; run++) {
+            final long start = System.nanoTime();
+            for (long number : numbers) {
+                if (source.lookup(number, result)) {
+                    mSink += result.getOperatorId();
+                }
+            }
+            nanos[run] = (System.nanoTime() - start) / numbers.length;
+        }
+        return median(Arrays.copyOfRange(nanos, 1, mRuns + 1));
+    }
+
+    /**
+     * Returns numbers to look up: half of them are in ranges, the rest are random numbers of
+     * codes which have ranges. Same numbers for the same count.
+     */
+    @NonNull
+    private long[] createNumbers(int count) {
+        final Random random = new Random(SEED);
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        final long[] numbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            final int code = mCodes[random.nextInt(mCodes.length)];
+            final int localNumber = random.nextInt(RussvyUtils.NUMBERS_PER_CODE);
+            if (i % 2 == 0 && mIndex.getRanges(code, localNumber, block) > 0) {
+                numbers[i] = RussvyUtils.getNumber(code, block.getStarts()[0]
+                        + random.nextInt(block.getCapacities()[0]));
+            } else {
+                numbers[i] = RussvyUtils.getNumber(code, localNumber);
+            }
+        }
+        return numbers;
+    }
+
+    private static boolean isSameRange(@Nullable RussvyLookupResult a,
+                                       @Nullable RussvyLookupResult b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getCode() == b.getCode() && a.getStart() == b.getStart()
+                && a.getCapacity() == b.getCapacity() && a.getOperatorId() == b.getOperatorId()
+                && a.getRegionId() == b.getRegionId();
+    }
+
+    private static boolean isSameBlock(@NonNull RussvyRangeBlock a, @NonNull RussvyRangeBlock b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.getStarts()[i] != b.getStarts()[i]
+                    || a.getCapacities()[i] != b.getCapacities()[i]
+                    || a.getOperatorIds()[i] != b.getOperatorIds()[i]
+                    || a.getRegionIds()[i] != b.getRegionIds()[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long median(@NonNull long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void report(@NonNull String name, long value, @NonNull String unit) {
+        final String line = name + "\t" + value + "\t" + unit;
+        mResults.add(line);
+        System.out.println(line);
+    }
+
+    private void writeReport(@NonNull String test) throws FileNotFoundException {
+        final File report = new File(String.format(REPORT_FORMAT, test));
+        final File directory = report.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Can not create " + directory);
+        }
+        final PrintWriter writer = new PrintWriter(report);
+        try {
+            for (String line : mResults) {
+                writer.println(line);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.maphon.russvy;
+
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyLookupServiceTest {
+    private static final String DATABASE_NAME = "service.db";
+    private static final long TIMEOUT_MS = 5000;
+
+    private RussvyDatabaseManager mManager;
+    private final RussvyMetrics mMetrics = new RussvyMetrics();
+
+    @Before
+    public void setUp() {
+        mManager = new RussvyDatabaseManager(RuntimeEnvironment.application, DATABASE_NAME);
+        mManager.getWritableDatabase().execSQL(
+                "INSERT INTO range VALUES (9210000000, 9210000999, 0, 0);");
+        mManager.getWritableDatabase().execSQL(
+                "INSERT INTO range VALUES (9220000000, 9220000999, 1, 0);");
+        mManager.setMetrics(mMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void coalescesRequestsIntoOneBatch() throws Exception {
+        final RussvyLookupService service = new RussvyLookupService(mManager, 200, 100);
+        try {
+            final Future<RussvyLookupResult> first = service.lookup(9210000001L);
+            final Future<RussvyLookupResult> second = service.lookup(9210000001L);
+            final Future<RussvyLookupResult> other = service.lookup(9220000001L);
+            final Future<RussvyLookupResult> missing = service.lookup(9230000001L);
+            final RussvyLookupResult firstResult = first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            final RussvyLookupResult secondResult = second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(firstResult);
+            assertNotNull(secondResult);
+            // Merged requests get results of their own
+            assertNotSame(firstResult, secondResult);
+            assertEquals(921, secondResult.getCode());
+            assertEquals(922, other.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getCode());
+            assertNull(missing.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            final RussvyMetrics.Snapshot snapshot = mMetrics.getSnapshot();
+            assertEquals(1, snapshot.getCallCount(RussvyMetrics.Method.LOOKUP_BATCH));
+            assertEquals(0, snapshot.getCallCount(RussvyMetrics.Method.LOOKUP));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void resolvesFullBatchWithoutDelay() throws Exception {
+        final RussvyLookupService service = new RussvyLookupService(mManager, 60 * 1000, 2);
+        try {
+            final Future<RussvyLookupResult> first = service.lookup(9210000001L);
+            final Future<RussvyLookupResult> second = service.lookup(9220000001L);
+            assertNotNull(first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertNotNull(second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void notifiesEveryCallbackIfOneThrows() throws Exception {
+        final RussvyLookupService service = new RussvyLookupService(mManager, 100, 100);
+        final CountDownLatch done = new CountDownLatch(2);
+        try {
+            service.lookup(9210000001L, new RussvyLookupService.Callback() {
+                @Override
+                public void onLookupComplete(long number, @Nullable RussvyLookupResult result) {
+                    done.countDown();
+                    throw new IllegalStateException();
+                }
+            });
+            service.lookup(9210000001L, new RussvyLookupService.Callback() {
+                @Override
+                public void onLookupComplete(long number, @Nullable RussvyLookupResult result) {
+                    done.countDown();
+                    throw new IllegalStateException();
+                }
+            });
+            final Future<RussvyLookupResult> future = service.lookup(9220000001L);
+            assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertNotNull(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void resolvesPendingRequestsOnShutdown() throws Exception {
+        final RussvyLookupService service = new RussvyLookupService(mManager, 60 * 1000, 100);
+        final Future<RussvyLookupResult> future = service.lookup(9210000001L);
+        service.shutdown();
+        assertNotNull(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        try {
+            service.lookup(9210000001L);
+            fail("Lookup must be rejected after shutdown");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.maphon.russvy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyMetricsTest {
+    private static final String DATABASE_NAME = "metrics.db";
+
+    private RussvyDatabaseManager mManager;
+    private final RussvyMetrics mMetrics = new RussvyMetrics();
+
+    @Before
+    public void setUp() {
+        mManager = new RussvyDatabaseManager(RuntimeEnvironment.application, DATABASE_NAME);
+        mManager.getWritableDatabase().execSQL(
+                "INSERT INTO range VALUES (9210000000, 9210000499, 0, 0);");
+        // The filter marks blocks of 1000 numbers, so 9210000500-9210000999 pass it too
+        mManager.setNumberFilter(new RussvyNumberFilter.Builder().add(921, 0, 500).build());
+        mManager.setMetrics(mMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void countsFilterRejectsOfLookups() {
+        assertNotNull(mManager.lookup(9210000001L));
+        assertNull(mManager.lookup(9210000700L));
+        assertNull(mManager.lookup(9220000001L));
+        final RussvyMetrics.Snapshot snapshot = mMetrics.getSnapshot();
+        assertEquals(3, snapshot.getCallCount(RussvyMetrics.Method.LOOKUP));
+        assertEquals(1, snapshot.getFilterRejects(RussvyMetrics.Method.LOOKUP));
+        // Numbers passing the filter are not cache misses, found or not
+        assertEquals(0, snapshot.getCacheHits(RussvyMetrics.Method.LOOKUP));
+        assertEquals(0, snapshot.getCacheMisses(RussvyMetrics.Method.LOOKUP));
+        assertEquals(2, snapshot.getRowsScanned(RussvyMetrics.Method.LOOKUP));
+        assertEquals(1, snapshot.getRowsReturned(RussvyMetrics.Method.LOOKUP));
+        assertTrue(snapshot.toString(), snapshot.toString().contains("filter rejects 1\n"));
+    }
+
+    @Test
+    public void countsFilterRejectsOfBatches() {
+        final RussvyLookupResult[] results = mManager.lookup(new long[] {9210000001L,
+                9220000001L, 9210000700L, 9230000001L, 9220000001L});
+        assertNotNull(results[0]);
+        assertNull(results[2]);
+        final RussvyMetrics.Snapshot snapshot = mMetrics.getSnapshot();
+        assertEquals(1, snapshot.getCallCount(RussvyMetrics.Method.LOOKUP_BATCH));
+        assertEquals(3, snapshot.getFilterRejects(RussvyMetrics.Method.LOOKUP_BATCH));
+        assertEquals(1, snapshot.getRowsReturned(RussvyMetrics.Method.LOOKUP_BATCH));
+        assertEquals(0, snapshot.getFilterRejects(RussvyMetrics.Method.LOOKUP));
+    }
+
+    @Test
+    public void doesNotCountRejectsWithoutFilter() {
+        mManager.setNumberFilter(null);
+        assertNull(mManager.lookup(-1));
+        assertNull(mManager.lookup(9220000001L));
+        assertEquals(0, mMetrics.getSnapshot().getFilterRejects(RussvyMetrics.Method.LOOKUP));
+    }
+
+    @Test
+    public void subtractsSnapshots() {
+        assertNull(mManager.lookup(9220000001L));
+        final RussvyMetrics.Snapshot older = mMetrics.getSnapshot();
+        assertNull(mManager.lookup(9220000001L));
+        assertNull(mManager.lookup(9220000001L));
+        final RussvyMetrics.Snapshot change = mMetrics.getSnapshot().minus(older);
+        assertEquals(2, change.getCallCount(RussvyMetrics.Method.LOOKUP));
+        assertEquals(2, change.getFilterRejects(RussvyMetrics.Method.LOOKUP));
+        mMetrics.reset();
+        assertEquals(0, mMetrics.getSnapshot().getFilterRejects(RussvyMetrics.Method.LOOKUP));
+    }
+}
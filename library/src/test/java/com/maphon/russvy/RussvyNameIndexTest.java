@@ -0,0 +1,66 @@
+package com.maphon.russvy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RussvyNameIndexTest {
+    private static final String[] NAMES = {
+            "ПАО \"МегаФон\"",
+            "ПАО \"Мобильные ТелеСистемы\"",
+            "ООО \"Ёлка-Телеком\"",
+            null,
+            "ПАО \"Вымпел-Коммуникации\"",
+    };
+
+    private final RussvyNameIndex mIndex = RussvyNameIndex.build(NAMES);
+
+    @Test
+    public void findsSubstringsIgnoringCase() {
+        assertArrayEquals(new int[] {0}, mIndex.find("мегафон"));
+        assertArrayEquals(new int[] {0}, mIndex.find("ГАФ"));
+        assertArrayEquals(new int[] {1, 2}, mIndex.find("теле"));
+        assertArrayEquals(new int[] {0, 1, 4}, mIndex.find("ПАО"));
+    }
+
+    @Test
+    public void findsAcrossWords() {
+        assertArrayEquals(new int[] {1}, mIndex.find("мобильные теле"));
+        assertArrayEquals(new int[] {4}, mIndex.find("вымпел коммуникации"));
+        assertArrayEquals(new int[0], mIndex.find("мегафон теле"));
+    }
+
+    @Test
+    public void foldsPunctuationAndYo() {
+        assertArrayEquals(new int[] {2}, mIndex.find("елка"));
+        assertArrayEquals(new int[] {2}, mIndex.find("Ёлка"));
+        assertArrayEquals(new int[] {2}, mIndex.find("ёлка-телеком"));
+        assertArrayEquals(new int[] {0}, mIndex.find("\"МегаФон\""));
+        assertEquals("ооо елка телеком", RussvyNameIndex.fold(NAMES[2]));
+    }
+
+    @Test
+    public void shortQueriesMatchWordBeginnings() {
+        assertArrayEquals(new int[] {1, 2}, mIndex.find("те"));
+        assertArrayEquals(new int[] {0, 1}, mIndex.find("м"));
+        // "ао" is inside "пао" but does not start a word
+        assertArrayEquals(new int[0], mIndex.find("ао"));
+    }
+
+    @Test
+    public void returnsNothingForBlankOrUnknownQueries() {
+        assertArrayEquals(new int[0], mIndex.find(null));
+        assertArrayEquals(new int[0], mIndex.find(""));
+        assertArrayEquals(new int[0], mIndex.find(" \"-"));
+        assertArrayEquals(new int[0], mIndex.find("билайн"));
+    }
+
+    @Test
+    public void skipsMissingNames() {
+        assertEquals(NAMES.length, mIndex.size());
+        for (int id : mIndex.find("о")) {
+            assertEquals(false, id == 3);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.maphon.russvy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RussvyNumberFilterTest {
+    @Test
+    public void emptyFilterRejectsEverything() {
+        final RussvyNumberFilter filter = new RussvyNumberFilter.Builder().build();
+        assertFalse(filter.mayContain(9210000000L));
+        assertFalse(filter.containsCode(921));
+    }
+
+    @Test
+    public void marksEveryBlockTouchedByRange() {
+        final RussvyNumberFilter filter = new RussvyNumberFilter.Builder()
+                .add(921, 1500, 1000)
+                .build();
+        assertTrue(filter.containsCode(921));
+        assertFalse(filter.containsCode(922));
+        // Range covers 1500-2499, blocks 1000-1999 and 2000-2999
+        assertFalse(filter.mayContain(9210000999L));
+        assertTrue(filter.mayContain(9210001000L));
+        assertTrue(filter.mayContain(9210001500L));
+        assertTrue(filter.mayContain(9210002999L));
+        assertFalse(filter.mayContain(9210003000L));
+        assertFalse(filter.mayContain(9220001500L));
+    }
+
+    @Test
+    public void marksBlocksAtCodeBounds() {
+        final RussvyNumberFilter filter = new RussvyNumberFilter.Builder()
+                .add(0, 0, 1)
+                .add(999, RussvyUtils.NUMBERS_PER_CODE - 1, 1)
+                .build();
+        assertTrue(filter.mayContain(0));
+        assertTrue(filter.mayContain(999));
+        assertFalse(filter.mayContain(1000));
+        assertTrue(filter.mayContain(RussvyUtils.MAX_NUMBER - 1));
+        assertTrue(filter.mayContain(RussvyUtils.MAX_NUMBER - RussvyNumberFilter.BLOCK_SIZE));
+        assertFalse(filter.mayContain(RussvyUtils.MAX_NUMBER - RussvyNumberFilter.BLOCK_SIZE - 1));
+    }
+
+    @Test
+    public void rejectsNumbersOutsideOfNumberingPlan() {
+        final RussvyNumberFilter filter = new RussvyNumberFilter.Builder()
+                .add(0, 0, RussvyUtils.NUMBERS_PER_CODE)
+                .add(999, 0, RussvyUtils.NUMBERS_PER_CODE)
+                .build();
+        assertFalse(filter.mayContain(-1));
+        assertFalse(filter.mayContain(RussvyUtils.MAX_NUMBER));
+        assertFalse(filter.mayContain(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void ignoresInvalidRanges() {
+        final RussvyNumberFilter filter = new RussvyNumberFilter.Builder()
+                .add(-1, 0, 10)
+                .add(RussvyUtils.CODE_COUNT, 0, 10)
+                .add(921, -1, 10)
+                .add(922, 0, 0)
+                .add(923, RussvyUtils.NUMBERS_PER_CODE - 5, 10)
+                .build();
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            assertFalse(filter.containsCode(code));
+        }
+    }
+
+    @Test
+    public void builtFilterDoesNotChangeWithBuilder() {
+        final RussvyNumberFilter.Builder builder = new RussvyNumberFilter.Builder()
+                .add(921, 0, 1);
+        final RussvyNumberFilter filter = builder.build();
+        builder.add(921, 5000, 1).add(495, 0, 1);
+        assertFalse(filter.mayContain(9210005000L));
+        assertFalse(filter.containsCode(495));
+        assertTrue(builder.build().mayContain(9210005000L));
+    }
+}
@@ -0,0 +1,162 @@
+package com.maphon.russvy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyOverridesTest {
+    private static final String DATABASE_NAME = "overrides.db";
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    private RussvyDatabaseManager mManager;
+
+    @Before
+    public void setUp() {
+        mManager = new RussvyDatabaseManager(RuntimeEnvironment.application, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void labelsNumbers() {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertEquals(0, overrides.size());
+        assertTrue(overrides.set(9210000001L, "Дом"));
+        assertTrue(overrides.set(9210000100L, 9210000199L, "Работа"));
+        assertEquals(2, overrides.size());
+        assertEquals("Дом", overrides.getLabel(9210000001L));
+        assertNull(overrides.getLabel(9210000000L));
+        assertNull(overrides.getLabel(9210000002L));
+        assertEquals("Работа", overrides.getLabel(9210000100L));
+        assertEquals("Работа", overrides.getLabel(9210000199L));
+        assertNull(overrides.getLabel(9210000200L));
+    }
+
+    @Test
+    public void replacesOverlappedLabels() {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertTrue(overrides.set(9210000100L, 9210000199L, "Работа"));
+        assertTrue(overrides.set(9210000150L, 9210000249L, "Офис"));
+        assertEquals("Работа", overrides.getLabel(9210000149L));
+        assertEquals("Офис", overrides.getLabel(9210000150L));
+        assertEquals("Офис", overrides.getLabel(9210000249L));
+        // Removing the middle splits the range
+        assertTrue(overrides.remove(9210000120L, 9210000129L));
+        assertEquals("Работа", overrides.getLabel(9210000119L));
+        assertNull(overrides.getLabel(9210000120L));
+        assertNull(overrides.getLabel(9210000129L));
+        assertEquals("Работа", overrides.getLabel(9210000130L));
+        assertEquals(3, overrides.size());
+    }
+
+    @Test
+    public void rejectsInvalidRanges() {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertFalse(overrides.set(-1, "Дом"));
+        assertFalse(overrides.set(RussvyUtils.MAX_NUMBER, "Дом"));
+        assertFalse(overrides.set(9210000200L, 9210000100L, "Дом"));
+        // Range must not cross code boundary
+        assertFalse(overrides.set(9219999999L, 9220000000L, "Дом"));
+        assertFalse(overrides.remove(9210000200L, 9210000100L));
+        assertEquals(0, overrides.size());
+    }
+
+    @Test
+    public void storesLabels() {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertTrue(overrides.set(9210000001L, "Дом"));
+        assertTrue(overrides.set(9210000100L, 9210000199L, "Работа"));
+        assertTrue(overrides.flush());
+        checkStored();
+    }
+
+    @Test
+    public void storesLabelsOnClose() {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertTrue(overrides.set(9210000001L, "Дом"));
+        assertTrue(overrides.set(9210000100L, 9210000199L, "Работа"));
+        mManager.close();
+        checkStored();
+    }
+
+    @Test
+    public void closesWhileWriteIsInFlight() throws InterruptedException {
+        final RussvyOverrides overrides = mManager.getOverrides();
+        assertTrue(overrides.set(9210000001L, "Дом"));
+        assertTrue(overrides.set(9210000100L, 9210000199L, "Работа"));
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                overrides.flush();
+            }
+        });
+        final Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mManager.close();
+            }
+        });
+        // The helper opens the database holding its monitor, keep both threads waiting for it
+        synchronized (mManager) {
+            writer.start();
+            waitUntilBlocked(writer);
+            closer.start();
+            waitUntilBlocked(closer);
+        }
+        writer.join(TIMEOUT_MS);
+        closer.join(TIMEOUT_MS);
+        assertFalse("Deadlock", writer.isAlive() || closer.isAlive());
+        checkStored();
+    }
+
+    @Test
+    public void labelsLookupResults() {
+        assertNull(mManager.lookup(9210000001L));
+        assertTrue(mManager.getOverrides().set(9210000001L, "Дом"));
+        final RussvyLookupResult result = mManager.lookup(9210000001L);
+        assertNotNull(result);
+        assertEquals("Дом", result.getLabel());
+        assertEquals(921, result.getCode());
+        assertEquals(1, result.getStart());
+        assertEquals(1, result.getCapacity());
+        assertEquals(-1, result.getOperatorId());
+        assertNull(mManager.lookup(9210000002L));
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.BLOCKED) {
+            assertTrue(thread.isAlive() && System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void checkStored() {
+        final RussvyDatabaseManager manager = new RussvyDatabaseManager(
+                RuntimeEnvironment.application, DATABASE_NAME);
+        try {
+            final RussvyOverrides overrides = manager.getOverrides();
+            assertEquals(2, overrides.size());
+            assertEquals("Дом", overrides.getLabel(9210000001L));
+            assertEquals("Работа", overrides.getLabel(9210000150L));
+        } finally {
+            manager.close();
+        }
+    }
+}
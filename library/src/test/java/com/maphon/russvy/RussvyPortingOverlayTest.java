@@ -0,0 +1,121 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyPortingOverlayTest {
+    private static final int MAGIC = 0x52535650;
+    private static final int SLOTS = 8;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void findsPortedNumbers() throws IOException {
+        final long[] numbers = {9210000001L, 9210000002L, 9031234567L, 4951112233L, 9999999999L};
+        final RussvyPortingOverlay overlay = RussvyPortingOverlay.open(
+                write(createTable(MAGIC, numbers, SLOTS, numbers.length)));
+        assertNotNull(overlay);
+        assertEquals(numbers.length, overlay.size());
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(i + 1, overlay.getOperatorId(numbers[i]));
+        }
+        assertEquals(-1, overlay.getOperatorId(9210000003L));
+        assertEquals(-1, overlay.getOperatorId(0));
+        assertEquals(-1, overlay.getOperatorId(-9210000001L));
+    }
+
+    @Test
+    public void findsCollidingNumbers() throws IOException {
+        // Numbers of the same slot are stored one after another
+        final long[] numbers = new long[3];
+        final int slot = (int) RussvyPortingOverlay.hash(9210000000L) & (SLOTS - 1);
+        int count = 0;
+        for (long number = 9210000000L; count < numbers.length; number++) {
+            if (((int) RussvyPortingOverlay.hash(number) & (SLOTS - 1)) == slot) {
+                numbers[count++] = number;
+            }
+        }
+        final RussvyPortingOverlay overlay = RussvyPortingOverlay.open(
+                write(createTable(MAGIC, numbers, SLOTS, numbers.length)));
+        assertNotNull(overlay);
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(i + 1, overlay.getOperatorId(numbers[i]));
+        }
+        assertEquals(-1, overlay.getOperatorId(numbers[2] + 1));
+    }
+
+    @Test
+    public void rejectsMalformedFiles() throws IOException {
+        final long[] numbers = {9210000001L};
+        assertNull(RussvyPortingOverlay.open(write(createTable(0x52535647, numbers, SLOTS, 1))));
+        // Table without free slots would make lookups loop forever
+        assertNull(RussvyPortingOverlay.open(write(createTable(MAGIC, numbers, SLOTS, SLOTS))));
+        assertNull(RussvyPortingOverlay.open(write(createTable(MAGIC, numbers, 6, 1))));
+        final byte[] table = createTable(MAGIC, numbers, SLOTS, 1);
+        assertNull(RussvyPortingOverlay.open(write(Arrays.copyOf(table, table.length - 1))));
+        assertNull(RussvyPortingOverlay.open(write(Arrays.copyOf(table, 10))));
+        assertNull(RussvyPortingOverlay.open(new File(mFolder.getRoot(), "missing")));
+    }
+
+    /** Builds the table like the converter does, operator id of i-th number is i + 1. */
+    @NonNull
+    static byte[] createTable(int magic, @NonNull long[] numbers, int slots, int size)
+            throws IOException {
+        final long[] keys = new long[slots];
+        final short[] values = new short[slots];
+        for (int i = 0; i < numbers.length; i++) {
+            int slot = (int) RussvyPortingOverlay.hash(numbers[i]) & (slots - 1);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            keys[slot] = numbers[i];
+            values[slot] = (short) (i + 1);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(bytes);
+        os.writeInt(magic);
+        os.writeShort(1);
+        os.writeShort(0);
+        os.writeInt(size);
+        os.writeInt(slots);
+        for (long key : keys) {
+            os.writeLong(key);
+        }
+        for (short value : values) {
+            os.writeShort(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    private File write(@NonNull byte[] data) throws IOException {
+        final File file = mFolder.newFile();
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,222 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyRangeIndexTest {
+    private static final File ASSETS = new File("../assets");
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void loadsCodesLazily() {
+        // Paging loads the code too, so the number is taken from another index
+        final long number = getFirstNumber(RussvyRangeIndex.open(ASSETS), 921);
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        assertNotNull(index.getDataAge());
+        assertFalse(index.isLoaded(921));
+        // Counts come from the directory, ranges are not read for them
+        assertTrue(index.getRangeCount(921) > 0);
+        assertFalse(index.isLoaded(921));
+
+        assertNotNull(index.lookup(number));
+        assertTrue(index.isLoaded(921));
+        assertFalse(index.isLoaded(495));
+
+        assertTrue(index.loadAll());
+        assertTrue(index.isLoaded(495));
+    }
+
+    @Test
+    public void pagesThroughSortedRanges() {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        long total = 0;
+        for (int code = 0; code < RussvyUtils.CODE_COUNT; code++) {
+            final RussvyRangeBlock block = new RussvyRangeBlock(100);
+            int count = 0;
+            int previousEnd = 0;
+            int start = 0;
+            while (index.getRanges(code, start, block) > 0) {
+                assertEquals(code, block.getCode());
+                for (int i = 0; i < block.size(); i++) {
+                    // Ranges of a code are sorted and do not overlap
+                    assertTrue(block.getStarts()[i] >= previousEnd);
+                    previousEnd = block.getStarts()[i] + block.getCapacities()[i];
+                }
+                count += block.size();
+                start = block.getNextStart();
+            }
+            assertEquals(index.getRangeCount(code), count);
+            total += count;
+        }
+        assertEquals(index.getRangeCount(), total);
+    }
+
+    @Test
+    public void findsRangeOfNumber() {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, index.getRanges(921, 0, block));
+        final long first = 921L * RussvyUtils.NUMBERS_PER_CODE + block.getStarts()[0];
+        final long last = first + block.getCapacities()[0] - 1;
+
+        final RussvyLookupResult result = index.lookup(last);
+        assertNotNull(result);
+        assertEquals(921, result.getCode());
+        assertEquals(block.getStarts()[0], result.getStart());
+        assertEquals(block.getCapacities()[0], result.getCapacity());
+        assertEquals(block.getOperatorIds()[0], result.getOperatorId());
+        assertEquals(index.getOperatorName(result.getOperatorId()), result.getOperatorName());
+        if (block.getStarts()[0] > 0) {
+            assertNull(index.lookup(first - 1));
+        }
+        assertNull(index.lookup(-1));
+        assertNull(index.lookup(RussvyUtils.MAX_NUMBER));
+    }
+
+    @Test
+    public void reloadsData() throws IOException {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        final long number = getFirstNumber(index, 921);
+        final RussvyLookupResult old = index.lookup(number);
+        assertNotNull(old);
+
+        // The same ranges with renamed operators
+        final File directory = mFolder.newFolder();
+        copy(new File(ASSETS, RussvyDataSource.RANGES_FILE), directory);
+        copy(new File(ASSETS, RussvyDataSource.REGIONS_FILE), directory);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(ASSETS, RussvyDataSource.OPERATORS_FILE)), "UTF-8"));
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(
+                new File(directory, RussvyDataSource.OPERATORS_FILE)), "UTF-8");
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write("New " + line + "\n");
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+
+        assertTrue(index.reload(directory));
+        assertTrue(index.isLoaded(495));
+        final RussvyLookupResult fresh = index.lookup(number);
+        assertNotNull(fresh);
+        assertEquals(old.getOperatorId(), fresh.getOperatorId());
+        assertEquals("New " + old.getOperatorName(), fresh.getOperatorName());
+        // Results found before keep names of their data
+        assertFalse(old.getOperatorName().startsWith("New "));
+
+        // Data which can not be read does not replace the active one
+        assertFalse(index.reload(mFolder.newFolder()));
+        assertEquals(fresh.getOperatorName(), index.lookup(number).getOperatorName());
+    }
+
+    @Test
+    public void fillsReusedResult() throws IOException {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        final long number = getFirstNumber(index, 921);
+        final long other = getFirstNumber(index, 812);
+        final File file = mFolder.newFile();
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(RussvyPortingOverlayTest.createTable(0x52535650, new long[] {number}, 8, 1));
+        } finally {
+            os.close();
+        }
+        index.setPortingOverlay(RussvyPortingOverlay.open(file));
+
+        final RussvyLookupResult result = new RussvyLookupResult();
+        assertTrue(index.lookup(number, result));
+        assertTrue(result.isPorted());
+        assertEquals(1, result.getOperatorId());
+        assertTrue(index.lookup(other, result));
+        // Nothing is left from the previous number
+        assertFalse(result.isPorted());
+        assertEquals(812, result.getCode());
+        assertEquals(index.lookup(other).getOperatorName(), result.getOperatorName());
+        // Not found numbers leave the result as is
+        assertFalse(index.lookup(-1, result));
+        assertEquals(812, result.getCode());
+    }
+
+    @Test
+    public void lookupIntoReusedResultAllocatesNothing() {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final RussvyRangeIndex index = RussvyRangeIndex.open(ASSETS);
+        assertNotNull(index);
+        final long number = getFirstNumber(index, 921);
+        final RussvyLookupResult result = new RussvyLookupResult();
+        long allocated = 0;
+        for (int run = 0; run < 2; run++) {
+            // The first run warms up, names are loaded and the code is compiled
+            final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100000; i++) {
+                assertTrue(index.lookup(number + i % 10, result));
+                assertNotNull(result.getOperatorName());
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        // Allocating lookups would take megabytes
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void copy(@NonNull File file, @NonNull File directory) throws IOException {
+        final FileInputStream is = new FileInputStream(file);
+        final FileOutputStream os = new FileOutputStream(new File(directory, file.getName()));
+        try {
+            final byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                os.write(buffer, 0, count);
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+    }
+
+    private static long getFirstNumber(@Nullable RussvyRangeIndex index, int code) {
+        assertNotNull(index);
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, index.getRanges(code, 0, block));
+        return code * (long) RussvyUtils.NUMBERS_PER_CODE + block.getStarts()[0];
+    }
+}
@@ -0,0 +1,138 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmark of {@link RussvyRangeTable#find(int)} over the range tables of the repository
+ * assets: search of the Eytzinger layout against binary search of the sorted starts, for the
+ * codes with the largest tables. Both searches must find the same ranges for every probe before
+ * they are timed. Probes are uniformly random local numbers with a fixed seed, figures are
+ * medians of several runs after a warm up run.
+ * Skipped unless enabled, see testOptions in build.gradle. Results are printed and written to
+ * build/reports/russvy-range-table.tsv as name, value and unit separated by tabs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyRangeTableBenchmark {
+    private static final long SEED = 20170201L;
+    private static final File ASSETS_DIRECTORY = new File("../assets");
+    private static final String REPORT_FILE = "build/reports/russvy-range-table.tsv";
+
+    private static final int PROBE_COUNT = 1000000;
+    /** Codes with large range tables, from the largest one down. */
+    private static final int[] CODES = {495, 812, 902, 950};
+
+    private final List<String> mResults = new ArrayList<String>();
+    private RussvyDataSnapshot mSnapshot;
+    private int mRuns;
+    /** Keeps results of timed loops alive. */
+    private long mSink;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("russvy.benchmark"));
+        mRuns = Math.max(1, Integer.getInteger("russvy.benchmark.runs", 3));
+        mSnapshot = RussvyDataSnapshot.open(RussvyDataSource.directory(ASSETS_DIRECTORY));
+        assertNotNull("Assets not found", mSnapshot);
+        System.out.println(String.format(Locale.US,
+                "Java %s, %s %s, %d runs, seed %d, %d probes per code, data of %tF",
+                System.getProperty("java.version"), System.getProperty("os.name"),
+                System.getProperty("os.arch"), mRuns, SEED, PROBE_COUNT,
+                mSnapshot.getDataAge()));
+    }
+
+    @Test
+    public void find() throws Exception {
+        long mismatches = 0;
+        for (int code : CODES) {
+            final RussvyRangeTable table = mSnapshot.getTable(code);
+            assertNotNull(table);
+            final Random random = new Random(SEED + code);
+            final int[] localNumbers = new int[PROBE_COUNT];
+            for (int i = 0; i < localNumbers.length; i++) {
+                localNumbers[i] = random.nextInt(RussvyUtils.NUMBERS_PER_CODE);
+                if (table.find(localNumbers[i]) != findSorted(table, localNumbers[i])) {
+                    mismatches++;
+                }
+            }
+            final long[] sortedNanos = new long[mRuns + 1];
+            final long[] tableNanos = new long[mRuns + 1];
+            // Run 0 warms up and is not counted
+            for (int run = 0; run <= mRuns; run++) {
+                long start = System.nanoTime();
+                for (int localNumber : localNumbers) {
+                    mSink += findSorted(table, localNumber);
+                }
+                sortedNanos[run] = (System.nanoTime() - start) / localNumbers.length;
+                start = System.nanoTime();
+                for (int localNumber : localNumbers) {
+                    mSink += table.find(localNumber);
+                }
+                tableNanos[run] = (System.nanoTime() - start) / localNumbers.length;
+            }
+            final String prefix = "table.code" + code + "_" + table.size() + "_ranges";
+            report(prefix + ".binary_search",
+                    median(Arrays.copyOfRange(sortedNanos, 1, mRuns + 1)), "ns");
+            report(prefix + ".find", median(Arrays.copyOfRange(tableNanos, 1, mRuns + 1)), "ns");
+        }
+        report("table.mismatches", mismatches, "count");
+        writeReport();
+        assertEquals(0, mismatches);
+    }
+
+    /** Returns position of the range containing the number or -1, by binary search. */
+    private static int findSorted(@NonNull RussvyRangeTable table, int localNumber) {
+        int i = Arrays.binarySearch(table.starts, localNumber);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i >= 0 && localNumber - table.starts[i] < table.capacities[i] ? i : -1;
+    }
+
+    private static long median(@NonNull long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void report(@NonNull String name, long value, @NonNull String unit) {
+        final String line = name + "\t" + value + "\t" + unit;
+        mResults.add(line);
+        System.out.println(line);
+    }
+
+    private void writeReport() throws FileNotFoundException {
+        final File report = new File(REPORT_FILE);
+        final File directory = report.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Can not create " + directory);
+        }
+        final PrintWriter writer = new PrintWriter(report);
+        try {
+            for (String line : mResults) {
+                writer.println(line);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.maphon.russvy;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RussvyRangeTableTest {
+    private static final int CODE = 921;
+
+    @Test
+    public void findsRangesOfSmallTable() throws IOException {
+        checkRegularTable(100);
+    }
+
+    @Test
+    public void findsRangesOfLargeTable() throws IOException {
+        // Large tables are searched in Eytzinger order
+        checkRegularTable(5000);
+    }
+
+    @Test
+    public void searchesAgreeAroundLayoutThreshold() throws IOException {
+        final Random random = new Random(921);
+        for (int size : new int[] {1, 2, 3, 1023, 1024, 1025, 2047, 2048, 2049, 4095}) {
+            final int[] starts = new int[size];
+            final int[] capacities = new int[size];
+            int start = random.nextInt(100);
+            for (int i = 0; i < size; i++) {
+                starts[i] = start;
+                capacities[i] = 1 + random.nextInt(100);
+                // Touching ranges and gaps between them
+                start += capacities[i] + (random.nextBoolean() ? 0 : random.nextInt(100));
+            }
+            final RussvyRangeTable table = read(starts, capacities);
+            for (int number = 0; number <= start + 10; number++) {
+                assertEquals("size " + size + ", number " + number,
+                        findLinear(starts, capacities, number), table.find(number));
+            }
+        }
+    }
+
+    @Test
+    public void findsLowerBound() throws IOException {
+        final RussvyRangeTable table = read(new int[] {10, 20, 30}, new int[] {5, 5, 5});
+        assertEquals(0, table.lowerBound(0));
+        assertEquals(0, table.lowerBound(10));
+        assertEquals(1, table.lowerBound(11));
+        assertEquals(2, table.lowerBound(30));
+        assertEquals(3, table.lowerBound(31));
+    }
+
+    @Test
+    public void keepsRecordFields() throws IOException {
+        final RussvyRangeTable table = read(new int[] {10, 20}, new int[] {5, 7});
+        assertEquals(2, table.size());
+        assertEquals(CODE, table.code);
+        assertEquals(20, table.starts[1]);
+        assertEquals(7, table.capacities[1]);
+        assertEquals(1, table.operators[1]);
+        assertEquals(101, table.regions[1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRecordsOfAnotherCode() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(bytes);
+        writeRecord(os, CODE, 0, 10, 0);
+        writeRecord(os, CODE + 1, 20, 10, 1);
+        RussvyRangeTable.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                CODE, 2);
+    }
+
+    // Ranges [3 + 10 * i, 8 + 10 * i) for every i.
+    private static void checkRegularTable(int size) throws IOException {
+        final int[] starts = new int[size];
+        final int[] capacities = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = 3 + 10 * i;
+            capacities[i] = 5;
+        }
+        final RussvyRangeTable table = read(starts, capacities);
+        assertEquals(size, table.size());
+        for (int number = 0; number < 10 * size + 10; number++) {
+            final int i = (number - 3) / 10;
+            final boolean inRange = number >= 3 && i < size && (number - 3) % 10 < 5;
+            assertEquals("number " + number, inRange ? i : -1, table.find(number));
+        }
+    }
+
+    private static int findLinear(@NonNull int[] starts, @NonNull int[] capacities, int number) {
+        for (int i = 0; i < starts.length; i++) {
+            if (number >= starts[i] && number - starts[i] < capacities[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @NonNull
+    private static RussvyRangeTable read(@NonNull int[] starts, @NonNull int[] capacities)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(bytes);
+        for (int i = 0; i < starts.length; i++) {
+            writeRecord(os, CODE, starts[i], capacities[i], i);
+        }
+        return RussvyRangeTable.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), CODE,
+                starts.length);
+    }
+
+    private static void writeRecord(@NonNull DataOutputStream os, int code, int start,
+                                    int capacity, int i) throws IOException {
+        os.writeShort(code);
+        os.writeInt(start);
+        os.writeInt(capacity);
+        os.writeShort(i % 100);
+        os.writeShort(100 + i % 100);
+    }
+}
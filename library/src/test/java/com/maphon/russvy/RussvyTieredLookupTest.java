@@ -0,0 +1,115 @@
+package com.maphon.russvy;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", assetDir = "../../../assets", sdk = 25)
+public class RussvyTieredLookupTest {
+    private static final String DATABASE_NAME = "tiered.db";
+    private static final long TIMEOUT_MS = 60 * 1000;
+
+    private RussvyDatabaseManager mManager;
+
+    @Before
+    public void setUp() {
+        mManager = new RussvyDatabaseManager(RuntimeEnvironment.application, DATABASE_NAME);
+        RussvyDatabaseManagerTest.importData(mManager);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void fallsBackToSlowerTiers() throws InterruptedException {
+        final RussvyTieredLookup lookup = new RussvyTieredLookup(RuntimeEnvironment.application,
+                null, mManager);
+        lookup.setCodes(RussvyDatabaseManagerTest.CODES);
+        final long number = 9210000000L + getFirstStart(921);
+        final RussvyLookupResult expected = mManager.lookup(number);
+        assertNotNull(expected);
+        // The first lookup is served by a slower tier while the memory one is being built
+        checkResult(expected, lookup.lookup(number));
+        waitForTier(lookup, RussvyTieredLookup.Tier.MEMORY);
+        checkResult(expected, lookup.lookup(number));
+        // Code which is in the assets but not in the database
+        assertNull(lookup.lookup(4950000000L + getFirstStart(495)));
+
+        lookup.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(RussvyTieredLookup.Tier.MEMORY, lookup.getTier());
+        lookup.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        // Memory tier is not rebuilt before the cooldown ends
+        assertNotEquals(RussvyTieredLookup.Tier.MEMORY, lookup.getTier());
+        checkResult(expected, lookup.lookup(number));
+        assertNotEquals(RussvyTieredLookup.Tier.MEMORY, lookup.getTier());
+    }
+
+    @Test
+    public void rebuildsMemoryTierAfterCooldown() throws InterruptedException {
+        final RussvyTieredLookup lookup = new RussvyTieredLookup(RuntimeEnvironment.application,
+                null, mManager, 0);
+        waitForTier(lookup, RussvyTieredLookup.Tier.MEMORY);
+        lookup.onLowMemory();
+        assertNotEquals(RussvyTieredLookup.Tier.MEMORY, lookup.getTier());
+        waitForTier(lookup, RussvyTieredLookup.Tier.MEMORY);
+    }
+
+    @Test
+    public void appliesOverridesToEveryTier() throws InterruptedException {
+        final RussvyTieredLookup lookup = new RussvyTieredLookup(RuntimeEnvironment.application,
+                null, mManager);
+        final long number = 9210000000L + getFirstStart(921);
+        assertTrue(mManager.getOverrides().set(number, "Дом"));
+        assertEquals("Дом", lookup.lookup(number).getLabel());
+        waitForTier(lookup, RussvyTieredLookup.Tier.MEMORY);
+        assertEquals("Дом", lookup.lookup(number).getLabel());
+        assertEquals("Дом", lookup.lookup(new long[] {number})[0].getLabel());
+    }
+
+    private int getFirstStart(int code) {
+        final RussvyRangeIndex index = RussvyRangeIndex.open(RuntimeEnvironment.application,
+                null);
+        assertNotNull(index);
+        final RussvyRangeBlock block = new RussvyRangeBlock(1);
+        assertEquals(1, index.getRanges(code, 0, block));
+        return block.getStarts()[0];
+    }
+
+    private static void waitForTier(@NonNull RussvyTieredLookup lookup,
+                                    @NonNull RussvyTieredLookup.Tier tier)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (lookup.getTier() != tier) {
+            assertTrue("Tier " + tier + " is not built", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static void checkResult(@NonNull RussvyLookupResult expected,
+                                    @Nullable RussvyLookupResult result) {
+        assertNotNull(result);
+        assertEquals(expected.getCode(), result.getCode());
+        assertEquals(expected.getStart(), result.getStart());
+        assertEquals(expected.getCapacity(), result.getCapacity());
+        assertEquals(expected.getOperatorName(), result.getOperatorName());
+        assertEquals(expected.getRegionName(), result.getRegionName());
+    }
+}